@@ -0,0 +1,93 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.StegoCipherEngine;
+import com.example.piccrypt.stego.StegoCrypto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link StegoCipherEngine} against the per-call setup it replaced: a new
+ * {@link SecureRandom} and a {@link Cipher#getInstance} lookup for every
+ * message. Run with {@code -prof gc}, and with {@code -t 4} to see contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CipherEngineBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int messageChars;
+
+    private final StegoCipherEngine engine = new StegoCipherEngine();
+    private String text;
+    private byte[] key;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws Exception {
+        char[] chars = new char[messageChars];
+        Random random = new Random(messageChars);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (' ' + random.nextInt(95));
+        }
+        text = new String(chars);
+        key = StegoCrypto.legacyKey("password");
+        encrypted = engine.encrypt(text, key);
+    }
+
+    @Benchmark
+    public byte[] perCallEncrypt() throws Exception {
+        byte[] iv = new byte[StegoCrypto.GCM_IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(StegoCrypto.GCM_TAG_LENGTH, iv));
+        byte[] cipherText = cipher.doFinal(text.getBytes(StandardCharsets.UTF_8));
+
+        byte[] result = new byte[iv.length + cipherText.length];
+        System.arraycopy(iv, 0, result, 0, iv.length);
+        System.arraycopy(cipherText, 0, result, iv.length, cipherText.length);
+        return result;
+    }
+
+    @Benchmark
+    public byte[] engineEncrypt() throws Exception {
+        return engine.encrypt(text, key);
+    }
+
+    @Benchmark
+    public String perCallDecrypt() throws Exception {
+        byte[] iv = Arrays.copyOfRange(encrypted, 0, StegoCrypto.GCM_IV_LENGTH);
+        byte[] cipherText = Arrays.copyOfRange(encrypted, StegoCrypto.GCM_IV_LENGTH, encrypted.length);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(StegoCrypto.GCM_TAG_LENGTH, iv));
+        return new String(cipher.doFinal(cipherText), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String engineDecrypt() throws Exception {
+        return engine.decryptToString(encrypted, key);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.GifCarrierReader;
+import com.example.piccrypt.stego.GifCarrierWriter;
+import com.example.piccrypt.stego.LsbField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame embedding and extraction alone, without the payload format or any
+ * cryptography: one {@link LsbField} filling the carrier, written through a
+ * {@link GifCarrierWriter} and read back through a {@link GifCarrierReader}.
+ * Divide the file size by the score for MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class GifCarrierBenchmark {
+
+    @Param({"SMALL_ANIMATED", "LARGE_MULTI_FRAME"})
+    public SyntheticGifs carrier;
+
+    private ByteBuffer gif;
+    private ByteBuffer stego;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] image = carrier.build();
+        gif = ByteBuffer.wrap(image);
+        long capacity = GifCarrierReader.carrierBytes(gif) * LsbField.LSB_BITS / 8;
+        payload = new byte[(int) (capacity - 64)];
+        new Random(1).nextBytes(payload);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.length);
+        embed(out);
+        stego = ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Benchmark
+    public void embed() throws IOException {
+        embed(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public byte[] extract() {
+        LsbField field = new LsbField(payload.length, 0);
+        GifCarrierReader reader = new GifCarrierReader(stego);
+        while (!field.isComplete() && reader.next()) {
+            field.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+        }
+        return field.data();
+    }
+
+    private void embed(OutputStream out) throws IOException {
+        LsbField field = new LsbField(payload, 0);
+        GifCarrierWriter writer = new GifCarrierWriter(gif, out);
+        while (!field.isComplete() && writer.next()) {
+            field.embed(writer.carrier(), writer.offset(), writer.length(), writer.position());
+        }
+        writer.finish();
+    }
+}
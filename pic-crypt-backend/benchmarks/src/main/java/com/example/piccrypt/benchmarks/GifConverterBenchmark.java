@@ -0,0 +1,103 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.BufferPool;
+import com.example.piccrypt.stego.GifConverter;
+import com.example.piccrypt.stego.PaletteQuantizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PNG and JPEG photos converted to GIF89a carriers, and the quantizer alone,
+ * with {@code threads} workers. The photos are smooth gradients with a
+ * little noise, like a downscaled camera picture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class GifConverterBenchmark {
+
+    @Param({"1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"png", "jpg"})
+    public String format;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private ByteBuffer image;
+    private int[] rgb;
+    private GifConverter converter;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+        int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+        BufferedImage photo = photo(width, height);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(photo, format, out);
+        image = ByteBuffer.wrap(out.toByteArray());
+        rgb = photo.getRGB(0, 0, width, height, null, 0, width);
+        converter = new GifConverter(threads, 1, new BufferPool(64 << 10, 32 << 20, 64 << 20));
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        converter.close();
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int convert() throws IOException {
+        try (BufferPool.Slab gif = converter.toGif(image.duplicate())) {
+            return gif.buffer().remaining();
+        }
+    }
+
+    @Benchmark
+    public PaletteQuantizer.Result quantize() {
+        return PaletteQuantizer.quantize(rgb, pool);
+    }
+
+    private static BufferedImage photo(int width, int height) {
+        Random random = new Random(width);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = clamp(255 * x / width + random.nextInt(9) - 4);
+                int green = clamp(255 * y / height + random.nextInt(9) - 4);
+                int blue = clamp(128 + (int) (100 * Math.sin((x + y) / 40.0)) + random.nextInt(9) - 4);
+                image.setRGB(x, y, 0xFF000000 | red << 16 | green << 8 | blue);
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.LsbCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The word-packed {@link LsbCodec} against the per-bit loop it replaced, on a
+ * 16 MB carrier filled to capacity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LsbCodecBenchmark {
+    private static final int CARRIER_BYTES = 16 << 20;
+
+    private byte[] carrier;
+    private byte[] data;
+    private byte[] extracted;
+
+    @Setup
+    public void setUp() {
+        carrier = new byte[CARRIER_BYTES];
+        new Random(1).nextBytes(carrier);
+        data = new byte[CARRIER_BYTES / 8 * 3];
+        new Random(2).nextBytes(data);
+        extracted = new byte[data.length];
+    }
+
+    @Benchmark
+    public byte[] codecEmbed() {
+        LsbCodec.embed(data, 0, carrier, 0, carrier.length);
+        return carrier;
+    }
+
+    @Benchmark
+    public byte[] codecExtract() {
+        LsbCodec.extract(carrier, 0, carrier.length, extracted, 0);
+        return extracted;
+    }
+
+    @Benchmark
+    public byte[] bitLoopEmbed() {
+        int currentByte = 0;
+        int bitBuffer = 0;
+        int bitsInBuffer = 0;
+        for (byte dataByte : data) {
+            bitBuffer = (bitBuffer << 8) | (dataByte & 0xFF);
+            bitsInBuffer += 8;
+            while (bitsInBuffer >= 3) {
+                if (currentByte >= carrier.length) {
+                    return carrier;
+                }
+                int bits = (bitBuffer >> (bitsInBuffer - 3)) & 0x07;
+                carrier[currentByte] = (byte) ((carrier[currentByte] & 0xF8) | bits);
+                bitsInBuffer -= 3;
+                currentByte++;
+            }
+        }
+        return carrier;
+    }
+
+    @Benchmark
+    public byte[] bitLoopExtract() {
+        int currentByte = 0;
+        int bitBuffer = 0;
+        int bitsInBuffer = 0;
+        int dataIndex = 0;
+        while (dataIndex < extracted.length && currentByte < carrier.length) {
+            bitBuffer = (bitBuffer << 3) | (carrier[currentByte] & 0x07);
+            bitsInBuffer += 3;
+            currentByte++;
+            while (bitsInBuffer >= 8 && dataIndex < extracted.length) {
+                extracted[dataIndex] = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
+                bitsInBuffer -= 8;
+                dataIndex++;
+            }
+        }
+        return extracted;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.FeistelPermutation;
+import com.example.piccrypt.stego.ScatteredField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embed and extract of a 16 MB {@link ScatteredField}, the field every
+ * message goes through, run inside a fork/join pool of {@code threads}
+ * workers. The field stripes its carrier range over that pool. Compare the
+ * scores across {@code threads} for the scaling; use {@code -p threads=...}
+ * to match the machine's cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ScatteredFieldBenchmark {
+    private static final int CARRIER_BYTES = 16 << 20;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ForkJoinPool pool;
+    private byte[] carrier;
+    private byte[] data;
+    private FeistelPermutation order;
+
+    @Setup
+    public void setUp() {
+        pool = new ForkJoinPool(threads);
+        carrier = new byte[CARRIER_BYTES];
+        new Random(1).nextBytes(carrier);
+        data = new byte[CARRIER_BYTES / 8 * 3];
+        new Random(2).nextBytes(data);
+        order = new FeistelPermutation(new byte[] {3}, CARRIER_BYTES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte[] embed() throws Exception {
+        pool.submit(() -> new ScatteredField(data, 0, order).embed(carrier, 0, CARRIER_BYTES, 0)).get();
+        return carrier;
+    }
+
+    @Benchmark
+    public byte[] extract() throws Exception {
+        ScatteredField field = new ScatteredField(data.length, 0, order);
+        pool.submit(() -> field.extract(carrier, 0, CARRIER_BYTES, 0)).get();
+        return field.data();
+    }
+}
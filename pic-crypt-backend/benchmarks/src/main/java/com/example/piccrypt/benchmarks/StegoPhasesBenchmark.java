@@ -0,0 +1,270 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.DerivedKeyCache;
+import com.example.piccrypt.stego.GifCarrierReader;
+import com.example.piccrypt.stego.LsbField;
+import com.example.piccrypt.stego.StegoCipherEngine;
+import com.example.piccrypt.stego.StegoCrypto;
+import com.example.piccrypt.stego.StegoFormat;
+import com.example.piccrypt.stego.TextCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases of {@code SteganographyService.encrypt} and {@code decrypt}, one
+ * benchmark each, plus both end to end. Every carrier gets a payload filling
+ * 90% of its capacity, so the frame phases touch (almost) every frame.
+ *
+ * Run from this directory with
+ * {@code mvn package && java -jar target/benchmarks.jar -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class StegoPhasesBenchmark {
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"PALETTE_ONLY", "SMALL_ANIMATED", "LARGE_MULTI_FRAME"})
+    public SyntheticGifs carrier;
+
+    private ByteBuffer gif;
+    private ByteBuffer stego;
+    private String text;
+    private byte[] message;
+    private byte[] key;
+    private byte[] keyCheck;
+    private byte[] salt;
+    private DerivedKeyCache keyCache;
+    private final StegoCipherEngine cipherEngine = new StegoCipherEngine();
+    // The payload as extract returns it: base nonce, then every chunk with its tag.
+    private byte[] encrypted;
+
+    // Decoded carrier segments covering the payload, for the LSB-only phases.
+    private byte[][] segments;
+    private long[] positions;
+
+    private Path dir;
+    private File inputFile;
+    private File stegoFile;
+    private File outputFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] image = carrier.build();
+        gif = ByteBuffer.wrap(image);
+
+        int messageBytes = (int) Math.max(1, StegoCrypto.segmentedMessageLength(StegoFormat.capacity(gif) * 9L / 10));
+        char[] chars = new char[messageBytes];
+        Random random = new Random(messageBytes);
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (' ' + random.nextInt(95));
+        }
+        text = new String(chars);
+        message = text.getBytes(StandardCharsets.UTF_8);
+
+        salt = StegoCrypto.newSalt();
+        key = StegoCrypto.deriveKey(PASSWORD, salt);
+        keyCheck = StegoCrypto.keyCheck(key);
+        keyCache = new DerivedKeyCache(16, Duration.ofHours(1));
+        keyCache.key(salt, PASSWORD);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(image.length);
+        StegoFormat.embed(gif, salt, keyCheck, 0, cipherEngine.segmenter(message, key), out);
+        byte[] stegoImage = out.toByteArray();
+        stego = ByteBuffer.wrap(stegoImage);
+        encrypted = StegoFormat.extract(stego).message();
+
+        long payloadEnd = StegoFormat.MESSAGE_START + LsbField.carrierBytes(encrypted.length);
+        List<byte[]> decoded = new ArrayList<>();
+        List<Long> starts = new ArrayList<>();
+        GifCarrierReader reader = new GifCarrierReader(gif);
+        while (reader.next() && reader.position() < payloadEnd) {
+            decoded.add(Arrays.copyOfRange(reader.carrier(), reader.offset(), reader.offset() + reader.length()));
+            starts.add(reader.position());
+        }
+        segments = decoded.toArray(new byte[0][]);
+        positions = starts.stream().mapToLong(Long::longValue).toArray();
+
+        dir = Files.createTempDirectory("stego-bench");
+        inputFile = dir.resolve("input.gif").toFile();
+        stegoFile = dir.resolve("stego.gif").toFile();
+        outputFile = dir.resolve("output.gif").toFile();
+        Files.write(inputFile.toPath(), image);
+        Files.write(stegoFile.toPath(), stegoImage);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(inputFile.toPath());
+        Files.deleteIfExists(stegoFile.toPath());
+        Files.deleteIfExists(outputFile.toPath());
+        Files.deleteIfExists(dir);
+    }
+
+    /** Header check plus the capacity scan over the block headers. */
+    @Benchmark
+    public int formatCheck() {
+        if (!GifCarrierReader.isGif89a(gif)) {
+            throw new IllegalStateException();
+        }
+        return StegoFormat.capacity(gif);
+    }
+
+    /** PBKDF2, what every cache miss costs. */
+    @Benchmark
+    public byte[] keyDerivation() throws Exception {
+        return StegoCrypto.deriveKey(PASSWORD, salt);
+    }
+
+    @Benchmark
+    public byte[] keyCacheHit() throws Exception {
+        return keyCache.key(salt, PASSWORD);
+    }
+
+    /** Every chunk of the message, as the embedding asks for them. */
+    @Benchmark
+    public int gcmEncrypt() throws Exception {
+        StegoCipherEngine.Segmenter segmenter = cipherEngine.segmenter(message, key);
+        int sum = 0;
+        for (int i = 0; i < segmenter.chunks(); i++) {
+            sum += segmenter.chunk(i)[0];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public byte[] gcmDecrypt() throws Exception {
+        return cipherEngine.decryptSegmented(encrypted, key);
+    }
+
+    /** Bit embedding only, into carrier segments that are already decoded. */
+    @Benchmark
+    public LsbField lsbEmbed() {
+        LsbField field = new LsbField(encrypted, StegoFormat.MESSAGE_START);
+        for (int i = 0; i < segments.length; i++) {
+            field.embed(segments[i], 0, segments[i].length, positions[i]);
+        }
+        return field;
+    }
+
+    /** Bit extraction only, from carrier segments that are already decoded. */
+    @Benchmark
+    public byte[] lsbExtract() {
+        LsbField field = new LsbField(encrypted.length, StegoFormat.MESSAGE_START);
+        for (int i = 0; i < segments.length; i++) {
+            field.extract(segments[i], 0, segments[i].length, positions[i]);
+        }
+        return field.data();
+    }
+
+    /** LZW decode, bit embedding and LZW encode, written nowhere. */
+    @Benchmark
+    public void embedCarrier() throws IOException {
+        StegoFormat.embed(gif, salt, keyCheck, 0, cipherEngine.segmenter(message, key), OutputStream.nullOutputStream());
+    }
+
+    /** LZW decode and bit extraction. */
+    @Benchmark
+    public StegoFormat.Payload extractCarrier() {
+        return StegoFormat.extract(stego);
+    }
+
+    /** {@link #embedCarrier()} into a real file; the difference is the write cost. */
+    @Benchmark
+    public void writeFile() throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            StegoFormat.embed(gif, salt, keyCheck, 0, cipherEngine.segmenter(message, key), out);
+        }
+    }
+
+    /**
+     * {@link #writeFile()} through a {@link FileChannel}, as the service stores
+     * messages: the unchanged tail goes to the channel in one write.
+     */
+    @Benchmark
+    public void writeFileChannel() throws IOException {
+        try (FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StegoFormat.embedding(gif, salt, keyCheck, 0, cipherEngine.segmenter(message, key)).writeTo(out);
+        }
+    }
+
+    /**
+     * Same steps as {@code SteganographyService.encrypt}, except that the key
+     * comes from the cache: a fresh salt would make this a KDF benchmark.
+     */
+    @Benchmark
+    public File encrypt() throws Exception {
+        ByteBuffer image = map(inputFile);
+        if (!GifCarrierReader.isGif89a(image)) {
+            throw new IllegalStateException();
+        }
+        byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = TextCompressor.compress(plain);
+        byte[] stored = deflated != null ? deflated : plain;
+        if (StegoCrypto.segmentedLength(stored.length) > StegoFormat.capacity(image)) {
+            throw new IllegalStateException();
+        }
+        byte[] cachedKey = keyCache.key(salt, PASSWORD);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
+            StegoFormat.embed(image, salt, StegoCrypto.keyCheck(cachedKey), deflated != null ? StegoFormat.FLAG_DEFLATE : 0,
+                    cipherEngine.segmenter(stored, cachedKey), out);
+        }
+        return outputFile;
+    }
+
+    /** Same steps as {@code SteganographyService.decrypt}, with a cached key. */
+    @Benchmark
+    public String decrypt() throws Exception {
+        ByteBuffer image = map(stegoFile);
+        if (!GifCarrierReader.isGif89a(image)) {
+            throw new IllegalStateException();
+        }
+        StegoFormat.Payload payload = StegoFormat.extract(image);
+        byte[] cachedKey = keyCache.key(payload.salt(), payload.kdfIterations(), PASSWORD);
+        if (!MessageDigest.isEqual(payload.keyCheck(), StegoCrypto.keyCheck(cachedKey))) {
+            throw new IllegalStateException();
+        }
+        byte[] plain = cipherEngine.decryptSegmented(payload.message(), cachedKey);
+        return new String(payload.isDeflated() ? TextCompressor.decompress(plain) : plain, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.LzwEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/** Generated GIF89a carriers, deterministic for a given shape. */
+public enum SyntheticGifs {
+    /** One transparent frame, so only the 256 color table carries bits. */
+    PALETTE_ONLY(64, 64, 1, true),
+    /** A small sticker-sized animation. */
+    SMALL_ANIMATED(160, 120, 12, false),
+    /** A VGA clip, several megabytes of frame indices. */
+    LARGE_MULTI_FRAME(640, 480, 24, false);
+
+    private final int width;
+    private final int height;
+    private final int frames;
+    private final boolean transparent;
+
+    SyntheticGifs(int width, int height, int frames, boolean transparent) {
+        this.width = width;
+        this.height = height;
+        this.frames = frames;
+        this.transparent = transparent;
+    }
+
+    public byte[] build() throws IOException {
+        Random random = new Random(ordinal());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0xF7);
+        out.write(0);
+        out.write(0);
+        byte[] palette = new byte[768];
+        random.nextBytes(palette);
+        out.write(palette);
+
+        byte[] pixels = new byte[width * height];
+        for (int f = 0; f < frames; f++) {
+            out.write(new byte[]{0x21, (byte) 0xF9, 4, (byte) (transparent ? 0x05 : 0x04), 10, 0, 0, 0});
+            out.write(0x2C);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, width);
+            writeShort(out, height);
+            out.write(0);
+            for (int i = 0; i < pixels.length; i++) {
+                // Smooth gradient with sparse noise, so LZW sees runs like in real frames.
+                int x = i % width;
+                int y = i / width;
+                pixels[i] = (byte) ((x + y) / 4 + f * 3 + (random.nextInt(16) == 0 ? random.nextInt(256) : 0));
+            }
+            LzwEncoder encoder = new LzwEncoder(8, out);
+            encoder.encode(pixels, 0, pixels.length);
+            encoder.finish();
+        }
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+}
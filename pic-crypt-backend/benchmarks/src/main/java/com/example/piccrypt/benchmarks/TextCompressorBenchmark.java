@@ -0,0 +1,59 @@
+package com.example.piccrypt.benchmarks;
+
+import com.example.piccrypt.stego.TextCompressor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TextCompressor} on chat messages of a few lengths, in English and
+ * Ukrainian. How much smaller they get is checked by {@code TextCompressorTest};
+ * this is the time it costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextCompressorBenchmark {
+    private static final String[] CHAT = {
+            "hi, how are you? are we still meeting tomorrow?",
+            "The password for the shared drive is on the sticky note; please don't send it over email, we can talk about it at the meeting on Friday morning.",
+            "\u043f\u0440\u0438\u0432\u0456\u0442! \u044f\u043a \u0441\u043f\u0440\u0430\u0432\u0438? \u0437\u0430\u0432\u0442\u0440\u0430 \u0437\u0443\u0441\u0442\u0440\u0456\u0447 \u043e 10, \u043d\u0435 \u0437\u0430\u0431\u0443\u0434\u044c",
+            "\u0414\u044f\u043a\u0443\u044e \u0437\u0430 \u0430\u0434\u0440\u0435\u0441\u0443, \u044f \u043f\u043e\u0434\u0437\u0432\u043e\u043d\u044e \u0442\u043e\u0431\u0456 \u0432\u0432\u0435\u0447\u0435\u0440\u0456, \u043a\u043e\u043b\u0438 \u0431\u0443\u0434\u0443 \u0432\u0434\u043e\u043c\u0430. \u0414\u0430\u0439 \u0437\u043d\u0430\u0442\u0438, \u044f\u043a\u0449\u043e \u0449\u043e\u0441\u044c \u0437\u043c\u0456\u043d\u0438\u0442\u044c\u0441\u044f.",
+    };
+
+    @Param({"0", "1", "2", "3"})
+    public int sample;
+
+    private byte[] plain;
+    private byte[] packed;
+
+    @Setup
+    public void setUp() {
+        plain = CHAT[sample].getBytes(StandardCharsets.UTF_8);
+        packed = TextCompressor.compress(plain);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return TextCompressor.compress(plain);
+    }
+
+    @Benchmark
+    public byte[] decompress() throws Exception {
+        return TextCompressor.decompress(packed);
+    }
+}
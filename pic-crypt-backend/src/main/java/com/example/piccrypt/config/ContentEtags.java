@@ -0,0 +1,83 @@
+package com.example.piccrypt.config;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Strong ETags for static files: the first 16 bytes of the SHA-256 of the
+ * content. Each file is hashed once and the tag is kept for as long as its
+ * size and modification time stay the same, so a repeat request costs a
+ * lookup. At most {@code maxEntries} tags are kept, least recently used
+ * first out.
+ */
+public class ContentEtags implements Function<Resource, String> {
+    private static final int TAG_BYTES = 16;
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final int maxEntries;
+    private final Map<String, Entry> tags;
+
+    private record Entry(long length, long lastModified, String tag) {
+    }
+
+    public ContentEtags(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.tags = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ContentEtags.this.maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public String apply(Resource resource) {
+        try {
+            String key = resource.getURL().toString();
+            long length = resource.contentLength();
+            long lastModified = resource.lastModified();
+
+            synchronized (tags) {
+                Entry entry = tags.get(key);
+                if (entry != null && entry.length == length && entry.lastModified == lastModified) {
+                    return entry.tag;
+                }
+            }
+
+            String tag = hash(resource);
+            synchronized (tags) {
+                tags.put(key, new Entry(length, lastModified, tag));
+            }
+            return tag;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String hash(Resource resource) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[READ_BUFFER];
+        try (InputStream in = resource.getInputStream()) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] sum = digest.digest();
+        return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(sum, TAG_BYTES)) + "\"";
+    }
+}
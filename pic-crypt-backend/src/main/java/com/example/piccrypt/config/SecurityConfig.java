@@ -45,6 +45,10 @@ public class SecurityConfig {
                         .requestMatchers("/auth/**").permitAll()
                         .requestMatchers("/users/**", "/friends/**", "/messages/**")
                         .authenticated()
+                        .requestMatchers("/stego/jobs/**", "/stego/decrypt/url", "/stego/decrypt/message/**", "/stego/decrypt/chat/**")
+                        .authenticated()
+                        .requestMatchers("/actuator/health", "/actuator/health/**").permitAll()
+                        .requestMatchers("/actuator/**").authenticated()
                         .anyRequest().permitAll()
                 )
                 .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
@@ -0,0 +1,53 @@
+package com.example.piccrypt.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hands whole files to Tomcat's sendfile, the way its own DefaultServlet
+ * does: the body is left unwritten and the connector copies the file to
+ * the socket from the kernel once the handler returns. Files below
+ * {@code minSize}, resources that are not files (such as the classpath
+ * defaults) and containers without sendfile are written as usual.
+ */
+public class SendfileResourceConverter extends ResourceHttpMessageConverter {
+    private static final String SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String START = "org.apache.tomcat.sendfile.start";
+    private static final String END = "org.apache.tomcat.sendfile.end";
+
+    private final long minSize;
+
+    public SendfileResourceConverter(long minSize) {
+        this.minSize = minSize;
+    }
+
+    @Override
+    protected void writeContent(Resource resource, HttpOutputMessage outputMessage) throws IOException {
+        HttpServletRequest request = currentRequest();
+        if (request != null && Boolean.TRUE.equals(request.getAttribute(SUPPORTED)) && resource.isFile()) {
+            File file = resource.getFile();
+            long length = file.length();
+            if (length >= minSize) {
+                request.setAttribute(FILENAME, file.getCanonicalPath());
+                request.setAttribute(START, 0L);
+                request.setAttribute(END, length);
+                return;
+            }
+        }
+        super.writeContent(resource, outputMessage);
+    }
+
+    private static HttpServletRequest currentRequest() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes servlet ? servlet.getRequest() : null;
+    }
+}
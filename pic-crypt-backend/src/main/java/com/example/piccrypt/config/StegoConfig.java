@@ -0,0 +1,138 @@
+package com.example.piccrypt.config;
+
+import com.example.piccrypt.stego.BufferPool;
+import com.example.piccrypt.stego.DecryptResultCache;
+import com.example.piccrypt.stego.DerivedKeyCache;
+import com.example.piccrypt.stego.GifConverter;
+import com.example.piccrypt.stego.StegoCipherEngine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+@Configuration
+public class StegoConfig {
+    private static final String KEY_CACHE_NAME = "stegoKeys";
+    private static final String RESULT_CACHE_NAME = "stegoResults";
+
+    @Bean
+    public DerivedKeyCache derivedKeyCache(@Value("${app.stego.key-cache.max-entries:1024}") int maxEntries,
+                                           @Value("${app.stego.key-cache.ttl:10m}") Duration ttl,
+                                           MeterRegistry registry) {
+        DerivedKeyCache cache = new DerivedKeyCache(maxEntries, ttl);
+        registerCacheMetrics(registry, KEY_CACHE_NAME, cache,
+                DerivedKeyCache::hits, DerivedKeyCache::misses, DerivedKeyCache::evictions, DerivedKeyCache::size,
+                "Derived key lookups served from the cache", "Derived key lookups that ran the KDF");
+        return cache;
+    }
+
+    @Bean
+    public DecryptResultCache decryptResultCache(@Value("${app.stego.result-cache.max-entries:4096}") int maxEntries,
+                                                 @Value("${app.stego.result-cache.ttl:5m}") Duration ttl,
+                                                 MeterRegistry registry) {
+        DecryptResultCache cache = new DecryptResultCache(maxEntries, ttl);
+        registerCacheMetrics(registry, RESULT_CACHE_NAME, cache,
+                DecryptResultCache::hits, DecryptResultCache::misses, DecryptResultCache::evictions, DecryptResultCache::size,
+                "Stored image decrypts served from the cache", "Stored image decrypts that ran AES-GCM");
+        return cache;
+    }
+
+    /**
+     * Direct buffers for uploads. The largest class holds a whole upload at
+     * the multipart limit; the budget caps the direct memory kept across
+     * requests.
+     */
+    @Bean
+    public BufferPool stegoBufferPool(@Value("${app.stego.buffers.min-slab:64KB}") DataSize minSlab,
+                                      @Value("${app.stego.buffers.max-slab:32MB}") DataSize maxSlab,
+                                      @Value("${app.stego.buffers.max-pooled:256MB}") DataSize maxPooled,
+                                      MeterRegistry registry) {
+        BufferPool pool = new BufferPool((int) minSlab.toBytes(), (int) maxSlab.toBytes(), maxPooled.toBytes());
+        Gauge.builder("stego.buffers.pooled", pool, BufferPool::inUseBytes)
+                .tag("state", "in-use")
+                .baseUnit("bytes")
+                .description("Direct memory held by upload buffers")
+                .register(registry);
+        Gauge.builder("stego.buffers.pooled", pool, BufferPool::freeBytes)
+                .tag("state", "free")
+                .baseUnit("bytes")
+                .description("Direct memory held by upload buffers")
+                .register(registry);
+        FunctionCounter.builder("stego.buffers.acquired", pool, BufferPool::acquires)
+                .description("Upload buffers handed out")
+                .register(registry);
+        FunctionCounter.builder("stego.buffers.overflow", pool, BufferPool::overflows)
+                .description("Upload buffers that fell back to the heap")
+                .register(registry);
+        return pool;
+    }
+
+    @Bean
+    public StegoCipherEngine stegoCipherEngine() {
+        return new StegoCipherEngine();
+    }
+
+    /**
+     * Converts PNG and JPEG uploads on a fork/join pool of its own, so large
+     * photos do not hold up the common pool. 0 means one thread per CPU.
+     * Each conversion holds up to about 75 MB of heap, so only
+     * {@code max-concurrent} run at once; the GIFs go into the stego pool.
+     */
+    @Bean(destroyMethod = "close")
+    public GifConverter gifConverter(@Value("${app.stego.convert.parallelism:0}") int parallelism,
+                                     @Value("${app.stego.convert.max-concurrent:2}") int maxConcurrent,
+                                     BufferPool stegoBufferPool) {
+        return new GifConverter(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                maxConcurrent, stegoBufferPool);
+    }
+
+    /**
+     * Workers for batch embeds, one per CPU. The queue is bounded and full
+     * queues reject new work instead of growing.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService stegoBatchExecutor(@Value("${app.stego.batch.queue-capacity:64}") int queueCapacity) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "stego-batch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Same names and tags as Micrometer's own cache binders.
+    private static <T> void registerCacheMetrics(MeterRegistry registry, String name, T cache,
+                                                 ToDoubleFunction<T> hits, ToDoubleFunction<T> misses,
+                                                 ToDoubleFunction<T> evictions, ToDoubleFunction<T> size,
+                                                 String hitDescription, String missDescription) {
+        FunctionCounter.builder("cache.gets", cache, hits)
+                .tags("cache", name, "result", "hit")
+                .description(hitDescription)
+                .register(registry);
+        FunctionCounter.builder("cache.gets", cache, misses)
+                .tags("cache", name, "result", "miss")
+                .description(missDescription)
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", cache, evictions)
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("cache.size", cache, size)
+                .tag("cache", name)
+                .register(registry);
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.piccrypt.config;
+
+import com.example.piccrypt.storage.BlobStore;
+import com.example.piccrypt.storage.FileSystemBlobStore;
+import com.example.piccrypt.storage.InMemoryBlobStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * One blob store for message images and one for avatars, each under the
+ * directory the static resource handlers serve. {@code app.storage.type=memory}
+ * keeps both on the heap instead. Scheduling is enabled here for
+ * {@link com.example.piccrypt.services.MediaCollector}.
+ */
+@Configuration
+@EnableScheduling
+public class StorageConfig {
+
+    @Bean
+    public BlobStore messageBlobStore(@Value("${app.storage.type:filesystem}") String type,
+                                      @Value("${app.messages.dir}") String messageDir) throws IOException {
+        return blobStore(type, messageDir);
+    }
+
+    @Bean
+    public BlobStore avatarBlobStore(@Value("${app.storage.type:filesystem}") String type,
+                                     @Value("${app.avatars.dir}") String avatarDir) throws IOException {
+        return blobStore(type, avatarDir);
+    }
+
+    private static BlobStore blobStore(String type, String dir) throws IOException {
+        return switch (type) {
+            case "filesystem" -> new FileSystemBlobStore(Paths.get(dir));
+            case "memory" -> new InMemoryBlobStore();
+            default -> throw new IllegalArgumentException("Unknown app.storage.type: " + type);
+        };
+    }
+}
@@ -1,10 +1,25 @@
 package com.example.piccrypt.config;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
 
+import java.time.Duration;
+
+/**
+ * Avatars and message images are stored once under a random or content-hash
+ * name and never change, so they are served as immutable with a content
+ * ETag. Ranges and conditional requests are answered by the resource
+ * handler itself. The default avatars keep their names across deploys, so
+ * they are revalidated on every use instead.
+ */
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
@@ -14,16 +29,59 @@ public class WebConfig implements WebMvcConfigurer {
     @Value("${app.messages.dir}")
     private String messagesDir;
 
+    @Value("${app.static.max-age:365d}")
+    private Duration maxAge;
+
+    @Value("${app.static.etag-cache-entries:10000}")
+    private int etagCacheEntries;
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        ContentEtags etags = new ContentEtags(etagCacheEntries);
+
+        // user-default.png and chat-default.png; uploads are named by hash.
+        registry.addResourceHandler("/static/avatars/*-default.png")
+                .addResourceLocations(
+                        "classpath:/static/avatars/",
+                        "file:" + avatarDir + "/"
+                )
+                .setCacheControl(CacheControl.noCache())
+                .setEtagGenerator(etags);
 
         registry.addResourceHandler("/static/avatars/**")
                 .addResourceLocations(
                         "classpath:/static/avatars/",
                         "file:" + avatarDir + "/"
-                );
+                )
+                .setCacheControl(CacheControl.maxAge(maxAge).cachePublic().immutable())
+                .setEtagGenerator(etags);
 
+        // Private: a message image is for the chat, not for shared caches.
         registry.addResourceHandler("/static/messages/**")
-                .addResourceLocations("file:" + messagesDir + "/");
+                .addResourceLocations("file:" + messagesDir + "/")
+                .setCacheControl(CacheControl.maxAge(maxAge).cachePrivate().immutable())
+                .setEtagGenerator(etags);
+    }
+
+    /**
+     * Gives the static resource handlers {@link SendfileResourceConverter}.
+     * The registry builds those handlers itself and has no setting for it.
+     */
+    @Bean
+    public static BeanPostProcessor sendfileResourceHandlers(
+            @Value("${app.static.sendfile-min-size:48KB}") DataSize minSize) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof SimpleUrlHandlerMapping mapping) {
+                    mapping.getHandlerMap().values().stream()
+                            .filter(ResourceHttpRequestHandler.class::isInstance)
+                            .map(ResourceHttpRequestHandler.class::cast)
+                            .forEach(handler -> handler.setResourceHttpMessageConverter(
+                                    new SendfileResourceConverter(minSize.toBytes())));
+                }
+                return bean;
+            }
+        };
     }
 }
@@ -1,43 +1,78 @@
 package com.example.piccrypt.controllers;
 
+import com.example.piccrypt.dtos.BatchEncryptResult;
+import com.example.piccrypt.dtos.StegoDecryptResult;
+import com.example.piccrypt.dtos.StegoJobDto;
+import com.example.piccrypt.exceptions.GeneralException;
+import com.example.piccrypt.services.StegoJobService;
 import com.example.piccrypt.services.SteganographyService;
-import org.springframework.core.io.FileSystemResource;
+import com.example.piccrypt.services.UserService;
+import com.example.piccrypt.stego.BufferPool;
+import com.example.piccrypt.stego.StegoFormat;
+import com.example.piccrypt.types.StegoJobPriority;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/stego")
 public class SteganographyController {
 
     private final SteganographyService stenographyService;
+    private final StegoJobService stegoJobService;
+    private final UserService userService;
 
-    public SteganographyController(SteganographyService stenographyService) {
+    public SteganographyController(SteganographyService stenographyService,
+                                   StegoJobService stegoJobService,
+                                   UserService userService) {
         this.stenographyService = stenographyService;
+        this.stegoJobService = stegoJobService;
+        this.userService = userService;
     }
 
     @PostMapping("/encrypt")
     public ResponseEntity<?> encryptImage(@RequestParam("image") MultipartFile file,
                                           @RequestParam("password") String password, @RequestParam("text") String text) {
+        BufferPool.Slab upload = null;
         try {
-            File inputFile = convertToFile(file);
-            File encrypted = stenographyService.encrypt(inputFile, text, password);
+            upload = stenographyService.readUpload(file);
+            StegoFormat.Embedding encrypted = stenographyService.encrypt(upload.buffer(), text, password);
+            BufferPool.Slab source = upload;
+            StreamingResponseBody body = out -> {
+                try (source; encrypted) {
+                    stenographyService.write(encrypted, out);
+                }
+            };
 
             return ResponseEntity.ok()
                     .header(HttpHeaders.CONTENT_DISPOSITION,
-                            "attachment; filename=" + encrypted.getName())
+                            "attachment; filename=" + UUID.randomUUID() + ".gif")
                     .contentType(MediaType.IMAGE_GIF)
-                    .body(new FileSystemResource(encrypted));
+                    .body(body);
+        } catch (GeneralException e) {
+            // Keeps its own status, such as 429 while conversions are busy.
+            if (upload != null) {
+                upload.close();
+            }
+            throw e;
         } catch (Exception e) {
+            if (upload != null) {
+                upload.close();
+            }
             return ResponseEntity
                     .badRequest()
                     .contentType(MediaType.APPLICATION_JSON)
@@ -50,9 +85,7 @@ public class SteganographyController {
     public ResponseEntity<?> decryptImage(@RequestParam("image") MultipartFile file,
                                                @RequestParam("password") String password) {
         try {
-            File inputFile = convertToFile(file);
-
-            String text = stenographyService.decrypt(inputFile, password);
+            String text = stenographyService.decrypt(file, password);
 
             return ResponseEntity.ok(Map.of("message", text));
         } catch (Exception e) {
@@ -75,6 +108,49 @@ public class SteganographyController {
         }
     }
 
+    /**
+     * Several {@code image} parts with as many {@code text} fields, in the same
+     * order, and one {@code password} field or one per image. Texts are read
+     * from the raw parameter map, where a text containing commas is not split.
+     */
+    @PostMapping("/encrypt/batch")
+    public ResponseEntity<?> encryptAndStoreBatch(@RequestParam("image") List<MultipartFile> files,
+                                                  @RequestParam MultiValueMap<String, String> params) {
+        List<BatchEncryptResult> results = stenographyService.encryptAndStoreBatch(
+                files, params.get("text"), params.get("password"));
+        return ResponseEntity.ok(Map.of("items", results));
+    }
+
+    /**
+     * Queues an encrypt and answers at once with the job. Its status arrives on
+     * {@code /topic/user.{id}.stego-jobs}; the result is read from
+     * {@code GET /stego/jobs/{jobId}}.
+     */
+    @PostMapping("/jobs/encrypt")
+    public ResponseEntity<StegoJobDto> submitEncryptJob(@RequestParam("image") MultipartFile file,
+                                                        @RequestParam("password") String password,
+                                                        @RequestParam("text") String text,
+                                                        @RequestParam(value = "priority", defaultValue = "INTERACTIVE") StegoJobPriority priority) {
+        Long userId = userService.getCurrentUserDetails().getId();
+        StegoJobDto job = stegoJobService.submitEncrypt(userId, file, text, password, priority);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    @PostMapping("/jobs/decrypt")
+    public ResponseEntity<StegoJobDto> submitDecryptJob(@RequestParam("image") MultipartFile file,
+                                                        @RequestParam("password") String password,
+                                                        @RequestParam(value = "priority", defaultValue = "INTERACTIVE") StegoJobPriority priority) {
+        Long userId = userService.getCurrentUserDetails().getId();
+        StegoJobDto job = stegoJobService.submitDecrypt(userId, file, password, priority);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<StegoJobDto> getJob(@PathVariable String jobId) {
+        Long userId = userService.getCurrentUserDetails().getId();
+        return ResponseEntity.ok(stegoJobService.getJob(userId, jobId));
+    }
+
     @PostMapping("/store")
     public ResponseEntity<?> storeWithoutEncryption(@RequestParam("image") MultipartFile file) {
         try {
@@ -88,21 +164,41 @@ public class SteganographyController {
         }
     }
 
-//    @PostMapping("/decrypt/url")
-//    public ResponseEntity<?> decryptByUrl(@RequestParam("imageUrl") String imageUrl,
-//                                          @RequestParam("password") String password) {
-//        try {
-//            String text = stenographyService.decryptFromUrl(imageUrl, password);
-//            return ResponseEntity.ok(Map.of("message", text));
-//        } catch (Exception e) {
-//            return ResponseEntity.badRequest().body(Map.of("message", "Decrypt failed: " + e.getMessage()));
-//        }
-//    }
-
-    private File convertToFile(MultipartFile multipartFile) throws IOException {
-        File conv = File.createTempFile("upload_", multipartFile.getOriginalFilename());
-        multipartFile.transferTo(conv);
-        return conv;
+    @PostMapping("/decrypt/url")
+    public ResponseEntity<?> decryptByUrl(@RequestParam("imageUrl") String imageUrl,
+                                          @RequestParam("password") String password) {
+        try {
+            String text = stenographyService.decryptFromUrl(imageUrl, password);
+            return ResponseEntity.ok(Map.of("message", text));
+        } catch (RuntimeException e) {
+            // Not found and access denied keep their own status.
+            throw e;
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Decrypt failed: " + e.getMessage()));
+        }
+    }
+
+    @PostMapping("/decrypt/message/{messageId}")
+    public ResponseEntity<?> decryptByMessage(@PathVariable Long messageId,
+                                              @RequestParam("password") String password) {
+        try {
+            String text = stenographyService.decryptStoredMessage(messageId, password);
+            return ResponseEntity.ok(Map.of("message", text));
+        } catch (RuntimeException e) {
+            // Not found and access denied keep their own status.
+            throw e;
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("message", "Decrypt failed: " + e.getMessage()));
+        }
+    }
+
+    /** A page of the chat's stored images, newest first, decrypted with one password. */
+    @PostMapping("/decrypt/chat/{chatId}")
+    public ResponseEntity<?> decryptChat(@PathVariable Long chatId,
+                                         @RequestParam(value = "before", required = false) Long before,
+                                         @RequestParam("password") String password) {
+        List<StegoDecryptResult> results = stenographyService.decryptChat(chatId, before, password);
+        return ResponseEntity.ok(Map.of("items", results));
     }
 
 }
\ No newline at end of file
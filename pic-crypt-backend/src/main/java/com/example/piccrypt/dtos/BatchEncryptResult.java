@@ -0,0 +1,14 @@
+package com.example.piccrypt.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchEncryptResult {
+    private int index;
+    private String url;
+    private String error;
+}
@@ -6,6 +6,8 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.Map;
+
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
@@ -18,6 +20,7 @@ public class ChatDto {
 
     private String title;
     private String avatarUrl;
+    private Map<Integer, String> avatarVariants;
     private String description;
     private Boolean allowInvites;
 }
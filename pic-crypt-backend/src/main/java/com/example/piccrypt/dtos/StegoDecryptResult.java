@@ -0,0 +1,14 @@
+package com.example.piccrypt.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StegoDecryptResult {
+    private Long messageId;
+    private String message;
+    private String error;
+}
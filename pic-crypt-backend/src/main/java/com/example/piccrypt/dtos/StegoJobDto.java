@@ -0,0 +1,25 @@
+package com.example.piccrypt.dtos;
+
+import com.example.piccrypt.types.StegoJobPriority;
+import com.example.piccrypt.types.StegoJobStatus;
+import com.example.piccrypt.types.StegoJobType;
+import lombok.Data;
+
+import java.time.Instant;
+
+@Data
+public class StegoJobDto {
+
+    private String id;
+
+    private StegoJobType type;
+    private StegoJobPriority priority;
+    private StegoJobStatus status;
+
+    private String url;
+    private String message;
+    private String error;
+
+    private Instant submittedAt;
+    private Instant finishedAt;
+}
@@ -4,6 +4,7 @@ import lombok.Data;
 
 import java.sql.Date;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Data
 public class UserDto {
@@ -13,6 +14,7 @@ public class UserDto {
     private String password;
     private String bio;
     private String avatarUrl;
+    private Map<Integer, String> avatarVariants;
     private Date lastSeenAt;
     private LocalDateTime createdAt;
 }
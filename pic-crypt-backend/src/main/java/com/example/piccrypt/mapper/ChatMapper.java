@@ -2,9 +2,10 @@ package com.example.piccrypt.mapper;
 
 import com.example.piccrypt.dtos.ChatDto;
 import com.example.piccrypt.models.Chat;
+import com.example.piccrypt.services.AvatarService;
 import org.mapstruct.*;
 
-@Mapper(componentModel = "spring", uses = {ChatMemberMapper.class})
+@Mapper(componentModel = "spring", uses = {ChatMemberMapper.class, AvatarService.class})
 public interface ChatMapper {
 
     @Mapping(target = "members", ignore = true)
@@ -13,6 +14,7 @@ public interface ChatMapper {
     @Mapping(source = "groupInfo.title", target = "title")
     @Mapping(source = "groupInfo.description", target = "description")
     @Mapping(source = "groupInfo.avatarUrl", target = "avatarUrl")
+    @Mapping(source = "groupInfo.avatarUrl", target = "avatarVariants", qualifiedByName = "avatarVariants")
     @Mapping(source = "groupInfo.allowInvites", target = "allowInvites")
     @Mapping(source = "members", target = "members", qualifiedByName = "memberDto")
     ChatDto toDto(Chat entity);
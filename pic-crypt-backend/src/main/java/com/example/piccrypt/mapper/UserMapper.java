@@ -2,10 +2,13 @@ package com.example.piccrypt.mapper;
 
 import com.example.piccrypt.dtos.UserDto;
 import com.example.piccrypt.models.User;
+import com.example.piccrypt.services.AvatarService;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
-@Mapper(componentModel = "spring")
+@Mapper(componentModel = "spring", uses = {AvatarService.class})
 public interface UserMapper {
+    @Mapping(source = "avatarUrl", target = "avatarVariants", qualifiedByName = "avatarVariants")
     UserDto toDto(User entity);
     User toEntity(UserDto dto);
-}
\ No newline at end of file
+}
@@ -1,7 +1,19 @@
 package com.example.piccrypt.repositories;
 
 import com.example.piccrypt.models.GroupChatInfo;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
 
 public interface GroupChatInfoRepository extends JpaRepository<GroupChatInfo, Long> {
+
+    @Query("SELECT g.chatId AS id, g.avatarUrl AS url FROM GroupChatInfo g \n" +
+           "WHERE g.chatId > :after AND g.avatarUrl IS NOT NULL \n" +
+           "ORDER BY g.chatId")
+    List<MediaReference> findAvatarsAfter(@Param("after") Long after, Limit limit);
+
+    boolean existsByAvatarUrlEndingWith(String suffix);
 }
@@ -0,0 +1,8 @@
+package com.example.piccrypt.repositories;
+
+/** A row that points at a stored file, by its id and the file's URL. */
+public interface MediaReference {
+    Long getId();
+
+    String getUrl();
+}
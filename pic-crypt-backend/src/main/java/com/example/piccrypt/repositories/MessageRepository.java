@@ -1,10 +1,27 @@
 package com.example.piccrypt.repositories;
 
 import com.example.piccrypt.models.Message;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 
 public interface MessageRepository extends JpaRepository<Message, Long> {
     public List<Message> findByChat_Id(Long id);
+
+    List<Message> findByMediaUrlEndingWith(String suffix);
+
+    boolean existsByMediaUrlEndingWith(String suffix);
+
+    @Query("SELECT m.id AS id, m.mediaUrl AS url FROM Message m \n" +
+           "WHERE m.id > :after AND m.mediaUrl IS NOT NULL \n" +
+           "ORDER BY m.id")
+    List<MediaReference> findMediaAfter(@Param("after") Long after, Limit limit);
+
+    @Query("SELECT m FROM Message m \n" +
+           "WHERE m.chat.id = :chatId AND m.id < :before AND m.mediaUrl LIKE '%.gif' \n" +
+           "ORDER BY m.id DESC")
+    List<Message> findGifsBefore(@Param("chatId") Long chatId, @Param("before") Long before, Limit limit);
 }
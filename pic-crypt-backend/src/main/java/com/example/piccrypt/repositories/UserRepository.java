@@ -1,7 +1,10 @@
 package com.example.piccrypt.repositories;
 
 import com.example.piccrypt.models.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -11,4 +14,11 @@ public interface UserRepository extends JpaRepository<User,Long> {
     List<User> findByUsernameContainingIgnoreCase(String username);
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
+
+    @Query("SELECT u.id AS id, u.avatarUrl AS url FROM User u \n" +
+           "WHERE u.id > :after AND u.avatarUrl IS NOT NULL \n" +
+           "ORDER BY u.id")
+    List<MediaReference> findAvatarsAfter(@Param("after") Long after, Limit limit);
+
+    boolean existsByAvatarUrlEndingWith(String suffix);
 }
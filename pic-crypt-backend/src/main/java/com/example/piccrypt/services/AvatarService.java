@@ -0,0 +1,342 @@
+package com.example.piccrypt.services;
+
+import com.example.piccrypt.exceptions.GeneralException;
+import com.example.piccrypt.storage.BlobKeys;
+import com.example.piccrypt.storage.BlobStore;
+import jakarta.annotation.PreDestroy;
+import org.mapstruct.Named;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores user and chat avatars in the avatar {@link BlobStore} and builds
+ * square variants of a few fixed sizes from them, derived blobs named
+ * {@code <hash>-<size>.<png|jpg>}.
+ *
+ * Variants are built off the request thread on a small pool with a bounded
+ * queue. Until they are stored, or if the queue was full, every size
+ * resolves to the original, and the next lookup queues the work again.
+ *
+ * An image is only decoded once its header has been read and its size
+ * checked against {@link #MAX_PIXELS}, on upload and again before variants
+ * are built: a small file can declare an image too large to hold in memory.
+ */
+@Service
+public class AvatarService {
+    private static final Set<String> EXTENSIONS = Set.of(".png", ".jpg", ".jpeg", ".gif");
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final long MAX_PIXELS = 1 << 25;
+
+    private final BlobStore avatarStore;
+    private final String avatarBaseUrl;
+    private final List<Integer> sizes;
+    private final ThreadPoolExecutor executor;
+
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    public AvatarService(BlobStore avatarBlobStore,
+                         @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl,
+                         @Value("${app.avatars.variants.sizes:64,128,256}") List<Integer> sizes,
+                         @Value("${app.avatars.variants.threads:2}") int threads,
+                         @Value("${app.avatars.variants.queue-capacity:64}") int queueCapacity) {
+        this.avatarStore = avatarBlobStore;
+        this.avatarBaseUrl = avatarBaseUrl.endsWith("/") ? avatarBaseUrl : avatarBaseUrl + "/";
+        this.sizes = List.copyOf(sizes);
+
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "avatar-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Stores an uploaded avatar and queues its variants. An image that was
+     * uploaded before keeps its file and URL, and gains a reference.
+     */
+    public String store(MultipartFile file) {
+        String extension = extension(file.getOriginalFilename());
+        if (!EXTENSIONS.contains(extension)) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "Only .png, .jpg, .jpeg, .gif images are allowed");
+        }
+        checkSize(file);
+
+        try {
+            String key = avatarStore.put(extension, out -> {
+                try (InputStream in = file.getInputStream()) {
+                    in.transferTo(Channels.newOutputStream(out));
+                }
+            });
+            queueVariants(key);
+            return avatarBaseUrl + avatarStore.path(key);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to store avatar", e);
+        }
+    }
+
+    /**
+     * Drops a reference to an avatar that was replaced. The default avatars
+     * and anything else not in the store are left alone.
+     */
+    public void release(String avatarUrl) {
+        String key = avatarUrl == null ? null : hashedKey(avatarUrl);
+        if (key == null) {
+            return;
+        }
+        try {
+            if (avatarStore.release(key)) {
+                ready.remove(key);
+                failed.remove(key);
+            }
+        } catch (IOException e) {
+            // The file stays behind; the avatar was replaced either way.
+        }
+    }
+
+    /**
+     * URLs of the variants of {@code avatarUrl} by size. A size that is not
+     * built yet maps to {@code avatarUrl} itself, as does every size of a
+     * default avatar or one stored before variants existed.
+     */
+    @Named("avatarVariants")
+    public Map<Integer, String> variants(String avatarUrl) {
+        if (avatarUrl == null) {
+            return null;
+        }
+        Map<Integer, String> variants = new LinkedHashMap<>();
+        String key = hashedKey(avatarUrl);
+        boolean built = key != null && isReady(key);
+        for (int size : sizes) {
+            variants.put(size, built ? avatarBaseUrl + avatarStore.path(variantKey(key, size)) : avatarUrl);
+        }
+        return variants;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private boolean isReady(String key) {
+        if (ready.contains(key)) {
+            return true;
+        }
+        if (pending.contains(key) || failed.contains(key)) {
+            return false;
+        }
+        if (sizes.stream().allMatch(size -> avatarStore.exists(variantKey(key, size)))) {
+            ready.add(key);
+            return true;
+        }
+        if (avatarStore.exists(key)) {
+            queueVariants(key);
+        }
+        return false;
+    }
+
+    private void queueVariants(String key) {
+        if (ready.contains(key) || !pending.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    buildVariants(key);
+                    ready.add(key);
+                } catch (IOException | RuntimeException e) {
+                    failed.add(key);
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(key);
+        }
+    }
+
+    /** Decodes the original once and scales it to every size in parallel. */
+    private void buildVariants(String key) throws IOException {
+        BufferedImage source;
+        try (InputStream in = avatarStore.open(key)) {
+            source = withReader(in, reader -> {
+                checkSize(reader.getWidth(0), reader.getHeight(0));
+                return reader.read(0);
+            });
+        }
+        if (source == null) {
+            throw new IOException("Not a readable image: " + key);
+        }
+        String extension = variantExtension(key);
+        BufferedImage square = cropToSquare(source);
+
+        sizes.parallelStream().forEach(size -> {
+            try {
+                BufferedImage variant = scale(square, size, extension.equals(".png"));
+                avatarStore.putDerived(key, size + extension, out -> write(variant, out, extension));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Rejects an upload no reader knows, or whose header declares more than
+     * {@link #MAX_PIXELS} pixels.
+     */
+    private static void checkSize(MultipartFile file) {
+        Boolean checked;
+        try (InputStream in = file.getInputStream()) {
+            checked = withReader(in, reader -> {
+                checkSize(reader.getWidth(0), reader.getHeight(0));
+                return true;
+            });
+        } catch (IOException e) {
+            checked = null;
+        }
+        if (checked == null) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "Not a readable image");
+        }
+    }
+
+    private static void checkSize(int width, int height) {
+        if ((long) width * height > MAX_PIXELS) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST,
+                    "Image is too large: " + width + "x" + height + ", at most " + MAX_PIXELS + " pixels are allowed");
+        }
+    }
+
+    private interface ReaderStep<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    /** Runs {@code step} on a reader for the image in {@code in}, or returns null if no reader knows its format. */
+    private static <T> T withReader(InputStream in, ReaderStep<T> step) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return step.run(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage cropToSquare(BufferedImage image) {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        return image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+    }
+
+    /**
+     * Halves the image with bilinear filtering while that stays above
+     * {@code size}, then takes the last step; one bilinear pass from a
+     * large photo would alias.
+     */
+    private static BufferedImage scale(BufferedImage image, int size, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int side = image.getWidth();
+        do {
+            side = side / 2 >= size ? side / 2 : size;
+            BufferedImage next = new BufferedImage(side, side, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, side, side, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (side > size);
+        return current;
+    }
+
+    private static void write(BufferedImage image, WritableByteChannel channel, String extension) throws IOException {
+        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+        if (extension.equals(".png")) {
+            ImageIO.write(image, "png", out);
+        } else {
+            writeJpeg(image, out);
+        }
+        out.flush();
+    }
+
+    private static void writeJpeg(BufferedImage image, OutputStream out) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /** The blob key of a stored avatar's URL, or null for any other avatar. */
+    private String hashedKey(String avatarUrl) {
+        if (!avatarUrl.startsWith(avatarBaseUrl)) {
+            return null;
+        }
+        String key = avatarUrl.substring(avatarUrl.lastIndexOf('/') + 1);
+        return BlobKeys.isHashed(key) ? key : null;
+    }
+
+    // Photos stay JPEG; PNG and GIF may have transparency.
+    private static String variantExtension(String filename) {
+        String extension = extension(filename);
+        return extension.equals(".jpg") || extension.equals(".jpeg") ? ".jpg" : ".png";
+    }
+
+    private static String variantKey(String key, int size) {
+        return BlobKeys.derived(key, size + variantExtension(key));
+    }
+
+    private static String extension(String filename) {
+        if (filename == null || filename.lastIndexOf('.') == -1) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.')).toLowerCase();
+    }
+}
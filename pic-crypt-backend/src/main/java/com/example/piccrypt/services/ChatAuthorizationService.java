@@ -2,6 +2,7 @@ package com.example.piccrypt.services;
 
 import com.example.piccrypt.models.Chat;
 import com.example.piccrypt.models.Message;
+import com.example.piccrypt.repositories.ChatMemberRepository;
 import com.example.piccrypt.repositories.MessageRepository;
 import com.example.piccrypt.types.ChatRole;
 import com.example.piccrypt.models.User;
@@ -14,9 +15,11 @@ import java.util.Objects;
 public class ChatAuthorizationService {
 
     private final UserService userService;
+    private final ChatMemberRepository chatMemberRepository;
 
-    public ChatAuthorizationService(UserService userService) {
+    public ChatAuthorizationService(UserService userService, ChatMemberRepository chatMemberRepository) {
         this.userService = userService;
+        this.chatMemberRepository = chatMemberRepository;
     }
 
     public boolean isOwner(Chat chat) {
@@ -33,6 +36,11 @@ public class ChatAuthorizationService {
         return Objects.equals(message.getSender().getId(), current.getId());
     }
 
+    public boolean isMember(Long chatId) {
+        Long currentId = userService.getCurrentUserDetails().getId();
+        return chatMemberRepository.existsByChat_IdAndMember_Id(chatId, currentId);
+    }
+
     public boolean isSelf(Long userId) {
         return userService.getCurrentUser().getId().equals(userId);
     }
@@ -43,6 +51,18 @@ public class ChatAuthorizationService {
         }
     }
 
+    public void requireSender(Message message) {
+        if (!isOwner(message)) {
+            throw new AccessDeniedException("Only the sender can change this message");
+        }
+    }
+
+    public void requireMember(Long chatId) {
+        if (!isMember(chatId)) {
+            throw new AccessDeniedException("Not a member of this chat");
+        }
+    }
+
     public void requireOwnerOrSelf(Chat chat, Long targetUserId) {
         if (!isOwner(chat) && !isSelf(targetUserId)) {
             throw new AccessDeniedException("Not allowed to perform this action");
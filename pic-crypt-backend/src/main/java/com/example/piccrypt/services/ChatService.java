@@ -19,14 +19,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 @Service
 public class ChatService {
@@ -38,7 +34,7 @@ public class ChatService {
     private final ChatAuthorizationService chatAuth;
     private final ChatMapper chatMapper;
     private final ChatMemberMapper chatMemberMapper;
-    private final Path avatarDir;
+    private final AvatarService avatarService;
     private final String defaultAvatarUrl;
     private final String avatarBaseUrl;
 
@@ -49,9 +45,9 @@ public class ChatService {
                        ChatAuthorizationService chatAuth,
                        ChatMapper chatMapper,
                        ChatMemberMapper chatMemberMapper,
-                       @Value("${app.avatars.dir}") String avatarDir,
+                       AvatarService avatarService,
                        @Value("${app.chatAvatar.default}") String defaultAvatarPath,
-                       @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl) throws IOException {
+                       @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl) {
         this.chatRepository = chatRepository;
         this.chatMemberRepository = chatMemberRepository;
         this.groupChatInfoRepository = groupChatInfoRepository;
@@ -59,13 +55,12 @@ public class ChatService {
         this.chatAuth = chatAuth;
         this.chatMapper = chatMapper;
         this.chatMemberMapper = chatMemberMapper;
-        this.avatarDir = Paths.get(avatarDir);
+        this.avatarService = avatarService;
         this.avatarBaseUrl = avatarBaseUrl.endsWith("/") ? avatarBaseUrl : avatarBaseUrl + "/";
         String fileName = Paths.get(defaultAvatarPath).getFileName().toString();
         this.defaultAvatarUrl = defaultAvatarPath.startsWith("/")
                 ? defaultAvatarPath
                 : this.avatarBaseUrl + fileName;
-        Files.createDirectories(this.avatarDir);
     }
 
     public List<ChatDto> getChats() {
@@ -172,8 +167,10 @@ public class ChatService {
 
         if (chat.isGroup() && chat.getGroupInfo() != null) {
             GroupChatInfo info = chat.getGroupInfo();
-            info.setAvatarUrl(storeAvatar(avatarFile));
+            String previous = info.getAvatarUrl();
+            info.setAvatarUrl(avatarService.store(avatarFile));
             groupChatInfoRepository.saveAndFlush(info);
+            avatarService.release(previous);
         }
 
         chat = chatRepository.save(chat);
@@ -236,23 +233,4 @@ public class ChatService {
         chatMemberRepository.flush();
     }
 
-    private String storeAvatar(MultipartFile file) {
-        try {
-            String original = file.getOriginalFilename();
-            String ext = "";
-            if (original.lastIndexOf('.') != -1) {
-                ext = original.substring(original.lastIndexOf('.')).toLowerCase();
-            }
-            if (!(ext.equals(".png") || ext.equals(".jpg") || ext.equals(".jpeg") || ext.equals(".gif"))) {
-                throw new GeneralException(HttpStatus.BAD_REQUEST, "Only .png, .jpg, .jpeg, .gif images are allowed");
-            }
-            String filename = UUID.randomUUID() + ext;
-            Path target = avatarDir.resolve(filename);
-            Files.copy(file.getInputStream(), target);
-            return avatarBaseUrl + filename;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to store avatar", e);
-        }
-    }
-
 }
@@ -0,0 +1,370 @@
+package com.example.piccrypt.services;
+
+import com.example.piccrypt.repositories.GroupChatInfoRepository;
+import com.example.piccrypt.repositories.MediaReference;
+import com.example.piccrypt.repositories.MessageRepository;
+import com.example.piccrypt.repositories.UserRepository;
+import com.example.piccrypt.storage.BlobStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Deletes stored media that no message, user or group chat points at any
+ * more: files left by deleted or edited messages, by deleted chats and
+ * users, by avatars replaced before references were counted, and by
+ * uploads that were never sent.
+ *
+ * Each run first marks every referencing row, read in keyset-paginated
+ * pages with a pause between pages, in a {@link ReferenceFilter} of fixed
+ * size. It then walks the store at a bounded number of files per second.
+ * Files the filter may hold are kept, and so are files younger than the
+ * grace period, since an upload is stored before the message that uses it.
+ * The rest are candidates, and each candidate is looked up in the database
+ * again right before it is deleted, so rows added or changed since the mark
+ * keep their file. In dry-run mode nothing is deleted; the last run of each
+ * store is reported as {@code media.gc.*} gauges either way.
+ */
+@Service
+public class MediaCollector {
+
+    /** What one run found in one store. Sizes are in bytes. */
+    public record Report(String store, boolean dryRun, Instant finishedAt, long scanned, long recent,
+                         long orphans, long orphanBytes, long deleted) {
+    }
+
+    private final BlobStore messageStore;
+    private final BlobStore avatarStore;
+    private final MessageRepository messageRepository;
+    private final UserRepository userRepository;
+    private final GroupChatInfoRepository groupChatInfoRepository;
+    private final String messageBaseUrl;
+    private final String avatarBaseUrl;
+    private final Set<String> defaultAvatars;
+    private final boolean enabled;
+    private final boolean dryRun;
+    private final Duration grace;
+    private final int batchSize;
+    private final Duration pagePause;
+    private final long nanosPerFile;
+    private final long filterBits;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicReference<Report> lastMessages = new AtomicReference<>();
+    private final AtomicReference<Report> lastAvatars = new AtomicReference<>();
+    private final Counter deletedMessages;
+    private final Counter deletedAvatars;
+    private long nextFileNanos;
+
+    public MediaCollector(BlobStore messageBlobStore,
+                          BlobStore avatarBlobStore,
+                          MessageRepository messageRepository,
+                          UserRepository userRepository,
+                          GroupChatInfoRepository groupChatInfoRepository,
+                          @Value("${app.messages.base-url:/static/messages/}") String messageBaseUrl,
+                          @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl,
+                          @Value("${app.avatars.default}") String defaultUserAvatar,
+                          @Value("${app.chatAvatar.default}") String defaultChatAvatar,
+                          @Value("${app.media.gc.enabled:true}") boolean enabled,
+                          @Value("${app.media.gc.dry-run:true}") boolean dryRun,
+                          @Value("${app.media.gc.grace:24h}") Duration grace,
+                          @Value("${app.media.gc.batch-size:500}") int batchSize,
+                          @Value("${app.media.gc.page-pause:50ms}") Duration pagePause,
+                          @Value("${app.media.gc.max-files-per-second:200}") int maxFilesPerSecond,
+                          @Value("${app.media.gc.filter-size:4MB}") DataSize filterSize,
+                          MeterRegistry registry) {
+        this.messageStore = messageBlobStore;
+        this.avatarStore = avatarBlobStore;
+        this.messageRepository = messageRepository;
+        this.userRepository = userRepository;
+        this.groupChatInfoRepository = groupChatInfoRepository;
+        this.messageBaseUrl = messageBaseUrl.endsWith("/") ? messageBaseUrl : messageBaseUrl + "/";
+        this.avatarBaseUrl = avatarBaseUrl.endsWith("/") ? avatarBaseUrl : avatarBaseUrl + "/";
+        this.defaultAvatars = Set.of(fileName(defaultUserAvatar), fileName(defaultChatAvatar));
+        this.enabled = enabled;
+        this.dryRun = dryRun;
+        this.grace = grace;
+        this.batchSize = batchSize;
+        this.pagePause = pagePause;
+        this.nanosPerFile = maxFilesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxFilesPerSecond : 0;
+        this.filterBits = Math.max(Long.SIZE, filterSize.toBytes() * Byte.SIZE);
+
+        registerGauges(registry, "messages", lastMessages);
+        registerGauges(registry, "avatars", lastAvatars);
+        deletedMessages = deletedCounter(registry, "messages");
+        deletedAvatars = deletedCounter(registry, "avatars");
+    }
+
+    @Scheduled(initialDelayString = "${app.media.gc.initial-delay:10m}", fixedDelayString = "${app.media.gc.interval:6h}")
+    public void collectOnSchedule() {
+        if (enabled) {
+            collect();
+        }
+    }
+
+    /**
+     * Runs once over both stores, unless a run is already going. Returns
+     * what was found, or nothing if this call did not run.
+     */
+    public List<Report> collect() {
+        if (!running.compareAndSet(false, true)) {
+            return List.of();
+        }
+        try {
+            Report messages = new Sweep("messages", messageStore, messageBaseUrl, Set.of(), deletedMessages,
+                    List.of(messageRepository::findMediaAfter),
+                    List.of(messageRepository::existsByMediaUrlEndingWith)).run();
+            lastMessages.set(messages);
+            Report avatars = new Sweep("avatars", avatarStore, avatarBaseUrl, defaultAvatars, deletedAvatars,
+                    List.of(userRepository::findAvatarsAfter, groupChatInfoRepository::findAvatarsAfter),
+                    List.of(userRepository::existsByAvatarUrlEndingWith,
+                            groupChatInfoRepository::existsByAvatarUrlEndingWith)).run();
+            lastAvatars.set(avatars);
+            return List.of(messages, avatars);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Report lastReport(String store) {
+        return switch (store) {
+            case "messages" -> lastMessages.get();
+            case "avatars" -> lastAvatars.get();
+            default -> null;
+        };
+    }
+
+    /** One run over one store and the rows that point into it. */
+    private final class Sweep {
+        private final String name;
+        private final BlobStore store;
+        private final String baseUrl;
+        private final Set<String> pinned;
+        private final Counter deletedCounter;
+        private final List<BiFunction<Long, Limit, List<MediaReference>>> sources;
+        private final List<Predicate<String>> referencedBySuffix;
+        private final ReferenceFilter marked = new ReferenceFilter(filterBits);
+        private final List<BlobStore.BlobInfo> candidates = new ArrayList<>();
+        private final Instant cutoff = Instant.now().minus(grace);
+        private long scanned, recent, orphans, orphanBytes, deleted;
+
+        private Sweep(String name, BlobStore store, String baseUrl, Set<String> pinned, Counter deletedCounter,
+                      List<BiFunction<Long, Limit, List<MediaReference>>> sources,
+                      List<Predicate<String>> referencedBySuffix) {
+            this.name = name;
+            this.store = store;
+            this.baseUrl = baseUrl;
+            this.pinned = pinned;
+            this.deletedCounter = deletedCounter;
+            this.sources = sources;
+            this.referencedBySuffix = referencedBySuffix;
+        }
+
+        private Report run() {
+            try {
+                if (mark()) {
+                    store.forEach(this::visit);
+                    if (!Thread.currentThread().isInterrupted()) {
+                        sweep();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Media collection failed in " + name, e);
+            }
+            return new Report(name, dryRun, Instant.now(), scanned, recent, orphans, orphanBytes, deleted);
+        }
+
+        /** Reads every source a page at a time into the filter. Returns false if interrupted. */
+        private boolean mark() {
+            for (BiFunction<Long, Limit, List<MediaReference>> source : sources) {
+                long cursor = 0;
+                while (true) {
+                    List<MediaReference> page = source.apply(cursor, Limit.of(batchSize));
+                    for (MediaReference reference : page) {
+                        String key = keyOf(reference.getUrl(), baseUrl);
+                        if (key != null) {
+                            marked.add(key);
+                        }
+                        cursor = reference.getId();
+                    }
+                    if (page.size() < batchSize) {
+                        break;
+                    }
+                    if (!pause(pagePause.toNanos())) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean visit(BlobStore.BlobInfo blob) throws IOException {
+            if (!paceFile()) {
+                return false;
+            }
+            scanned++;
+            if (pinned.contains(blob.key()) || marked.mightContain(blob.key())) {
+                return true;
+            }
+            if (blob.lastModified().isAfter(cutoff)) {
+                recent++;
+                return true;
+            }
+            candidates.add(blob);
+            if (candidates.size() >= batchSize) {
+                sweep();
+            }
+            return true;
+        }
+
+        /** Deletes the candidates that no row points at now. */
+        private void sweep() throws IOException {
+            for (BlobStore.BlobInfo blob : candidates) {
+                if (isReferenced(blob.key())) {
+                    continue;
+                }
+                orphans++;
+                orphanBytes += blob.size();
+                if (!dryRun && store.delete(blob.key())) {
+                    deleted++;
+                    deletedCounter.increment();
+                }
+            }
+            candidates.clear();
+        }
+
+        // Any row whose URL ends in the key, the way keyOf reads a URL.
+        private boolean isReferenced(String key) {
+            String suffix = "/" + key;
+            return referencedBySuffix.stream().anyMatch(source -> source.test(suffix));
+        }
+    }
+
+    /**
+     * A Bloom filter of the keys marked at the start of a run, in a fixed
+     * number of bits. A marked key always tests positive; an unmarked one
+     * may too, more often as the filter fills, and its file is then kept.
+     * The hashes are seeded per run, so such a file is looked at again by
+     * the next run.
+     */
+    private static final class ReferenceFilter {
+        private static final int HASHES = 4;
+
+        private final long[] words;
+        private final long bits;
+        private final long seed = ThreadLocalRandom.current().nextLong();
+
+        private ReferenceFilter(long bits) {
+            this.words = new long[(int) Math.min(Integer.MAX_VALUE - 8, (bits + Long.SIZE - 1) / Long.SIZE)];
+            this.bits = (long) words.length * Long.SIZE;
+        }
+
+        private void add(String key) {
+            long h1 = hash(key);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(String key) {
+            long h1 = hash(key);
+            long h2 = mix(h1) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // FNV-1a over the chars, seeded, then mixed.
+        private long hash(String key) {
+            long h = seed ^ 0xcbf29ce484222325L;
+            for (int i = 0; i < key.length(); i++) {
+                h ^= key.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return mix(h);
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    // One file per slot; a run that fell behind does not catch up in a burst.
+    private boolean paceFile() {
+        long now = System.nanoTime();
+        long wait = nextFileNanos - now;
+        nextFileNanos = Math.max(now, nextFileNanos) + nanosPerFile;
+        return wait <= 0 || pause(wait);
+    }
+
+    private static boolean pause(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String keyOf(String url, String baseUrl) {
+        if (url == null || !url.contains(baseUrl)) {
+            return null;
+        }
+        return fileName(url);
+    }
+
+    private static String fileName(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static void registerGauges(MeterRegistry registry, String store, AtomicReference<Report> last) {
+        Gauge.builder("media.gc.scanned", last, ref -> ref.get() == null ? 0 : ref.get().scanned())
+                .tag("store", store)
+                .description("Files looked at by the last media collection")
+                .register(registry);
+        Gauge.builder("media.gc.orphans", last, ref -> ref.get() == null ? 0 : ref.get().orphans())
+                .tag("store", store)
+                .description("Unreferenced files past the grace period found by the last media collection")
+                .register(registry);
+        Gauge.builder("media.gc.orphan.size", last, ref -> ref.get() == null ? 0 : ref.get().orphanBytes())
+                .tag("store", store)
+                .baseUnit("bytes")
+                .description("Size of the unreferenced files found by the last media collection")
+                .register(registry);
+    }
+
+    private static Counter deletedCounter(MeterRegistry registry, String store) {
+        return Counter.builder("media.gc.deleted")
+                .tag("store", store)
+                .description("Unreferenced files deleted by the media collector")
+                .register(registry);
+    }
+}
@@ -20,6 +20,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -32,20 +33,22 @@ public class MessageService {
     private final ChatRepository chatRepository;
     private final MessageMapper messageMapper;
     private final ChatAuthorizationService chatAuth;
-
+    private final SteganographyService steganographyService;
 
     public MessageService(SimpMessagingTemplate messagingTemplate,
                           MessageRepository messageRepository,
                           UserRepository userRepository,
                           ChatRepository chatRepository,
                           MessageMapper messageMapper,
-                          ChatAuthorizationService chatAuth) {
+                          ChatAuthorizationService chatAuth,
+                          SteganographyService steganographyService) {
         this.messagingTemplate = messagingTemplate;
         this.messageRepository = messageRepository;
         this.userRepository = userRepository;
         this.chatRepository = chatRepository;
         this.messageMapper = messageMapper;
         this.chatAuth = chatAuth;
+        this.steganographyService = steganographyService;
     }
 
     // ---------- SEND MESSAGES ----------
@@ -76,18 +79,24 @@ public class MessageService {
     public MessageDto updateMessage(Long id, MessageDto messageDto) {
         Message message = messageRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("Message not found"));
 
-        chatAuth.isOwner(message);
+        chatAuth.requireSender(message);
 
+        String mediaUrl = message.getMediaUrl();
         messageMapper.updateEntityFromDto(messageDto, message);
-        return  messageMapper.toDto(messageRepository.save(message));
+        MessageDto updated = messageMapper.toDto(messageRepository.save(message));
+        if (!Objects.equals(mediaUrl, message.getMediaUrl())) {
+            steganographyService.forgetStored(mediaUrl);
+        }
+        return updated;
     }
 
     public void deleteMessage(Long id) {
         Message message = messageRepository.findById(id).orElseThrow(() -> new ResourceNotFoundException("Message not found"));
 
-        chatAuth.isOwner(message);
+        chatAuth.requireSender(message);
 
         messageRepository.delete(message);
+        steganographyService.forgetStored(message.getMediaUrl());
     }
 
 
@@ -1,475 +1,402 @@
 package com.example.piccrypt.services;
 
+import com.example.piccrypt.dtos.BatchEncryptResult;
+import com.example.piccrypt.dtos.StegoDecryptResult;
 import com.example.piccrypt.exceptions.GeneralException;
+import com.example.piccrypt.exceptions.ResourceNotFoundException;
+import com.example.piccrypt.models.Message;
+import com.example.piccrypt.repositories.MessageRepository;
+import com.example.piccrypt.services.StegoMetrics.DecryptFailure;
+import com.example.piccrypt.services.StegoMetrics.Phase;
+import com.example.piccrypt.stego.BufferPool;
+import com.example.piccrypt.stego.DecryptResultCache;
+import com.example.piccrypt.stego.DerivedKeyCache;
+import com.example.piccrypt.stego.GifCarrierReader;
+import com.example.piccrypt.stego.GifConverter;
+import com.example.piccrypt.stego.StegoCipherEngine;
+import com.example.piccrypt.stego.StegoCrypto;
+import com.example.piccrypt.stego.StegoFormat;
+import com.example.piccrypt.stego.TextCompressor;
+import com.example.piccrypt.storage.BlobStore;
+import com.example.piccrypt.types.SelfDestructType;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.DataFormatException;
 
 @Service
 public class SteganographyService {
-    private static final int KEY_START_BYTE = 13;
-    private static final int MESSAGE_LENGTH_BYTES = 4;
-    private static final int LSB_BITS = 3;
-    private static final int LSB_MASK = 0x07;
-    private static final int CLEAR_LSB_MASK = 0xF8;
-    private static final int PASSWORD_HASH_BYTES = 4;
-    private static final int AES_KEY_BYTES = 32;
-    private static final int GCM_IV_LENGTH = 12;
-    private static final int GCM_TAG_LENGTH = 128;
-
-    private final Path messageDir;
-    private final String messageBaseUrl;
+    private static final String WRONG_PASSWORD = "Invalid password or corrupted data.";
 
-    public SteganographyService(@Value("${app.messages.dir}") String messageDir,
-                                 @Value("${app.messages.base-url:/static/avatars/}") String messageBaseUrl) {
-        this.messageDir = Paths.get(messageDir);
+    private final BlobStore messageStore;
+    private final String messageBaseUrl;
+    private final DerivedKeyCache keyCache;
+    private final StegoCipherEngine cipherEngine;
+    private final ExecutorService batchExecutor;
+    private final int batchMaxItems;
+    private final int chatMaxItems;
+    private final MessageRepository messageRepository;
+    private final ChatAuthorizationService chatAuth;
+    private final DecryptResultCache resultCache;
+    private final BufferPool bufferPool;
+    private final GifConverter gifConverter;
+    private final StegoMetrics metrics;
+
+    public SteganographyService(BlobStore messageBlobStore,
+                                 @Value("${app.messages.base-url:/static/avatars/}") String messageBaseUrl,
+                                 DerivedKeyCache keyCache,
+                                 StegoCipherEngine cipherEngine,
+                                 ExecutorService stegoBatchExecutor,
+                                 @Value("${app.stego.batch.max-items:16}") int batchMaxItems,
+                                 @Value("${app.stego.chat.max-items:32}") int chatMaxItems,
+                                 MessageRepository messageRepository,
+                                 ChatAuthorizationService chatAuth,
+                                 DecryptResultCache resultCache,
+                                 BufferPool bufferPool,
+                                 GifConverter gifConverter,
+                                 StegoMetrics metrics) {
+        this.messageStore = messageBlobStore;
         this.messageBaseUrl = messageBaseUrl.endsWith("/") ? messageBaseUrl : messageBaseUrl + "/";
-    }
-
-    public File encrypt(File inputFile, String text, String password) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
-
-        String uuid = UUID.randomUUID().toString();
-        File parent = inputFile.getParentFile();
-        File outputFile = new File(parent, uuid + ".gif");
-
-        if (!checkFormat(byteImage)) {
-            throw new Exception("Invalid GIF format. Expected GIF89a.");
+        this.keyCache = keyCache;
+        this.cipherEngine = cipherEngine;
+        this.batchExecutor = stegoBatchExecutor;
+        this.batchMaxItems = batchMaxItems;
+        this.chatMaxItems = chatMaxItems;
+        this.messageRepository = messageRepository;
+        this.chatAuth = chatAuth;
+        this.resultCache = resultCache;
+        this.bufferPool = bufferPool;
+        this.gifConverter = gifConverter;
+        this.metrics = metrics;
+    }
+
+    /** Writes {@code image} with {@code text} embedded to {@code out}. */
+    public void encrypt(ByteBuffer image, String text, String password, OutputStream out) throws Exception {
+        try (StegoFormat.Embedding embedding = encrypt(image, text, password)) {
+            write(embedding, out);
+        }
+    }
+
+    public void encrypt(MultipartFile image, String text, String password, OutputStream out) throws Exception {
+        try (BufferPool.Slab upload = readUpload(image)) {
+            encrypt(upload.buffer(), text, password, out);
+        }
+    }
+
+    /**
+     * Checks the image and encrypts {@code text}, leaving the output to be
+     * written later. Every error is raised here, before any byte is written.
+     * A PNG or JPEG is converted to a GIF89a first, and the output is that GIF.
+     * A GIF whose color tables would show the payload is renumbered first,
+     * see {@link com.example.piccrypt.stego.PaletteRegrouper}. The text is
+     * deflated first when that makes it smaller. Close the embedding once it
+     * is written.
+     */
+    public StegoFormat.Embedding encrypt(ByteBuffer image, String text, String password) throws Exception {
+        BufferPool.Slab converted = convert(image);
+        if (converted == null) {
+            return embed(image, text, password);
         }
-
-        byte[] encryptedMessage = encryptMessage(text, password);
-
-        int maxCapacity = calculateMaxCapacity(byteImage);
-        if (encryptedMessage.length > maxCapacity) {
-            throw new Exception("Message is too large for this GIF file. Maximum capacity: " + maxCapacity + " characters.");
+        try {
+            return embed(converted.buffer(), text, password).closing(converted);
+        } catch (Exception e) {
+            converted.close();
+            throw e;
         }
-
-        byte[] passwordHash = generatePasswordHash(password);
-
-        insertPasswordHash(byteImage, passwordHash);
-
-        int messageLength = encryptedMessage.length;
-        int passwordHashBytesUsed = (PASSWORD_HASH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        int currentByte = KEY_START_BYTE + passwordHashBytesUsed;
-        insertInteger(byteImage, messageLength, MESSAGE_LENGTH_BYTES, currentByte);
-
-        int messageLengthBytesUsed = (MESSAGE_LENGTH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        currentByte += messageLengthBytesUsed;
-        insertBytes(byteImage, encryptedMessage, currentByte);
-
-        writeBytes(byteImage, outputFile);
-        return outputFile;
     }
 
-    public String decrypt(File inputFile, String password) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
-
-        if (!checkFormat(byteImage)) {
-            throw new Exception("Invalid GIF format. Expected GIF89a.");
-        }
-
-        byte[] storedHash = extractPasswordHash(byteImage);
-        byte[] passwordHash = generatePasswordHash(password);
-        boolean passwordMatches = Arrays.equals(storedHash, passwordHash);
-
-        int passwordHashBytesUsed = (PASSWORD_HASH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        int currentByte = KEY_START_BYTE + passwordHashBytesUsed;
-        int messageLength = extractInteger(byteImage, MESSAGE_LENGTH_BYTES, currentByte);
-
-        int maxCapacity = calculateMaxCapacity(byteImage);
-        if (messageLength <= 0 || messageLength > maxCapacity) {
-            messageLength = Math.max(1, Math.min(maxCapacity, Math.abs(messageLength)));
-        }
+    private StegoFormat.Embedding embed(ByteBuffer carrier, String text, String password) throws Exception {
+        int maxCapacity = metrics.time(Phase.FORMAT, () -> {
+            if (!checkFormat(carrier)) {
+                throw new Exception("Invalid image format. Expected GIF89a, PNG or JPEG.");
+            }
+            return calculateMaxCapacity(carrier);
+        });
 
-        int messageLengthBytesUsed = (MESSAGE_LENGTH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        currentByte += messageLengthBytesUsed;
-        byte[] encryptedMessage = extractBytes(byteImage, messageLength, currentByte);
+        byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = metrics.time(Phase.COMPRESS, () -> TextCompressor.compress(plain));
+        byte[] message = deflated != null ? deflated : plain;
+        int flags = deflated != null ? StegoFormat.FLAG_DEFLATE : 0;
 
-        String result = decryptMessage(encryptedMessage, password);
-        if (!passwordMatches) {
-            return result;
+        // Checked before the key derivation, which is the slow part.
+        long payloadBytes = StegoCrypto.segmentedLength(message.length);
+        if (payloadBytes > maxCapacity) {
+            throw new Exception("Message is too large for this GIF file: " + payloadBytes
+                    + " bytes encrypted, maximum capacity: " + maxCapacity + " bytes.");
         }
-        return result;
-    }
-
-    private int getPaletteEndPosition(byte[] bytes) {
-        int packed = bytes[10] & 0xFF;
 
-        boolean gctFlag = (packed & 0x80) != 0;
-        int gctSize = packed & 0x07;
+        byte[] salt = StegoCrypto.newSalt();
+        byte[] key = metrics.time(Phase.KDF, () -> keyCache.key(salt, password));
+        // Encrypted chunk by chunk while the embedding is written.
+        StegoCipherEngine.Segmenter encryptedMessage = cipherEngine.segmenter(message, key);
 
-        if (!gctFlag) return KEY_START_BYTE;
-
-        int colorCount = 1 << (gctSize + 1);
-        return 13 + colorCount * 3;
+        metrics.embedded(carrier.limit(), (int) payloadBytes, maxCapacity);
+        return StegoFormat.embedding(carrier, salt, StegoCrypto.keyCheck(key), flags, encryptedMessage);
     }
-   
-    public int getMaxTextLength(File inputFile) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
 
-        if (!checkFormat(byteImage)) {
-            throw new Exception("Invalid GIF format. Expected GIF89a.");
+    /** The image converted or regrouped into a slab, or null if it is used as it is. */
+    private BufferPool.Slab convert(ByteBuffer image) throws Exception {
+        try {
+            if (GifConverter.isConvertible(image)) {
+                return metrics.time(Phase.CONVERT, () -> gifConverter.toGif(image));
+            }
+            if (GifCarrierReader.isGif89a(image)) {
+                return metrics.time(Phase.CONVERT, () -> gifConverter.regroup(image));
+            }
+            return null;
+        } catch (RejectedExecutionException e) {
+            throw new GeneralException(HttpStatus.TOO_MANY_REQUESTS, "Too many images are being converted, try again later.");
+        } catch (IllegalArgumentException | IOException e) {
+            throw new Exception("Could not convert image: " + e.getMessage(), e);
         }
+    }
 
-        int maxCapacityBytes = calculateMaxCapacity(byteImage);
-
-        int maxCharacters = maxCapacityBytes;
+    /** Writes an embedding from {@link #encrypt(ByteBuffer, String, String)} to {@code out}. */
+    public void write(StegoFormat.Embedding embedding, OutputStream out) throws IOException {
+        metrics.time(Phase.EMBED, () -> {
+            embedding.writeTo(out);
+            return null;
+        });
+    }
 
-        return Math.max(0, maxCharacters);
+    public String decrypt(File inputFile, String password) throws Exception {
+        return decrypt(mapFile(inputFile), password);
     }
 
-    private byte[] readBytes(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file);
-             ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            while ((bytesRead = fis.read(buffer)) != -1) {
-                baos.write(buffer, 0, bytesRead);
-            }
-            return baos.toByteArray();
-        }
+    /** Reads only as much of {@code image} as the embedded message takes up. */
+    public String decrypt(MultipartFile image, String password) throws Exception {
+        return decrypt(readPayload(image), password);
     }
 
-    private void writeBytes(byte[] byteImage, File file) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(byteImage);
-        }
+    public String decrypt(ByteBuffer byteImage, String password) throws Exception {
+        return decrypt(extractPayload(byteImage), password);
     }
 
-    private boolean checkFormat(byte[] byteImage) {
-        if (byteImage.length < 6) {
-            return false;
+    /**
+     * Reads the payload of an upload into a pooled buffer sized for the
+     * whole file, of which only the part the payload needs is filled.
+     */
+    public StegoFormat.Payload readPayload(MultipartFile image) throws Exception {
+        try (InputStream in = image.getInputStream();
+             BufferPool.Slab slab = bufferPool.acquire((int) Math.min(Math.max(image.getSize(), 0), Integer.MAX_VALUE - 8))) {
+            return requirePayload(metrics.time(Phase.EXTRACT, () -> StegoFormat.extract(in, slab.buffer())));
+        } catch (IllegalArgumentException e) {
+            metrics.decryptFailed(DecryptFailure.NOT_GIF);
+            throw new Exception(e.getMessage(), e);
         }
-
-        return byteImage[0] == 'G' && byteImage[1] == 'I' && byteImage[2] == 'F' &&
-                byteImage[3] == '8' && byteImage[4] == '9' && byteImage[5] == 'a';
     }
 
-    public int getMaxCharacters(File inputFile) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
-
-        if (!checkFormat(byteImage)) {
+    private StegoFormat.Payload extractPayload(ByteBuffer byteImage) throws Exception {
+        if (!metrics.time(Phase.FORMAT, () -> checkFormat(byteImage))) {
+            metrics.decryptFailed(DecryptFailure.NOT_GIF);
             throw new Exception("Invalid GIF format. Expected GIF89a.");
         }
-
-        int maxBytes = calculateMaxCapacity(byteImage);
-
-        return Math.max(0, maxBytes);
+        return requirePayload(metrics.time(Phase.EXTRACT, () -> StegoFormat.extract(byteImage)));
     }
 
-    private int calculateMaxCapacity(byte[] byteImage) {
-        int passwordHashBytesUsed = (PASSWORD_HASH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        int messageLengthBytesUsed = (MESSAGE_LENGTH_BYTES * 8 + LSB_BITS - 1) / LSB_BITS;
-        int metadataBytes = passwordHashBytesUsed + messageLengthBytesUsed;
-
-        int dataStart = KEY_START_BYTE + metadataBytes;
-
-        if (dataStart >= byteImage.length) {
-            return 0;
-        }
-
-        int safeEnd = findSafeEndPosition(byteImage);
-
-        if (dataStart >= safeEnd) {
-            return 0;
+    private StegoFormat.Payload requirePayload(StegoFormat.Payload payload) throws Exception {
+        if (payload == null) {
+            metrics.decryptFailed(DecryptFailure.NO_PAYLOAD);
+            throw new Exception("GIF file is too small to hold a message.");
         }
-
-        int availableImageBytes = safeEnd - dataStart;
-
-        long totalBits = (long) availableImageBytes * LSB_BITS;
-        int capacity = (int) (totalBits / 8);
-
-        return Math.max(0, capacity);
+        metrics.extracted(payload.message().length);
+        return payload;
     }
 
-    private int findSafeEndPosition(byte[] bytes) {
-        return getPaletteEndPosition(bytes);
+    public String decrypt(StegoFormat.Payload payload, String password) throws Exception {
+        return decryptMessage(payload, key(payload, password));
     }
 
-    private int findSizePalette(byte[] byteImage) {
-        if (byteImage.length <= 10) {
-            return 0;
+    /**
+     * The key for the payload. A wrong password is turned away here, before
+     * the payload is decrypted: by the key check of a version 4 header, or
+     * by the password hash of a version 0 payload.
+     */
+    private byte[] key(StegoFormat.Payload payload, String password) throws Exception {
+        if (payload.version() == StegoFormat.VERSION_0) {
+            if (!MessageDigest.isEqual(payload.passwordHash(), StegoCrypto.passwordHash(password))) {
+                throw wrongPassword();
+            }
+            return metrics.time(Phase.KDF, () -> StegoCrypto.legacyKey(password));
         }
-        int intByte = byteImage[10] & 0xFF;
-        int paletteSize = intByte & 0x07;
-        return paletteSize;
-    }
 
-    private byte[] generatePasswordHash(String password) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
-        return Arrays.copyOf(hash, PASSWORD_HASH_BYTES);
+        byte[] key = metrics.time(Phase.KDF, () -> keyCache.key(payload.salt(), payload.kdfIterations(), password));
+        if (!MessageDigest.isEqual(payload.keyCheck(), StegoCrypto.keyCheck(key))) {
+            throw wrongPassword();
+        }
+        return key;
     }
 
-    private byte[] encryptMessage(String message, String password) throws Exception {
-        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-        byte[] keyBytes = deriveAesKey(password);
-
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, spec);
-
-        byte[] cipherText = cipher.doFinal(messageBytes);
-
-        byte[] result = new byte[iv.length + cipherText.length];
-        System.arraycopy(iv, 0, result, 0, iv.length);
-        System.arraycopy(cipherText, 0, result, iv.length, cipherText.length);
-
-        return result;
+    private Exception wrongPassword() {
+        metrics.decryptFailed(DecryptFailure.WRONG_PASSWORD);
+        return new Exception(WRONG_PASSWORD);
     }
 
-    private String decryptMessage(byte[] encryptedMessage, String password) throws Exception {
-        byte[] keyBytes = deriveAesKey(password);
-
-        if (encryptedMessage.length < GCM_IV_LENGTH) {
-            byte[] ivFallback = new byte[GCM_IV_LENGTH];
-            System.arraycopy(encryptedMessage, 0, ivFallback, 0, Math.min(encryptedMessage.length, ivFallback.length));
-            return bestEffortDecryptNoAuth(encryptedMessage, ivFallback, keyBytes);
-        }
+    public int getMaxTextLength(File inputFile) throws Exception {
+        ByteBuffer byteImage = mapFile(inputFile);
 
-        byte[] iv = Arrays.copyOfRange(encryptedMessage, 0, GCM_IV_LENGTH);
-        byte[] cipherText = Arrays.copyOfRange(encryptedMessage, GCM_IV_LENGTH, encryptedMessage.length);
+        int maxCapacityBytes = carrierCapacity(byteImage);
 
-        try {
-            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, spec);
+        int maxCharacters = maxCapacityBytes;
 
-            byte[] decrypted = cipher.doFinal(cipherText);
-            return new String(decrypted, StandardCharsets.UTF_8);
-        } catch (Exception ex) {
-            return bestEffortDecryptNoAuth(cipherText, iv, keyBytes);
-        }
+        return Math.max(0, maxCharacters);
     }
 
-    private String bestEffortDecryptNoAuth(byte[] cipherText, byte[] iv, byte[] keyBytes) {
-        try {
-            Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-            SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-
-            byte[] iv16 = new byte[16];
-            System.arraycopy(iv, 0, iv16, 0, Math.min(iv.length, iv16.length));
-            IvParameterSpec ivSpec = new IvParameterSpec(iv16);
-
-            cipher.init(Cipher.DECRYPT_MODE, keySpec, ivSpec);
-            byte[] decrypted = cipher.doFinal(cipherText);
-            return new String(decrypted, StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            return "Invalid password or corrupted data";
+    private ByteBuffer mapFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
         }
     }
 
-    private byte[] deriveAesKey(String password) throws Exception {
-        MessageDigest md = MessageDigest.getInstance("SHA-256");
-        byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
-        return Arrays.copyOf(hash, AES_KEY_BYTES);
+    private boolean checkFormat(ByteBuffer byteImage) {
+        return GifCarrierReader.isGif89a(byteImage);
     }
 
-    private void insertPasswordHash(byte[] byteImage, byte[] passwordHash) {
-        int safeEnd = findSafeEndPosition(byteImage);
-        int currentByte = KEY_START_BYTE;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-
-        for (byte hashByte : passwordHash) {
-            bitBuffer = (bitBuffer << 8) | (hashByte & 0xFF);
-            bitsInBuffer += 8;
-
-            while (bitsInBuffer >= LSB_BITS) {
-                if (currentByte >= safeEnd || currentByte >= byteImage.length) {
-                    return;
-                }
+    /**
+     * Characters of text the image is expected to hold once compressed, an
+     * estimate: text that compresses worse than chat usually does may not fit.
+     */
+    public int getMaxCharacters(File inputFile) throws Exception {
+        ByteBuffer byteImage = mapFile(inputFile);
 
-                int bitsToStore = (bitBuffer >> (bitsInBuffer - LSB_BITS)) & LSB_MASK;
+        long maxBytes = StegoCrypto.segmentedMessageLength(carrierCapacity(byteImage));
 
-                byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, TextCompressor.estimatedTextBytes(maxBytes)));
+    }
 
-                bitsInBuffer -= LSB_BITS;
-                currentByte++;
+    /** Capacity of a GIF89a, or of the GIF a PNG or JPEG converts to, from headers only. */
+    private int carrierCapacity(ByteBuffer byteImage) throws Exception {
+        if (GifConverter.isConvertible(byteImage)) {
+            try {
+                return StegoFormat.capacity(GifConverter.carrierBytes(byteImage));
+            } catch (IllegalArgumentException | IOException e) {
+                throw new Exception("Could not convert image: " + e.getMessage(), e);
             }
         }
-
-        if (bitsInBuffer > 0 && currentByte < safeEnd && currentByte < byteImage.length) {
-            int bitsToStore = (bitBuffer << (LSB_BITS - bitsInBuffer)) & LSB_MASK;
-            byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
+        if (!checkFormat(byteImage)) {
+            throw new Exception("Invalid image format. Expected GIF89a, PNG or JPEG.");
         }
+        return calculateMaxCapacity(byteImage);
     }
 
-    private byte[] extractPasswordHash(byte[] byteImage) {
-        byte[] hash = new byte[PASSWORD_HASH_BYTES];
-        int currentByte = KEY_START_BYTE;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-        int hashIndex = 0;
-
-        int totalBitsNeeded = PASSWORD_HASH_BYTES * 8;
-
-        while (hashIndex < PASSWORD_HASH_BYTES && currentByte < byteImage.length) {
-            int bits = byteImage[currentByte] & LSB_MASK;
-            bitBuffer = (bitBuffer << LSB_BITS) | bits;
-            bitsInBuffer += LSB_BITS;
-            currentByte++;
+    private int calculateMaxCapacity(ByteBuffer byteImage) {
+        return StegoFormat.capacity(byteImage);
+    }
 
-            while (bitsInBuffer >= 8 && hashIndex < PASSWORD_HASH_BYTES) {
-                hash[hashIndex] = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
-                bitsInBuffer -= 8;
-                hashIndex++;
-            }
+    private String decryptMessage(StegoFormat.Payload payload, byte[] keyBytes) throws Exception {
+        byte[] encryptedMessage = payload.message();
+        if (payload.version() == StegoFormat.VERSION_0) {
+            return decryptCipher(encryptedMessage, () -> cipherEngine.decryptToString(encryptedMessage, keyBytes));
         }
 
-        return hash;
+        byte[] plain = decryptCipher(encryptedMessage, () -> cipherEngine.decryptSegmented(encryptedMessage, keyBytes));
+        return payload.isDeflated() ? inflate(plain) : new String(plain, StandardCharsets.UTF_8);
     }
 
-    private void insertInteger(byte[] byteImage, int value, int numBytes, int startByte) {
-        int safeEnd = findSafeEndPosition(byteImage);
-        int currentByte = startByte;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-
-        for (int byteIndex = numBytes - 1; byteIndex >= 0; byteIndex--) {
-            byte byteValue = (byte) ((value >> (byteIndex * 8)) & 0xFF);
-            bitBuffer = (bitBuffer << 8) | (byteValue & 0xFF);
-            bitsInBuffer += 8;
-
-            while (bitsInBuffer >= LSB_BITS) {
-                if (currentByte >= safeEnd || currentByte >= byteImage.length) {
-                    return;
-                }
-
-                int bitsToStore = (bitBuffer >> (bitsInBuffer - LSB_BITS)) & LSB_MASK;
-                byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
-
-                bitsInBuffer -= LSB_BITS;
-                currentByte++;
-            }
-        }
-
-        if (bitsInBuffer > 0 && currentByte < safeEnd && currentByte < byteImage.length) {
-            int bitsToStore = (bitBuffer << (LSB_BITS - bitsInBuffer)) & LSB_MASK;
-            byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
+    private String inflate(byte[] deflated) throws Exception {
+        try {
+            return new String(metrics.time(Phase.COMPRESS, () -> TextCompressor.decompress(deflated)), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            // Authenticated, so written by a build that compressed differently.
+            throw new Exception("Could not decompress message: " + e.getMessage(), e);
         }
     }
 
-    private int extractInteger(byte[] byteImage, int numBytes, int startByte) {
-        int value = 0;
-        int currentByte = startByte;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-        int bytesExtracted = 0;
-
-        int totalBitsNeeded = numBytes * 8;
-
-        while (bytesExtracted < numBytes && currentByte < byteImage.length) {
-            int bits = byteImage[currentByte] & LSB_MASK;
-            bitBuffer = (bitBuffer << LSB_BITS) | bits;
-            bitsInBuffer += LSB_BITS;
-            currentByte++;
-
-            while (bitsInBuffer >= 8 && bytesExtracted < numBytes) {
-                byte byteValue = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
-                value = (value << 8) | (byteValue & 0xFF);
-                bitsInBuffer -= 8;
-                bytesExtracted++;
-            }
+    private <T> T decryptCipher(byte[] encryptedMessage, StegoMetrics.Step<T, GeneralSecurityException> step) throws Exception {
+        try {
+            return metrics.time(Phase.CIPHER, step);
+        } catch (GeneralSecurityException e) {
+            metrics.decryptFailed(encryptedMessage.length < StegoCrypto.encryptedLength(0)
+                    ? DecryptFailure.TRUNCATED
+                    : DecryptFailure.TAG_MISMATCH);
+            throw new Exception(WRONG_PASSWORD, e);
         }
-
-        return value;
     }
 
-    private void insertBytes(byte[] byteImage, byte[] data, int startByte) {
-        int safeEnd = findSafeEndPosition(byteImage);
-        int currentByte = startByte;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-
-        for (byte dataByte : data) {
-            bitBuffer = (bitBuffer << 8) | (dataByte & 0xFF);
-            bitsInBuffer += 8;
-
-            while (bitsInBuffer >= LSB_BITS) {
-                if (currentByte >= safeEnd || currentByte >= byteImage.length) {
-                    return;
-                }
-
-                int bitsToStore = (bitBuffer >> (bitsInBuffer - LSB_BITS)) & LSB_MASK;
-                byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
-
-                bitsInBuffer -= LSB_BITS;
-                currentByte++;
-            }
+    public String encryptAndStore(MultipartFile file, String text, String password) throws Exception {
+        try (BufferPool.Slab upload = readUpload(file)) {
+            return encryptAndStore(upload.buffer(), text, password);
         }
+    }
 
-        if (bitsInBuffer > 0 && currentByte < safeEnd && currentByte < byteImage.length) {
-            int bitsToStore = (bitBuffer << (LSB_BITS - bitsInBuffer)) & LSB_MASK;
-            byteImage[currentByte] = (byte) ((byteImage[currentByte] & CLEAR_LSB_MASK) | bitsToStore);
+    public String encryptAndStore(ByteBuffer image, String text, String password) throws Exception {
+        try (StegoFormat.Embedding embedding = encrypt(image, text, password)) {
+            return store(".gif", out -> metrics.time(Phase.EMBED, () -> {
+                embedding.writeTo(out);
+                return null;
+            }));
         }
     }
 
-    private byte[] extractBytes(byte[] byteImage, int length, int startByte) {
-        byte[] data = new byte[length];
-        int currentByte = startByte;
-        int bitBuffer = 0;
-        int bitsInBuffer = 0;
-        int dataIndex = 0;
-
-        while (dataIndex < length && currentByte < byteImage.length) {
-            int bits = byteImage[currentByte] & LSB_MASK;
-            bitBuffer = (bitBuffer << LSB_BITS) | bits;
-            bitsInBuffer += LSB_BITS;
-            currentByte++;
-
-            while (bitsInBuffer >= 8 && dataIndex < length) {
-                data[dataIndex] = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
-                bitsInBuffer -= 8;
-                dataIndex++;
-            }
+    /**
+     * {@link #encryptAndStore} for several images at once, run on the batch
+     * pool. {@code passwords} holds one password per image or a single one
+     * for all of them. A failing image does not fail the batch: its result
+     * carries the error instead of a URL.
+     */
+    public List<BatchEncryptResult> encryptAndStoreBatch(List<MultipartFile> files, List<String> texts,
+                                                         List<String> passwords) {
+        if (files == null || files.isEmpty()) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "No images in batch.");
+        }
+        if (files.size() > batchMaxItems) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "Batch is limited to " + batchMaxItems + " images.");
+        }
+        if (texts == null || texts.size() != files.size()) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "Expected one text per image.");
+        }
+        if (passwords == null || (passwords.size() != 1 && passwords.size() != files.size())) {
+            throw new GeneralException(HttpStatus.BAD_REQUEST, "Expected one password, or one per image.");
         }
 
-        return data;
-    }
-
-    public String encryptAndStore(MultipartFile file, String text, String password) throws Exception {
-        File inputFile = convertToFile(file);
-        File encryptedFile = encrypt(inputFile, text, password);
-        
+        List<Future<String>> futures = new ArrayList<>(files.size());
         try {
-            String filename = UUID.randomUUID() + ".gif";
-            Path target = messageDir.resolve(filename);
-            
-            Files.createDirectories(messageDir);
-            Files.copy(encryptedFile.toPath(), target);
-
-            Files.deleteIfExists(inputFile.toPath());
-            Files.deleteIfExists(encryptedFile.toPath());
-            
-            return messageBaseUrl + filename;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to store encrypted GIF", e);
+            for (int i = 0; i < files.size(); i++) {
+                MultipartFile file = files.get(i);
+                String text = texts.get(i);
+                String password = passwords.get(passwords.size() == 1 ? 0 : i);
+                futures.add(batchExecutor.submit(() -> encryptAndStore(file, text, password)));
+            }
+        } catch (RejectedExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new GeneralException(HttpStatus.TOO_MANY_REQUESTS, "Too many images are being encrypted, try again later.");
+        }
+
+        List<BatchEncryptResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(new BatchEncryptResult(i, futures.get(i).get(), null));
+            } catch (ExecutionException e) {
+                results.add(new BatchEncryptResult(i, null, e.getCause().getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new GeneralException(HttpStatus.SERVICE_UNAVAILABLE, "Batch encryption was interrupted.");
+            }
         }
+        return results;
     }
 
     public String storeWithoutEncryption(MultipartFile file) {
         try {
-            File inputFile = convertToFile(file);
             String originalName = Optional.ofNullable(file.getOriginalFilename()).orElse("image.gif");
             String ext = "";
             int dot = originalName.lastIndexOf('.');
@@ -480,439 +407,206 @@ public class SteganographyService {
                 ext = ".gif";
             }
 
-            String filename = UUID.randomUUID() + ext;
-            Path target = messageDir.resolve(filename);
-
-            Files.createDirectories(messageDir);
-            Files.copy(inputFile.toPath(), target);
-
-            Files.deleteIfExists(inputFile.toPath());
-
-            return messageBaseUrl + filename;
+            return store(ext, out -> {
+                try (InputStream in = file.getInputStream()) {
+                    in.transferTo(Channels.newOutputStream(out));
+                }
+            });
         } catch (IOException e) {
             throw new RuntimeException("Failed to store image", e);
         }
     }
 
-    // public String decryptFromUrl(String imageUrl, String password) throws Exception {
-    //     String filename = imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
-    //     Path imagePath = messageDir.resolve(filename);
-        
-    //     if (!Files.exists(imagePath)) {
-    //         throw new Exception("Image not found at URL: " + imageUrl);
-    //     }
-        
-    //     File imageFile = imagePath.toFile();
-    //     return decrypt(imageFile, password);
-    // }
-
-     private File convertToFile(MultipartFile multipartFile) throws IOException {
-         File conv = File.createTempFile("upload_", multipartFile.getOriginalFilename());
-         multipartFile.transferTo(conv);
-         return conv;
-     }
-
-}
-
-
-/*
-package com.example.piccrypt.services;
-
-import org.springframework.stereotype.Service;
-
-import javax.crypto.Cipher;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.util.*;
-
-@Service
-public class SteganographyService {
-    private static final int KEY_START_BYTE = 13;
-    private static final int MESSAGE_LENGTH_BYTES = 4;
-    private static final int LSB_BITS = 3;
-    private static final int LSB_MASK = 0x07;
-    private static final int CLEAR_LSB_MASK = 0xF8;
-    private static final int PASSWORD_HASH_BYTES = 4;
-    private static final int AES_KEY_BYTES = 32;
-    private static final int GCM_IV_LENGTH = 12;
-    private static final int GCM_TAG_LENGTH = 128;
-
-    public File encrypt(File inputFile, String text, String password) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
-
-        String uuid = UUID.randomUUID().toString();
-        File parent = inputFile.getParentFile();
-        File outputFile = new File(parent, uuid + ".gif");
-
-        if (!checkFormat(byteImage)) {
-            throw new Exception("Invalid GIF format. Expected GIF89a.");
-        }
-
-        // 1. Generate the deterministic shuffle map based on password
-        int[] shuffledIndices = getShuffledIndices(byteImage, password);
-        int pointer = 0; // Tracks our position in the shuffled list
-
-        byte[] encryptedMessage = encryptMessage(text, password);
-        int maxCapacity = calculateMaxCapacity(byteImage);
-
-        if (encryptedMessage.length > maxCapacity) {
-            throw new Exception("Message is too large for this GIF. Max bytes: " + maxCapacity);
+    /**
+     * Decrypts a file already in the messages directory, given its URL or
+     * just its name, if a message in a chat the current user is in carries
+     * it. Stored names are content hashes, so several messages may share one.
+     */
+    public String decryptFromUrl(String imageUrl, String password) throws Exception {
+        List<Message> messages = messageRepository.findByMediaUrlEndingWith("/" + storedName(imageUrl)).stream()
+                .filter(message -> isStoredGif(message.getMediaUrl()))
+                .toList();
+        if (messages.isEmpty()) {
+            throw new ResourceNotFoundException("Message not found");
+        }
+        Message message = messages.stream()
+                .filter(m -> chatAuth.isMember(m.getChat().getId()))
+                .findFirst()
+                .orElse(messages.get(0));
+        chatAuth.requireMember(message.getChat().getId());
+        return decryptStored(new StoredImage(message), password);
+    }
+
+    /** Decrypts the image of a message in a chat the current user is in. */
+    public String decryptStoredMessage(Long messageId, String password) throws Exception {
+        Message message = messageRepository.findById(messageId)
+                .orElseThrow(() -> new ResourceNotFoundException("Message not found"));
+        chatAuth.requireMember(message.getChat().getId());
+
+        if (!isStoredGif(message.getMediaUrl())) {
+            throw new ResourceNotFoundException("Message has no stored image");
+        }
+        return decryptStored(new StoredImage(message), password);
+    }
+
+    /**
+     * Decrypts the images of a chat's messages with one password, newest
+     * first, at most {@code app.stego.chat.max-items} of them before message
+     * {@code before} (or the newest, if null); page back with the oldest id
+     * returned. Every v4 image costs a full key derivation, so the newest is
+     * decrypted first on the calling thread, and a wrong password for it
+     * rejects the request before the rest are queued.
+     *
+     * The rest run on the batch pool. Each worker takes every n-th message,
+     * so a page never queues more tasks than there are workers.
+     */
+    public List<StegoDecryptResult> decryptChat(Long chatId, Long before, String password) {
+        chatAuth.requireMember(chatId);
+
+        List<StoredImage> images = messageRepository
+                .findGifsBefore(chatId, before == null ? Long.MAX_VALUE : before, Limit.of(chatMaxItems)).stream()
+                .filter(message -> isStoredGif(message.getMediaUrl()))
+                .map(StoredImage::new)
+                .toList();
+
+        StegoDecryptResult[] results = new StegoDecryptResult[images.size()];
+        if (results.length == 0) {
+            return List.of();
+        }
+        StoredImage newest = images.get(0);
+        try {
+            results[0] = new StegoDecryptResult(newest.messageId(), decryptStored(newest, password), null);
+        } catch (Exception e) {
+            if (WRONG_PASSWORD.equals(e.getMessage())) {
+                throw new GeneralException(HttpStatus.BAD_REQUEST, WRONG_PASSWORD);
+            }
+            results[0] = new StegoDecryptResult(newest.messageId(), null, e.getMessage());
         }
 
-        byte[] passwordHash = generatePasswordHash(password);
-
-        // 2. Insert Password Hash (Randomly placed based on seed)
-        pointer = insertPasswordHash(byteImage, passwordHash, shuffledIndices, pointer);
-
-        // 3. Insert Message Length (Randomly placed)
-        pointer = insertInteger(byteImage, encryptedMessage.length, MESSAGE_LENGTH_BYTES, shuffledIndices, pointer);
-
-        // 4. Insert Encrypted Message (Randomly placed)
-        insertBytes(byteImage, encryptedMessage, shuffledIndices, pointer);
-
-        writeBytes(byteImage, outputFile);
-        return outputFile;
-    }
-
-    public String decrypt(File inputFile, String password) throws Exception {
-        byte[] byteImage = readBytes(inputFile);
-
-        if (!checkFormat(byteImage)) {
-            throw new Exception("Invalid GIF format. Expected GIF89a.");
+        int parallelism = Math.min(results.length - 1, Runtime.getRuntime().availableProcessors());
+        List<Future<?>> futures = new ArrayList<>(parallelism);
+        try {
+            for (int worker = 0; worker < parallelism; worker++) {
+                int first = 1 + worker;
+                futures.add(batchExecutor.submit(() -> {
+                    for (int i = first; i < results.length; i += parallelism) {
+                        StoredImage image = images.get(i);
+                        try {
+                            results[i] = new StegoDecryptResult(image.messageId(), decryptStored(image, password), null);
+                        } catch (Exception e) {
+                            results[i] = new StegoDecryptResult(image.messageId(), null, e.getMessage());
+                        }
+                    }
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw new GeneralException(HttpStatus.TOO_MANY_REQUESTS, "Too many images are being decrypted, try again later.");
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Chat decryption failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new GeneralException(HttpStatus.SERVICE_UNAVAILABLE, "Chat decryption was interrupted.");
+            }
         }
-
-        // 1. Regenerate the exact same shuffle map using the password
-        int[] shuffledIndices = getShuffledIndices(byteImage, password);
-        int pointer = 0;
-
-        // 2. Extract and verify Hash
-        byte[] storedHash = extractPasswordHash(byteImage, shuffledIndices, pointer);
-        pointer += calculateBytesUsed(PASSWORD_HASH_BYTES); // Advance pointer logically
-
-        byte[] computedHash = generatePasswordHash(password);
-
-        // If hash doesn't match, the shuffle order was wrong anyway (garbage data),
-        // but we explicitly check here.
-        boolean passwordMatches = Arrays.equals(storedHash, computedHash);
-
-        // 3. Extract Length
-        int messageLength = extractInteger(byteImage, MESSAGE_LENGTH_BYTES, shuffledIndices, pointer);
-        pointer += calculateBytesUsed(MESSAGE_LENGTH_BYTES);
-
-        // Safety check on length
-        int maxCapacity = calculateMaxCapacity(byteImage);
-        if (messageLength <= 0 || messageLength > maxCapacity) {
-            // If length is garbage (due to wrong password/shuffle), clamp it to avoid crashes
-            messageLength = Math.max(1, Math.min(maxCapacity, Math.abs(messageLength)));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Drops cached decrypts of a stored image once a message no longer
+     * points at it. The file itself is left to {@link MediaCollector}: other
+     * messages may carry the same image, and only the collector checks.
+     */
+    public void forgetStored(String imageUrl) {
+        if (imageUrl == null || !imageUrl.contains(messageBaseUrl)) {
+            return;
+        }
+        resultCache.invalidate(storedName(imageUrl));
+    }
+
+    /**
+     * Decrypts a message image through {@link DecryptResultCache}, which is
+     * asked first: a hit reads neither the file nor derives a key. Only text
+     * that passed the GCM tag check is cached, and never for a message that
+     * self-destructs on read; a timed one is cached until it expires.
+     */
+    private String decryptStored(StoredImage image, String password) throws Exception {
+        String name = storedName(image.url());
+        boolean cacheable = image.selfDestructType() != SelfDestructType.ON_READ;
+        if (cacheable) {
+            String cached = resultCache.get(name, password);
+            if (cached != null) {
+                return cached;
+            }
         }
 
-        // 4. Extract Message
-        byte[] encryptedMessage = extractBytes(byteImage, messageLength, shuffledIndices, pointer);
-
-        String result = decryptMessage(encryptedMessage, password);
-
-        // Even if decryption "succeeds" (rare with wrong key), we warn if hash didn't match.
-        // In this shuffled scheme, a wrong password usually results in total garbage
-        // before we even reach this line.
-        if (!passwordMatches) {
-            // Depending on your requirements, you might throw an exception here
-            // throw new Exception("Invalid Password");
-            return result;
+        StegoFormat.Payload payload = extractPayload(readStored(image.url()));
+        String text = decryptMessage(payload, key(payload, password));
+        if (cacheable) {
+            resultCache.put(name, password, text, image.maxAge());
         }
-        return result;
-    }
-
-    // --- FISHER-YATES SHUFFLE LOGIC ---
-private int[] getShuffledIndices(byte[] byteImage, String password) throws Exception {
-    int start = KEY_START_BYTE;
-    int end = findSafeEndPosition(byteImage);
-
-    if (end <= start) {
-        return new int[0];
-    }
-
-    int capacity = end - start;
-
-    // Create list of all available byte positions: [13, 14, 15, ..., end]
-    List<Integer> indices = new ArrayList<>(capacity);
-    for (int i = 0; i < capacity; i++) {
-        indices.add(start + i);
+        return text;
     }
 
-    // Generate a deterministic seed from the password
-    long seed = generatePasswordHashLong(password);
-
-    // Shuffle using standard Random (not SecureRandom) to ensure determinism across runs
-    Collections.shuffle(indices, new Random(seed));
-
-    // Convert to primitive array
-    return indices.stream().mapToInt(i -> i).toArray();
-}
-
-private long generatePasswordHashLong(String password) throws Exception {
-    MessageDigest md = MessageDigest.getInstance("SHA-256");
-    byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
-    long result = 0;
-    // Take first 8 bytes of hash to build a long seed
-    for (int i = 0; i < 8; i++) {
-        result = (result << 8) | (hash[i] & 0xFF);
-    }
-    return result;
-}
-
-private int calculateBytesUsed(int dataLength) {
-    return (dataLength * 8 + LSB_BITS - 1) / LSB_BITS;
-}
-
-// --- READ / WRITE HELPERS (UPDATED FOR SHUFFLE) ---
-
-private int insertPasswordHash(byte[] byteImage, byte[] passwordHash, int[] shuffledIndices, int pointer) {
-    return insertBytes(byteImage, passwordHash, shuffledIndices, pointer);
-}
-
-private byte[] extractPasswordHash(byte[] byteImage, int[] shuffledIndices, int pointer) {
-    return extractBytes(byteImage, PASSWORD_HASH_BYTES, shuffledIndices, pointer);
-}
-
-private int insertInteger(byte[] byteImage, int value, int numBytes, int[] shuffledIndices, int pointer) {
-    int bitBuffer = 0;
-    int bitsInBuffer = 0;
-
-    for (int byteIndex = numBytes - 1; byteIndex >= 0; byteIndex--) {
-        byte byteValue = (byte) ((value >> (byteIndex * 8)) & 0xFF);
-        bitBuffer = (bitBuffer << 8) | (byteValue & 0xFF);
-        bitsInBuffer += 8;
-
-        while (bitsInBuffer >= LSB_BITS) {
-            if (pointer >= shuffledIndices.length) return pointer;
-
-            int targetByteIndex = shuffledIndices[pointer];
-
-            int bitsToStore = (bitBuffer >> (bitsInBuffer - LSB_BITS)) & LSB_MASK;
-            byteImage[targetByteIndex] = (byte) ((byteImage[targetByteIndex] & CLEAR_LSB_MASK) | bitsToStore);
-
-            bitsInBuffer -= LSB_BITS;
-            pointer++;
+    /** The parts of a message a decrypt needs, read before leaving the request thread. */
+    private record StoredImage(Long messageId, String url, SelfDestructType selfDestructType, Instant expireAt) {
+        private StoredImage(Message message) {
+            this(message.getId(), message.getMediaUrl(), message.getSelfDestructType(), message.getExpireAt());
         }
-    }
-
-    // Handle remaining bits (if any)
-    if (bitsInBuffer > 0 && pointer < shuffledIndices.length) {
-        int targetByteIndex = shuffledIndices[pointer];
-        int bitsToStore = (bitBuffer << (LSB_BITS - bitsInBuffer)) & LSB_MASK;
-        byteImage[targetByteIndex] = (byte) ((byteImage[targetByteIndex] & CLEAR_LSB_MASK) | bitsToStore);
-        // Note: We don't increment pointer here usually because we didn't fill the byte,
-        // but strictly we should probably burn the byte to keep sync easy.
-        // For simplicity in LSB streaming, we often assume strict alignment or waste the partial.
-        // Given the previous code logic, let's burn the byte index to stay safe.
-        pointer++;
-    }
-    return pointer;
-}
-
-private int extractInteger(byte[] byteImage, int numBytes, int[] shuffledIndices, int pointer) {
-    int value = 0;
-    int bitBuffer = 0;
-    int bitsInBuffer = 0;
-    int bytesExtracted = 0;
-
-    while (bytesExtracted < numBytes && pointer < shuffledIndices.length) {
-        int targetByteIndex = shuffledIndices[pointer];
-        int bits = byteImage[targetByteIndex] & LSB_MASK;
 
-        bitBuffer = (bitBuffer << LSB_BITS) | bits;
-        bitsInBuffer += LSB_BITS;
-        pointer++;
-
-        while (bitsInBuffer >= 8 && bytesExtracted < numBytes) {
-            byte byteValue = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
-            value = (value << 8) | (byteValue & 0xFF);
-            bitsInBuffer -= 8;
-            bytesExtracted++;
+        private Duration maxAge() {
+            if (selfDestructType != SelfDestructType.TIME_BASED || expireAt == null) {
+                return null;
+            }
+            return Duration.between(Instant.now(), expireAt);
         }
     }
-    return value;
-}
-
-private int insertBytes(byte[] byteImage, byte[] data, int[] shuffledIndices, int pointer) {
-    int bitBuffer = 0;
-    int bitsInBuffer = 0;
-
-    for (byte dataByte : data) {
-        bitBuffer = (bitBuffer << 8) | (dataByte & 0xFF);
-        bitsInBuffer += 8;
-
-        while (bitsInBuffer >= LSB_BITS) {
-            if (pointer >= shuffledIndices.length) return pointer;
-
-            int targetByteIndex = shuffledIndices[pointer];
-            int bitsToStore = (bitBuffer >> (bitsInBuffer - LSB_BITS)) & LSB_MASK;
-
-            byteImage[targetByteIndex] = (byte) ((byteImage[targetByteIndex] & CLEAR_LSB_MASK) | bitsToStore);
 
-            bitsInBuffer -= LSB_BITS;
-            pointer++;
-        }
+    private boolean isStoredGif(String url) {
+        return url != null && url.contains(messageBaseUrl) && url.endsWith(".gif");
     }
 
-    if (bitsInBuffer > 0 && pointer < shuffledIndices.length) {
-        int targetByteIndex = shuffledIndices[pointer];
-        int bitsToStore = (bitBuffer << (LSB_BITS - bitsInBuffer)) & LSB_MASK;
-        byteImage[targetByteIndex] = (byte) ((byteImage[targetByteIndex] & CLEAR_LSB_MASK) | bitsToStore);
-        pointer++;
+    private static String storedName(String imageUrl) {
+        return imageUrl.substring(imageUrl.lastIndexOf('/') + 1);
     }
-    return pointer;
-}
-
-private byte[] extractBytes(byte[] byteImage, int length, int[] shuffledIndices, int pointer) {
-    byte[] data = new byte[length];
-    int bitBuffer = 0;
-    int bitsInBuffer = 0;
-    int dataIndex = 0;
-
-    while (dataIndex < length && pointer < shuffledIndices.length) {
-        int targetByteIndex = shuffledIndices[pointer];
-        int bits = byteImage[targetByteIndex] & LSB_MASK;
 
-        bitBuffer = (bitBuffer << LSB_BITS) | bits;
-        bitsInBuffer += LSB_BITS;
-        pointer++;
-
-        while (bitsInBuffer >= 8 && dataIndex < length) {
-            data[dataIndex] = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
-            bitsInBuffer -= 8;
-            dataIndex++;
+    private ByteBuffer readStored(String imageUrl) throws Exception {
+        String key = storedName(imageUrl);
+        if (!messageStore.exists(key)) {
+            throw new Exception("Image not found at URL: " + imageUrl);
         }
+        return messageStore.read(key);
     }
-    return data;
-}
-
-// --- STANDARD CRYPTO & GIF HELPERS (UNCHANGED) ---
-
-public int getMaxCharacters(File inputFile) throws Exception {
-    byte[] byteImage = readBytes(inputFile);
-    if (!checkFormat(byteImage)) throw new Exception("Invalid GIF format.");
-    return Math.max(0, calculateMaxCapacity(byteImage));
-}
-
-private int calculateMaxCapacity(byte[] byteImage) {
-    // Calculate max based on palette size minus metadata
-    int safeEnd = findSafeEndPosition(byteImage);
-    int availableBytes = safeEnd - KEY_START_BYTE;
-    if (availableBytes <= 0) return 0;
-
-    long totalBits = (long) availableBytes * LSB_BITS;
-    int totalCapacity = (int) (totalBits / 8);
-
-    // Subtract metadata overhead
-    int overhead = PASSWORD_HASH_BYTES + MESSAGE_LENGTH_BYTES;
-    // Subtract crypto overhead (IV + GCM Tag)
-    int cryptoOverhead = GCM_IV_LENGTH + (GCM_TAG_LENGTH / 8);
-
-    return Math.max(0, totalCapacity - overhead - cryptoOverhead);
-}
-
-private int findSafeEndPosition(byte[] bytes) {
-    return getPaletteEndPosition(bytes);
-}
 
-private int getPaletteEndPosition(byte[] bytes) {
-    int packed = bytes[10] & 0xFF;
-    boolean gctFlag = (packed & 0x80) != 0;
-    int gctSize = packed & 0x07;
-
-    if (!gctFlag) return KEY_START_BYTE;
-
-    int colorCount = 1 << (gctSize + 1);
-    return 13 + colorCount * 3;
-}
-
-private byte[] readBytes(File file) throws IOException {
-    try (FileInputStream fis = new FileInputStream(file);
-         ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-        byte[] buffer = new byte[8192];
-        int bytesRead;
-        while ((bytesRead = fis.read(buffer)) != -1) {
-            baos.write(buffer, 0, bytesRead);
-        }
-        return baos.toByteArray();
-    }
-}
-
-private void writeBytes(byte[] byteImage, File file) throws IOException {
-    try (FileOutputStream fos = new FileOutputStream(file)) {
-        fos.write(byteImage);
+    /**
+     * Reads an upload into a pooled buffer. Close the slab once the image
+     * is written out, or the job that holds it is done.
+     */
+    public BufferPool.Slab readUpload(MultipartFile file) throws IOException {
+        return metrics.time(Phase.SPOOL, () -> {
+            try (InputStream in = file.getInputStream()) {
+                return bufferPool.read(in, file.getSize());
+            }
+        });
     }
-}
-
-private boolean checkFormat(byte[] byteImage) {
-    if (byteImage.length < 6) return false;
-    return byteImage[0] == 'G' && byteImage[1] == 'I' && byteImage[2] == 'F' &&
-            byteImage[3] == '8' && byteImage[4] == '9' && byteImage[5] == 'a';
-}
-
-private byte[] generatePasswordHash(String password) throws Exception {
-    MessageDigest md = MessageDigest.getInstance("SHA-256");
-    byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
-    return Arrays.copyOf(hash, PASSWORD_HASH_BYTES);
-}
-
-private byte[] deriveAesKey(String password) throws Exception {
-    MessageDigest md = MessageDigest.getInstance("SHA-256");
-    byte[] hash = md.digest(password.getBytes(StandardCharsets.UTF_8));
-    return Arrays.copyOf(hash, AES_KEY_BYTES);
-}
 
-private byte[] encryptMessage(String message, String password) throws Exception {
-    byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
-    byte[] keyBytes = deriveAesKey(password);
-
-    byte[] iv = new byte[GCM_IV_LENGTH];
-    new SecureRandom().nextBytes(iv);
-
-    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-    SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-    GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-    cipher.init(Cipher.ENCRYPT_MODE, keySpec, spec);
-
-    byte[] cipherText = cipher.doFinal(messageBytes);
-
-    byte[] result = new byte[iv.length + cipherText.length];
-    System.arraycopy(iv, 0, result, 0, iv.length);
-    System.arraycopy(cipherText, 0, result, iv.length, cipherText.length);
-
-    return result;
-}
-
-private String decryptMessage(byte[] encryptedMessage, String password) throws Exception {
-    byte[] keyBytes = deriveAesKey(password);
-
-    if (encryptedMessage.length < GCM_IV_LENGTH) {
-        return ""; // Or throw exception
+    /**
+     * Writes a new message image through the blob store, which names it by
+     * its content and publishes it atomically once it is complete.
+     */
+    private <E extends Exception> String store(String extension, BlobStore.BlobWriter<E> writer) throws IOException, E {
+        long start = System.nanoTime();
+        try {
+            return messageBaseUrl + messageStore.path(messageStore.put(extension, writer));
+        } finally {
+            metrics.record(Phase.STORE, start);
+        }
     }
 
-    byte[] iv = Arrays.copyOfRange(encryptedMessage, 0, GCM_IV_LENGTH);
-    byte[] cipherText = Arrays.copyOfRange(encryptedMessage, GCM_IV_LENGTH, encryptedMessage.length);
-
-    try {
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        SecretKeySpec keySpec = new SecretKeySpec(keyBytes, "AES");
-        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, keySpec, spec);
-
-        byte[] decrypted = cipher.doFinal(cipherText);
-        return new String(decrypted, StandardCharsets.UTF_8);
-    } catch (Exception ex) {
-        // Decryption failed (integrity check failed)
-        return "Invalid password or corrupted data";
-    }
-}
 }
-
-
- */
\ No newline at end of file
@@ -0,0 +1,276 @@
+package com.example.piccrypt.services;
+
+import com.example.piccrypt.dtos.StegoJobDto;
+import com.example.piccrypt.exceptions.GeneralException;
+import com.example.piccrypt.exceptions.ResourceNotFoundException;
+import com.example.piccrypt.stego.BufferPool;
+import com.example.piccrypt.types.StegoJobPriority;
+import com.example.piccrypt.types.StegoJobStatus;
+import com.example.piccrypt.types.StegoJobType;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs stego encrypt and decrypt off the request threads. A submitted job is
+ * queued in one of two bounded lanes and picked up by a fixed set of workers,
+ * which always drain the interactive lane before the bulk one. A full lane
+ * rejects the job with 429.
+ *
+ * Every queued job holds its upload in a {@link BufferPool} slab, so the
+ * lanes are also bounded by bytes: a job takes the size of its slab from a
+ * shared budget before the upload is read, and gives it back when it is
+ * done. A job that does not fit the budget is rejected with 429 as well.
+ *
+ * When a job finishes, its id and status are sent to
+ * {@code /topic/user.{id}.stego-jobs}. Topics are readable by any
+ * subscriber, so the event carries nothing else; the owner fetches the
+ * URL, text or error with {@link #getJob}.
+ */
+@Service
+public class StegoJobService {
+
+    private final SteganographyService steganographyService;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final BufferPool bufferPool;
+    private final Duration retention;
+
+    private final BlockingQueue<Job> interactive;
+    private final BlockingQueue<Job> bulk;
+    // One permit per queued job, whichever lane it is in.
+    private final Semaphore queued = new Semaphore(0);
+    // The byte budget of held uploads, one permit per KiB.
+    private final Semaphore queuedKib;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+
+    public StegoJobService(SteganographyService steganographyService,
+                           SimpMessagingTemplate messagingTemplate,
+                           BufferPool stegoBufferPool,
+                           @Value("${app.stego.jobs.threads:0}") int threads,
+                           @Value("${app.stego.jobs.interactive-capacity:64}") int interactiveCapacity,
+                           @Value("${app.stego.jobs.bulk-capacity:256}") int bulkCapacity,
+                           @Value("${app.stego.jobs.max-queued-bytes:256MB}") DataSize maxQueuedBytes,
+                           @Value("${app.stego.jobs.retention:15m}") Duration retention) {
+        this.steganographyService = steganographyService;
+        this.messagingTemplate = messagingTemplate;
+        this.bufferPool = stegoBufferPool;
+        this.queuedKib = new Semaphore((int) Math.min(maxQueuedBytes.toKilobytes(), Integer.MAX_VALUE));
+        this.retention = retention;
+        this.interactive = new ArrayBlockingQueue<>(interactiveCapacity);
+        this.bulk = new ArrayBlockingQueue<>(bulkCapacity);
+
+        int workerCount = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::work, "stego-job-" + (i + 1));
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    public StegoJobDto submitEncrypt(Long userId, MultipartFile file, String text, String password,
+                                     StegoJobPriority priority) {
+        return submitUpload(userId, StegoJobType.ENCRYPT, priority, file,
+                image -> steganographyService.encryptAndStore(image, text, password));
+    }
+
+    /**
+     * Like {@link #submitEncrypt}, the job keeps the bytes of the upload;
+     * the payload is extracted by the worker, so decoding the frames never
+     * runs on the request thread. A file that holds no message fails the job.
+     */
+    public StegoJobDto submitDecrypt(Long userId, MultipartFile file, String password, StegoJobPriority priority) {
+        return submitUpload(userId, StegoJobType.DECRYPT, priority, file,
+                image -> steganographyService.decrypt(image, password));
+    }
+
+    public StegoJobDto getJob(Long userId, String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null || !Objects.equals(job.ownerId, userId)) {
+            throw new ResourceNotFoundException("Job not found");
+        }
+        return job.snapshot();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.forEach(Thread::interrupt);
+    }
+
+    /**
+     * Takes the upload's share of the byte budget, reads it into a slab and
+     * queues {@code work} on it. The upload is gone once the request ends,
+     * so the job keeps the bytes; the slab and the budget are given back when
+     * the job is done, or here if it is not queued.
+     */
+    private StegoJobDto submitUpload(Long userId, StegoJobType type, StegoJobPriority priority,
+                                     MultipartFile file, UploadWork work) {
+        long kib = (bufferPool.slabBytes(file.getSize()) + 1023) / 1024;
+        int permits = (int) Math.min(kib, Integer.MAX_VALUE);
+        if (!queuedKib.tryAcquire(permits)) {
+            throw new GeneralException(HttpStatus.TOO_MANY_REQUESTS, "Too many stego job bytes queued, try again later.");
+        }
+        BufferPool.Slab image;
+        try {
+            image = steganographyService.readUpload(file);
+        } catch (IOException e) {
+            queuedKib.release(permits);
+            throw new RuntimeException("Failed to read upload", e);
+        } catch (RuntimeException e) {
+            queuedKib.release(permits);
+            throw e;
+        }
+        try {
+            return submit(userId, type, priority, () -> {
+                try (image) {
+                    return work.run(image.buffer());
+                } finally {
+                    queuedKib.release(permits);
+                }
+            });
+        } catch (RuntimeException e) {
+            image.close();
+            queuedKib.release(permits);
+            throw e;
+        }
+    }
+
+    private StegoJobDto submit(Long userId, StegoJobType type, StegoJobPriority priority, Work work) {
+        purgeFinished();
+
+        Job job = new Job(UUID.randomUUID().toString(), userId, type,
+                priority == null ? StegoJobPriority.INTERACTIVE : priority, work);
+        jobs.put(job.id, job);
+        BlockingQueue<Job> lane = job.priority == StegoJobPriority.BULK ? bulk : interactive;
+        if (!lane.offer(job)) {
+            jobs.remove(job.id);
+            throw new GeneralException(HttpStatus.TOO_MANY_REQUESTS, "Too many stego jobs queued, try again later.");
+        }
+        queued.release();
+        return job.snapshot();
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                queued.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            Job job = interactive.poll();
+            if (job == null) {
+                job = bulk.poll();
+            }
+            run(job);
+        }
+    }
+
+    private void run(Job job) {
+        job.start();
+        try {
+            job.finish(job.work.run(), null);
+        } catch (Exception e) {
+            job.finish(null, e.getMessage());
+        }
+        try {
+            messagingTemplate.convertAndSend("/topic/user." + job.ownerId + ".stego-jobs", job.notice());
+        } catch (RuntimeException e) {
+            // The job is finished either way and its owner can still fetch it;
+            // only the worker must not die with the broker.
+        }
+    }
+
+    private void purgeFinished() {
+        Instant cutoff = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.isFinishedBefore(cutoff));
+    }
+
+    @FunctionalInterface
+    private interface Work {
+        String run() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface UploadWork {
+        String run(ByteBuffer image) throws Exception;
+    }
+
+    private static final class Job {
+        private final String id;
+        private final Long ownerId;
+        private final StegoJobType type;
+        private final StegoJobPriority priority;
+        private final Work work;
+        private final Instant submittedAt = Instant.now();
+
+        private StegoJobStatus status = StegoJobStatus.QUEUED;
+        private String result;
+        private String error;
+        private Instant finishedAt;
+
+        private Job(String id, Long ownerId, StegoJobType type, StegoJobPriority priority, Work work) {
+            this.id = id;
+            this.ownerId = ownerId;
+            this.type = type;
+            this.priority = priority;
+            this.work = work;
+        }
+
+        private synchronized void start() {
+            status = StegoJobStatus.RUNNING;
+        }
+
+        private synchronized void finish(String result, String error) {
+            this.status = error == null ? StegoJobStatus.DONE : StegoJobStatus.FAILED;
+            this.result = result;
+            this.error = error;
+            this.finishedAt = Instant.now();
+        }
+
+        private synchronized boolean isFinishedBefore(Instant cutoff) {
+            return finishedAt != null && finishedAt.isBefore(cutoff);
+        }
+
+        private synchronized StegoJobDto snapshot() {
+            StegoJobDto dto = notice();
+            dto.setType(type);
+            dto.setPriority(priority);
+            if (type == StegoJobType.ENCRYPT) {
+                dto.setUrl(result);
+            } else {
+                dto.setMessage(result);
+            }
+            dto.setError(error);
+            dto.setSubmittedAt(submittedAt);
+            dto.setFinishedAt(finishedAt);
+            return dto;
+        }
+
+        /** Only what a subscriber to the owner's topic may see. */
+        private synchronized StegoJobDto notice() {
+            StegoJobDto dto = new StegoJobDto();
+            dto.setId(id);
+            dto.setStatus(status);
+            return dto;
+        }
+    }
+}
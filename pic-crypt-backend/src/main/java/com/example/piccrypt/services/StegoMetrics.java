@@ -0,0 +1,147 @@
+package com.example.piccrypt.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters for {@link SteganographyService}. Every phase is a
+ * {@code stego.phase} timer tagged with its name and published as a
+ * histogram, so percentiles can be computed across instances. The sizes
+ * of payloads and carriers are distribution summaries, and decrypts that
+ * did not end in authenticated text are counted by reason.
+ */
+@Component
+public class StegoMetrics {
+
+    public enum Phase {
+        /** Reading an upload into a buffer. */
+        SPOOL,
+        /** Decoding a PNG or JPEG and writing it as a GIF89a. */
+        CONVERT,
+        /** GIF89a check and capacity scan. */
+        FORMAT,
+        /** Deflating message text, or inflating it after decryption. */
+        COMPRESS,
+        /** Password to key, through the key cache. */
+        KDF,
+        /**
+         * AES-GCM decryption. Encryption runs chunk by chunk inside
+         * {@link #EMBED}, as the payload is written.
+         */
+        CIPHER,
+        /** Writing the carrier with the payload embedded. */
+        EMBED,
+        /** Reading the payload out of the carrier. */
+        EXTRACT,
+        /** Writing a message file and moving it into place, embedding included. */
+        STORE;
+
+        private String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    public enum DecryptFailure {
+        /** The file is not a GIF89a. */
+        NOT_GIF,
+        /** The GIF holds no payload, or is too small for one. */
+        NO_PAYLOAD,
+        /** The key check or password hash did not match the password. */
+        WRONG_PASSWORD,
+        /** The payload is too short to hold an IV and a tag. */
+        TRUNCATED,
+        /** The tag did not match: wrong password or damaged data. */
+        TAG_MISMATCH;
+
+        private String tag() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    private final Map<Phase, Timer> phases = new EnumMap<>(Phase.class);
+    private final Map<DecryptFailure, Counter> failures = new EnumMap<>(DecryptFailure.class);
+    private final DistributionSummary payloadSize;
+    private final DistributionSummary carrierSize;
+    private final DistributionSummary capacityUsed;
+
+    public StegoMetrics(MeterRegistry registry) {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, Timer.builder("stego.phase")
+                    .tag("phase", phase.tag())
+                    .description("Time spent in one phase of a stego encrypt or decrypt")
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(30))
+                    .register(registry));
+        }
+        for (DecryptFailure failure : DecryptFailure.values()) {
+            failures.put(failure, Counter.builder("stego.decrypt.failures")
+                    .tag("reason", failure.tag())
+                    .description("Decrypts that did not end in authenticated text")
+                    .register(registry));
+        }
+        payloadSize = DistributionSummary.builder("stego.payload.size")
+                .baseUnit("bytes")
+                .description("Encrypted payload embedded or extracted")
+                .publishPercentileHistogram()
+                .register(registry);
+        carrierSize = DistributionSummary.builder("stego.carrier.size")
+                .baseUnit("bytes")
+                .description("Size of the GIF carrying a payload")
+                .publishPercentileHistogram()
+                .register(registry);
+        capacityUsed = DistributionSummary.builder("stego.capacity.used")
+                .baseUnit("percent")
+                .description("Share of the carrier's capacity taken by the payload")
+                .serviceLevelObjectives(10, 25, 50, 75, 90, 100)
+                .register(registry);
+    }
+
+    public <T, E extends Exception> T time(Phase phase, Step<T, E> step) throws E {
+        long start = System.nanoTime();
+        try {
+            return step.run();
+        } finally {
+            record(phase, start);
+        }
+    }
+
+    /** Records a phase that began at {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void record(Phase phase, long startNanos) {
+        phases.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records the sizes of an embed, once the payload is known to fit. */
+    public void embedded(int carrierBytes, int payloadBytes, int capacityBytes) {
+        carrierSize.record(carrierBytes);
+        payloadSize.record(payloadBytes);
+        if (capacityBytes > 0) {
+            capacityUsed.record(100.0 * payloadBytes / capacityBytes);
+        }
+    }
+
+    /**
+     * Records the payload of a decrypt. The carrier is often read only up to
+     * the end of the payload, so its size is not known here.
+     */
+    public void extracted(int payloadBytes) {
+        payloadSize.record(payloadBytes);
+    }
+
+    public void decryptFailed(DecryptFailure failure) {
+        failures.get(failure).increment();
+    }
+
+    @FunctionalInterface
+    public interface Step<T, E extends Exception> {
+        T run() throws E;
+    }
+}
@@ -13,18 +13,14 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.stream.Collectors;
-import java.util.UUID;
 
 @Service
 public class UserService {
     private final UserRepository userRepository;
-    private final Path avatarDir;
+    private final AvatarService avatarService;
     private final String defaultAvatarUrl;
     private final String avatarBaseUrl;
     private final PasswordEncoder passwordEncoder;
@@ -43,18 +39,17 @@ public class UserService {
     }
     
     public UserService(UserRepository userRepository,
-                       @Value("${app.avatars.dir}") String avatarDir,
+                       AvatarService avatarService,
                        @Value("${app.avatars.default}") String defaultAvatarPath,
-                       @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl, PasswordEncoder passwordEncoder) throws IOException {
+                       @Value("${app.avatars.base-url:/static/avatars/}") String avatarBaseUrl, PasswordEncoder passwordEncoder) {
         this.userRepository = userRepository;
-        this.avatarDir = Paths.get(avatarDir);
+        this.avatarService = avatarService;
         this.avatarBaseUrl = avatarBaseUrl.endsWith("/") ? avatarBaseUrl : avatarBaseUrl + "/";
         this.passwordEncoder = passwordEncoder;
         String fileName = Paths.get(defaultAvatarPath).getFileName().toString();
         this.defaultAvatarUrl = defaultAvatarPath.startsWith("/")
                 ? defaultAvatarPath
                 : this.avatarBaseUrl + fileName;
-        Files.createDirectories(this.avatarDir);
     }
 
     public List<UserDto> getAllUsers() {
@@ -130,9 +125,12 @@ public class UserService {
             throw new GeneralException(HttpStatus.BAD_REQUEST, "Avatar file is empty");
         }
 
-        user.setAvatarUrl(storeAvatar(avatarFile));
+        String previous = user.getAvatarUrl();
+        user.setAvatarUrl(avatarService.store(avatarFile));
 
-        return toDto(userRepository.save(user));
+        UserDto updated = toDto(userRepository.save(user));
+        avatarService.release(previous);
+        return updated;
     }
 
     public void deleteUser() {
@@ -147,6 +145,7 @@ public class UserService {
         dto.setEmail(user.getEmail());
         dto.setBio(user.getBio());
         dto.setAvatarUrl(user.getAvatarUrl());
+        dto.setAvatarVariants(avatarService.variants(user.getAvatarUrl()));
         dto.setLastSeenAt(user.getLastSeenAt());
         dto.setCreatedAt(user.getCreatedAt());
         return dto;
@@ -168,23 +167,4 @@ public class UserService {
     private boolean hasChanged(String current, String updated) {
         return updated != null && !updated.equals(current);
     }
-
-    private String storeAvatar(MultipartFile file) {
-        try {
-            String original = file.getOriginalFilename();
-            String ext = "";
-            if (original.lastIndexOf('.') != -1) {
-                ext = original.substring(original.lastIndexOf('.')).toLowerCase();
-            }
-            if (!(ext.equals(".png") || ext.equals(".jpg") || ext.equals(".jpeg") || ext.equals(".gif"))) {
-                throw new GeneralException(HttpStatus.BAD_REQUEST, "Only .png, .jpg, .jpeg, .gif images are allowed");
-            }
-            String filename = UUID.randomUUID() + ext;
-            Path target = avatarDir.resolve(filename);
-            Files.copy(file.getInputStream(), target);
-            return avatarBaseUrl + filename;
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to store avatar", e);
-        }
-    }
 }
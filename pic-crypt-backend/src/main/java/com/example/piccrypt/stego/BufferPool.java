@@ -0,0 +1,221 @@
+package com.example.piccrypt.stego;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Direct buffers for whole uploads, so a 25 MB image is not a humongous
+ * {@code byte[]} on the heap for every request.
+ *
+ * Slabs come in power-of-two size classes from {@code minSlabBytes} to
+ * {@code maxSlabBytes}. A closed slab goes back to its class and is handed
+ * out again; the direct memory held by all slabs, in use or free, stays
+ * within {@code maxPooledBytes}. When that is used up, free slabs of other
+ * classes are dropped to make room. If every byte is in use, or the size is
+ * above the largest class, the slab is a plain heap buffer that is not
+ * pooled, counted in {@link #overflows()}.
+ *
+ * Close every slab exactly once, when nothing reads its buffer any more.
+ */
+public final class BufferPool {
+    private final int minShift;
+    private final int maxShift;
+    private final long maxPooledBytes;
+
+    private final ArrayDeque<ByteBuffer>[] free;
+    private long pooledBytes;
+    private long freeBytes;
+
+    private final AtomicLong acquires = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(int minSlabBytes, int maxSlabBytes, long maxPooledBytes) {
+        if (minSlabBytes <= 0 || maxSlabBytes < minSlabBytes) {
+            throw new IllegalArgumentException("Slab sizes must be positive, min not above max");
+        }
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("maxPooledBytes must not be negative");
+        }
+        this.minShift = shiftFor(minSlabBytes);
+        this.maxShift = shiftFor(maxSlabBytes);
+        this.maxPooledBytes = maxPooledBytes;
+        this.free = new ArrayDeque[maxShift - minShift + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    /** A slab whose buffer has room for {@code size} bytes, positioned at 0 with the limit at {@code size}. */
+    public Slab acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        acquires.incrementAndGet();
+        int shift = Math.max(minShift, shiftFor(size));
+        ByteBuffer buffer = shift <= maxShift ? takeOrAllocate(shift) : null;
+        if (buffer == null) {
+            overflows.incrementAndGet();
+            return new Slab(ByteBuffer.allocate(size), -1);
+        }
+        buffer.clear().limit(size);
+        return new Slab(buffer, shift);
+    }
+
+    /**
+     * Reads {@code in} to the end into a slab, flipped for reading.
+     * {@code expectedSize} is a hint, such as a multipart file's size; a
+     * longer stream moves to a larger slab. A full slab is only grown once a
+     * one-byte read shows the stream goes on, so a stream that fills it
+     * exactly, as a heap overflow slab of the hinted size does, is not copied.
+     */
+    public Slab read(InputStream in, long expectedSize) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        Slab slab = acquire((int) Math.min(Math.max(expectedSize, 0), Integer.MAX_VALUE - 8));
+        try {
+            while (true) {
+                ByteBuffer buffer = slab.buffer;
+                buffer.limit(buffer.capacity());
+                if (!buffer.hasRemaining()) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    slab = grow(slab);
+                    slab.buffer.put((byte) next);
+                    continue;
+                }
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            slab.close();
+            throw e;
+        }
+        slab.buffer.flip();
+        return slab;
+    }
+
+    /**
+     * Bytes of the slab {@link #read} starts with for {@code expectedSize}:
+     * the size class, or the size itself for a heap overflow.
+     */
+    public long slabBytes(long expectedSize) {
+        int size = (int) Math.min(Math.max(expectedSize, 0), Integer.MAX_VALUE - 8);
+        int shift = Math.max(minShift, shiftFor(size));
+        return shift <= maxShift ? 1L << shift : size;
+    }
+
+    public long acquires() {
+        return acquires.get();
+    }
+
+    /** Slabs that had to be plain heap buffers. */
+    public long overflows() {
+        return overflows.get();
+    }
+
+    /** Direct memory held by the pool, in use or free. */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long freeBytes() {
+        return freeBytes;
+    }
+
+    public synchronized long inUseBytes() {
+        return pooledBytes - freeBytes;
+    }
+
+    private Slab grow(Slab slab) {
+        ByteBuffer old = slab.buffer;
+        int size = old.capacity() >= (1 << 30) ? Integer.MAX_VALUE - 8 : old.capacity() * 2;
+        if (size <= old.capacity()) {
+            throw new IllegalStateException("Upload does not fit in a buffer");
+        }
+        Slab larger = acquire(size);
+        larger.buffer.limit(larger.buffer.capacity());
+        old.flip();
+        larger.buffer.put(old);
+        slab.close();
+        return larger;
+    }
+
+    private synchronized ByteBuffer takeOrAllocate(int shift) {
+        ByteBuffer buffer = free[shift - minShift].poll();
+        if (buffer != null) {
+            freeBytes -= buffer.capacity();
+            return buffer;
+        }
+
+        long size = 1L << shift;
+        for (int i = 0; i < free.length && pooledBytes + size > maxPooledBytes; i++) {
+            while (!free[i].isEmpty() && pooledBytes + size > maxPooledBytes) {
+                long dropped = free[i].poll().capacity();
+                pooledBytes -= dropped;
+                freeBytes -= dropped;
+            }
+        }
+        if (pooledBytes + size > maxPooledBytes) {
+            return null;
+        }
+        pooledBytes += size;
+        return ByteBuffer.allocateDirect((int) size);
+    }
+
+    private synchronized void release(ByteBuffer buffer, int shift) {
+        free[shift - minShift].push(buffer);
+        freeBytes += buffer.capacity();
+    }
+
+    private static int shiftFor(int size) {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /** A buffer on loan from the pool; {@link #close()} gives it back. */
+    public final class Slab implements AutoCloseable {
+        private ByteBuffer buffer;
+        private final int shift;
+        private boolean closed;
+
+        private Slab(ByteBuffer buffer, int shift) {
+            this.buffer = buffer;
+            this.shift = shift;
+        }
+
+        public ByteBuffer buffer() {
+            if (closed) {
+                throw new IllegalStateException("Slab was returned to the pool");
+            }
+            return buffer;
+        }
+
+        /** True if the buffer is pooled direct memory rather than a heap overflow. */
+        public boolean isPooled() {
+            return shift >= 0;
+        }
+
+        @Override
+        public void close() {
+            ByteBuffer returned;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                returned = buffer;
+                buffer = null;
+            }
+            if (shift >= 0) {
+                release(returned, shift);
+            }
+        }
+    }
+}
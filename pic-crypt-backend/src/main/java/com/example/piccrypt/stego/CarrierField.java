@@ -0,0 +1,17 @@
+package com.example.piccrypt.stego;
+
+/**
+ * Payload bytes held in the low bits of the logical carrier. Segments are
+ * passed in carrier order with their logical {@code position}; a field
+ * picks out the bytes it owns.
+ */
+public interface CarrierField {
+
+    byte[] data();
+
+    boolean isComplete();
+
+    void embed(byte[] carrier, int offset, int length, long position);
+
+    void extract(byte[] carrier, int offset, int length, long position);
+}
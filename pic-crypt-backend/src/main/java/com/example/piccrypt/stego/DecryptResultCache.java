@@ -0,0 +1,193 @@
+package com.example.piccrypt.stego;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Decrypted text of stored images, so a GIF read again by every member of a
+ * group chat is decrypted once.
+ *
+ * Entries are keyed by the name of the stored file, which is the hash of its
+ * content, and an HMAC-SHA256 of the name and the password that opened it,
+ * never by the password itself. The HMAC key is drawn at random for each
+ * cache, so an entry cannot be looked up in a table of password hashes and
+ * one password gives different entries in different files and processes.
+ * A lookup needs neither the file nor the key derivation, so a hit costs
+ * one HMAC. Only a password that decrypted the file before matches an
+ * entry; any other one falls through to the full decrypt. Every entry is
+ * filed under its file too, so {@link #invalidate(String)} drops all
+ * results for that file at once.
+ *
+ * Like {@link DerivedKeyCache}: at most {@code maxEntries}, least recently
+ * used first out, and nothing older than the TTL. An entry may be given a
+ * shorter lifetime when it is put.
+ */
+public final class DecryptResultCache {
+    private static final String ID_ALGORITHM = "HmacSHA256";
+    private static final int ID_KEY_BYTES = 32;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final SecretKeySpec idKey;
+
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<ByteBuffer>> byMedia = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Entry(String media, String text, long expiresAt) {
+    }
+
+    public DecryptResultCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    DecryptResultCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+        byte[] key = new byte[ID_KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        this.idKey = new SecretKeySpec(key, ID_ALGORITHM);
+    }
+
+    /** The text {@code password} decrypted the stored file {@code media} to, or null. */
+    public String get(String media, String password) throws GeneralSecurityException {
+        ByteBuffer id = id(media, password);
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.incrementAndGet();
+                return entry.text;
+            }
+            if (entry != null) {
+                remove(id);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches {@code text} as what {@code password} decrypts the stored file
+     * {@code media} to. The entry lives for the TTL or {@code maxAge},
+     * whichever is shorter; a null {@code maxAge} means the TTL.
+     */
+    public void put(String media, String password, String text, Duration maxAge) throws GeneralSecurityException {
+        long lifetime = maxAge == null ? ttlNanos : Math.min(ttlNanos, maxAge.toNanos());
+        if (maxEntries == 0 || lifetime <= 0) {
+            return;
+        }
+        ByteBuffer id = id(media, password);
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            remove(id);
+            entries.put(id, new Entry(media, text, now + lifetime));
+            byMedia.computeIfAbsent(media, m -> new HashSet<>()).add(id);
+            trim(now);
+        }
+    }
+
+    /** Drops every result read from the stored file {@code media}. */
+    public void invalidate(String media) {
+        synchronized (entries) {
+            Set<ByteBuffer> ids = byMedia.remove(media);
+            if (ids != null) {
+                ids.forEach(entries::remove);
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Entries dropped because they expired or the cache was full. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            byMedia.clear();
+        }
+    }
+
+    private void remove(ByteBuffer id) {
+        Entry entry = entries.remove(id);
+        if (entry != null) {
+            unindex(entry.media, id);
+        }
+    }
+
+    private void unindex(String media, ByteBuffer id) {
+        Set<ByteBuffer> ids = byMedia.get(media);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            byMedia.remove(media);
+        }
+    }
+
+    private void trim(long now) {
+        Iterator<Map.Entry<ByteBuffer, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ByteBuffer, Entry> next = it.next();
+            Entry entry = next.getValue();
+            if (entries.size() > maxEntries || entry.expiresAt - now <= 0) {
+                it.remove();
+                unindex(entry.media, next.getKey());
+                evictions.incrementAndGet();
+            } else {
+                break;
+            }
+        }
+    }
+
+    // The name's length goes into the HMAC first, so no name and password
+    // pair runs into another.
+    private ByteBuffer id(String media, String password) throws GeneralSecurityException {
+        byte[] name = media.getBytes(StandardCharsets.UTF_8);
+        Mac mac = Mac.getInstance(ID_ALGORITHM);
+        mac.init(idKey);
+        mac.update(ByteBuffer.allocate(Integer.BYTES).putInt(name.length).flip());
+        mac.update(name);
+        byte[] tag = mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.allocate(name.length + tag.length)
+                .put(name)
+                .put(tag)
+                .flip();
+    }
+}
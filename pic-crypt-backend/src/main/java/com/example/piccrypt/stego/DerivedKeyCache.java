@@ -0,0 +1,127 @@
+package com.example.piccrypt.stego;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Keys derived by {@link StegoCrypto#deriveKey(String, byte[])}, kept for a
+ * while so the same GIF decrypted again (by every member of a chat, say) costs
+ * one KDF run instead of one per request.
+ *
+ * Entries are keyed by the salt, the iteration count and the SHA-256 of the
+ * password, so no password is held in memory. The cache keeps at most
+ * {@code maxEntries} keys, least recently used first out, and drops keys
+ * older than the TTL.
+ */
+public final class DerivedKeyCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private record Entry(byte[] key, long expiresAt) {
+    }
+
+    public DerivedKeyCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+
+    DerivedKeyCache(int maxEntries, Duration ttl, LongSupplier clock) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+    }
+
+    /**
+     * The derived key for the salt and password, from the cache if present.
+     * Two threads missing on the same key at once may both derive it.
+     */
+    public byte[] key(byte[] salt, String password) throws GeneralSecurityException {
+        return key(salt, StegoCrypto.KDF_ITERATIONS, password);
+    }
+
+    /** {@link #key(byte[], String)} for a payload written with another iteration count. */
+    public byte[] key(byte[] salt, int iterations, String password) throws GeneralSecurityException {
+        ByteBuffer id = id(salt, iterations, password);
+        long now = clock.getAsLong();
+
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.incrementAndGet();
+                return entry.key.clone();
+            }
+            if (entry != null) {
+                entries.remove(id);
+                evictions.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        byte[] key = StegoCrypto.deriveKey(password, salt, iterations);
+        if (maxEntries > 0) {
+            synchronized (entries) {
+                entries.put(id, new Entry(key.clone(), now + ttlNanos));
+                trim(now);
+            }
+        }
+        return key;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /** Entries dropped because they expired or the cache was full. */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private void trim(long now) {
+        Iterator<Map.Entry<ByteBuffer, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entries.size() > maxEntries || entry.expiresAt - now <= 0) {
+                it.remove();
+                evictions.incrementAndGet();
+            } else {
+                break;
+            }
+        }
+    }
+
+    private static ByteBuffer id(byte[] salt, int iterations, String password) throws GeneralSecurityException {
+        byte[] digest = StegoCrypto.sha256(password);
+        return ByteBuffer.allocate(salt.length + Integer.BYTES + digest.length).put(salt).putInt(iterations).put(digest).flip();
+    }
+}
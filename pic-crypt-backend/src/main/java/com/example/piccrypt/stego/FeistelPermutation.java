@@ -0,0 +1,96 @@
+package com.example.piccrypt.stego;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * A keyed permutation of {@code [0, size)} that is computed, not stored.
+ *
+ * A balanced Feistel network runs over the smallest power of four that holds
+ * {@code size}; outputs past the end are fed through the network again
+ * (cycle-walking) until one lands inside. The domain is less than four times
+ * {@code size}, so a lookup takes a few rounds on average, in either
+ * direction, and allocates nothing.
+ *
+ * The round function is a 64 bit mixer, not a cipher: the order is meant to
+ * spread a payload over the carrier, while secrecy comes from the encryption
+ * of the payload itself.
+ */
+public final class FeistelPermutation {
+    private static final int ROUNDS = 4;
+
+    private final long size;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    public FeistelPermutation(byte[] key, long size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Permutation size must be positive: " + size);
+        }
+        this.size = size;
+        int bits = 64 - Long.numberOfLeadingZeros(size - 1);
+        this.halfBits = Math.max(1, (bits + 1) / 2);
+        this.halfMask = (1L << halfBits) - 1;
+
+        ByteBuffer digest;
+        try {
+            digest = ByteBuffer.wrap(StegoCrypto.sha256(key));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            roundKeys[round] = digest.getLong();
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long permute(long index) {
+        checkIndex(index);
+        long value = index;
+        do {
+            long left = value >>> halfBits;
+            long right = value & halfMask;
+            for (int round = 0; round < ROUNDS; round++) {
+                long next = left ^ round(round, right);
+                left = right;
+                right = next;
+            }
+            value = left << halfBits | right;
+        } while (value >= size);
+        return value;
+    }
+
+    public long inverse(long value) {
+        checkIndex(value);
+        long index = value;
+        do {
+            long left = index >>> halfBits;
+            long right = index & halfMask;
+            for (int round = ROUNDS - 1; round >= 0; round--) {
+                long previous = right ^ round(round, left);
+                right = left;
+                left = previous;
+            }
+            index = left << halfBits | right;
+        } while (index >= size);
+        return index;
+    }
+
+    private long round(int round, long half) {
+        // Stafford's variant 13 of the MurmurHash3 finalizer.
+        long x = half ^ roundKeys[round];
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return (x ^ (x >>> 31)) & halfMask;
+    }
+
+    private void checkIndex(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of [0, " + size + ")");
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.piccrypt.stego;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the blocks of a GIF89a file held in a {@link ByteBuffer}, usually a
+ * memory-mapped file. Only absolute reads are used, so nothing is copied out
+ * of the buffer unless the caller asks for image data.
+ */
+public final class GifBlockIterator {
+    public static final int LOGICAL_SCREEN_END = 13;
+
+    private static final int EXTENSION = 0x21;
+    private static final int IMAGE_DESCRIPTOR = 0x2C;
+    private static final int GRAPHIC_CONTROL = 0xF9;
+    private static final int MAX_SUB_BLOCK = 255;
+
+    public enum BlockType {
+        EXTENSION,
+        IMAGE
+    }
+
+    private final ByteBuffer gif;
+    private final int limit;
+    private final int gctBits;
+    private int pos;
+
+    private BlockType type;
+    private int start;
+    private boolean dataPending;
+
+    private int label;
+    private boolean transparent;
+
+    private int width;
+    private int height;
+    private int lctBits;
+    private int dataStart;
+    private int minCodeSize;
+
+    private final byte[] subBlock = new byte[MAX_SUB_BLOCK];
+
+    public GifBlockIterator(ByteBuffer gif) {
+        if (!isGif89a(gif) || gif.limit() < LOGICAL_SCREEN_END) {
+            throw new IllegalArgumentException("Invalid GIF format. Expected GIF89a.");
+        }
+        this.gif = gif;
+        this.limit = gif.limit();
+        int packed = gif.get(10) & 0xFF;
+        this.gctBits = (packed & 0x80) != 0 ? (packed & 0x07) + 1 : 0;
+        this.pos = Math.min(limit, LOGICAL_SCREEN_END + colorTableBytes(gctBits));
+    }
+
+    public static boolean isGif89a(ByteBuffer gif) {
+        return gif.limit() >= 6 && gif.get(0) == 'G' && gif.get(1) == 'I' && gif.get(2) == 'F'
+                && gif.get(3) == '8' && gif.get(4) == '9' && gif.get(5) == 'a';
+    }
+
+    public static int colorTableBytes(int bits) {
+        return bits > 0 ? 3 << bits : 0;
+    }
+
+    public int screenWidth() {
+        return u16(6);
+    }
+
+    public int screenHeight() {
+        return u16(8);
+    }
+
+    /** Size of the global color table as a power of two, 0 when there is none. */
+    public int globalColorTableBits() {
+        return gctBits;
+    }
+
+    public int globalColorTableEnd() {
+        return Math.min(limit, LOGICAL_SCREEN_END + colorTableBytes(gctBits));
+    }
+
+    /**
+     * Moves to the next extension or image block. Returns false at the
+     * trailer, at the end of the data or at anything that is not a block.
+     */
+    public boolean next() {
+        if (dataPending) {
+            skipSubBlocks();
+        }
+        type = null;
+
+        if (pos >= limit) {
+            return false;
+        }
+        int introducer = gif.get(pos) & 0xFF;
+        start = pos;
+        if (introducer == EXTENSION) {
+            return readExtension();
+        }
+        if (introducer == IMAGE_DESCRIPTOR) {
+            return readImageDescriptor();
+        }
+        return false;
+    }
+
+    public BlockType type() {
+        return type;
+    }
+
+    /** File offset of the first byte of the current block. */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * File offset just past everything consumed so far. After an image's data
+     * has been read this is the end of that image block.
+     */
+    public int position() {
+        return pos;
+    }
+
+    public int label() {
+        return label;
+    }
+
+    /** Whether the current graphic control extension sets a transparent color. */
+    public boolean hasTransparency() {
+        return transparent;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int localColorTableBits() {
+        return lctBits;
+    }
+
+    /** File offset of the LZW minimum code size byte of the current image. */
+    public int dataStart() {
+        return dataStart;
+    }
+
+    public int minCodeSize() {
+        return minCodeSize;
+    }
+
+    /** Feeds the image data sub-blocks of the current image to the decoder. */
+    public void readImageData(LzwDecoder decoder) {
+        while (pos < limit) {
+            int size = gif.get(pos++) & 0xFF;
+            if (size == 0) {
+                break;
+            }
+            size = Math.min(size, limit - pos);
+            if (!decoder.isFinished()) {
+                gif.get(pos, subBlock, 0, size);
+                decoder.feed(subBlock, 0, size);
+            }
+            pos += size;
+        }
+        dataPending = false;
+    }
+
+    private boolean readExtension() {
+        if (pos + 1 >= limit) {
+            pos = limit;
+            return false;
+        }
+        type = BlockType.EXTENSION;
+        label = gif.get(pos + 1) & 0xFF;
+        pos += 2;
+        transparent = label == GRAPHIC_CONTROL && pos + 1 < limit && (gif.get(pos + 1) & 0x01) != 0;
+        skipSubBlocks();
+        return true;
+    }
+
+    private boolean readImageDescriptor() {
+        if (pos + 10 > limit) {
+            pos = limit;
+            return false;
+        }
+        width = u16(pos + 5);
+        height = u16(pos + 7);
+        int packed = gif.get(pos + 9) & 0xFF;
+        lctBits = (packed & 0x80) != 0 ? (packed & 0x07) + 1 : 0;
+        pos += 10 + colorTableBytes(lctBits);
+        if (pos >= limit) {
+            pos = limit;
+            return false;
+        }
+
+        type = BlockType.IMAGE;
+        dataStart = pos;
+        minCodeSize = gif.get(pos++) & 0xFF;
+        dataPending = true;
+        return true;
+    }
+
+    private void skipSubBlocks() {
+        while (pos < limit) {
+            int size = gif.get(pos++) & 0xFF;
+            if (size == 0) {
+                break;
+            }
+            pos += size;
+        }
+        pos = Math.min(pos, limit);
+        dataPending = false;
+    }
+
+    private int u16(int index) {
+        return (gif.get(index) & 0xFF) | ((gif.get(index + 1) & 0xFF) << 8);
+    }
+}
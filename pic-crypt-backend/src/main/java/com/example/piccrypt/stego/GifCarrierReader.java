@@ -0,0 +1,166 @@
+package com.example.piccrypt.stego;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Walks a GIF89a file as one logical carrier: the global color table first,
+ * then the decoded color indices of every frame that can take LSB changes.
+ * Each call to {@link #next()} moves to the next carrier segment.
+ *
+ * A frame is usable when its color table and LZW code size are at least
+ * {@link LsbField#LSB_BITS} bits wide (so flipped indices stay in range) and
+ * it has no transparent color (so no hidden pixel becomes visible).
+ *
+ * Changing the low bits of an index moves its pixel to another entry of the
+ * same run of eight, which only goes unseen when those entries are close in
+ * color. Converted GIFs are quantized that way, and uploaded ones are
+ * renumbered by {@link PaletteRegrouper} before anything is embedded.
+ */
+public class GifCarrierReader {
+    public static final int LOGICAL_SCREEN_END = GifBlockIterator.LOGICAL_SCREEN_END;
+    public static final int MAX_FRAME_PIXELS = 1 << 25;
+
+    private static final int GRAPHIC_CONTROL = 0xF9;
+
+    protected final ByteBuffer gif;
+    protected final GifBlockIterator blocks;
+
+    private final boolean decode;
+    private boolean started;
+    private boolean transparentPending;
+
+    private byte[] carrier;
+    private int offset;
+    private int length;
+    private long position;
+    private long nextPosition;
+
+    protected boolean inFrame;
+    protected int rawEnd;
+    protected int minCodeSize;
+    private byte[] pixels = new byte[0];
+
+    public GifCarrierReader(ByteBuffer gif) {
+        this(gif, true);
+    }
+
+    private GifCarrierReader(ByteBuffer gif, boolean decode) {
+        this.gif = gif;
+        this.blocks = new GifBlockIterator(gif);
+        this.decode = decode;
+    }
+
+    public static boolean isGif89a(ByteBuffer gif) {
+        return GifBlockIterator.isGif89a(gif) && gif.limit() >= LOGICAL_SCREEN_END;
+    }
+
+    /** Total number of carrier bytes, found from the block headers alone. */
+    public static long carrierBytes(ByteBuffer gif) {
+        GifCarrierReader scan = new GifCarrierReader(gif, false);
+        long total = 0;
+        while (scan.next()) {
+            total += scan.length();
+        }
+        return total;
+    }
+
+    public byte[] carrier() {
+        return carrier;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Whether the current segment runs up to the end of the buffer. When the
+     * buffer holds only the start of a file, such a segment may be cut short.
+     */
+    public boolean atLimit() {
+        return (inFrame ? blocks.position() : rawEnd) >= gif.limit();
+    }
+
+    /** Logical carrier position of the first byte of the current segment. */
+    public long position() {
+        return position;
+    }
+
+    public boolean next() {
+        leave();
+        carrier = null;
+        length = 0;
+        inFrame = false;
+
+        if (!started) {
+            started = true;
+            int paletteEnd = blocks.globalColorTableEnd();
+            if (paletteEnd > LOGICAL_SCREEN_END) {
+                rawEnd = paletteEnd;
+                byte[] palette = new byte[paletteEnd - LOGICAL_SCREEN_END];
+                gif.get(LOGICAL_SCREEN_END, palette);
+                return segment(palette, 0, palette.length);
+            }
+        }
+
+        while (blocks.next()) {
+            if (blocks.type() == GifBlockIterator.BlockType.EXTENSION) {
+                if (blocks.label() == GRAPHIC_CONTROL) {
+                    transparentPending = blocks.hasTransparency();
+                }
+            } else if (readImage()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Called before moving past the current segment. */
+    protected void leave() {
+    }
+
+    private boolean segment(byte[] carrier, int offset, int length) {
+        this.carrier = carrier;
+        this.offset = offset;
+        this.length = length;
+        this.position = nextPosition;
+        this.nextPosition += length;
+        return true;
+    }
+
+    private boolean readImage() {
+        int lctBits = blocks.localColorTableBits();
+        int tableBits = lctBits > 0 ? lctBits : blocks.globalColorTableBits();
+        int codeSize = blocks.minCodeSize();
+        long pixelCount = (long) blocks.width() * blocks.height();
+        boolean usable = !transparentPending
+                && tableBits >= LsbField.LSB_BITS
+                && codeSize >= LsbField.LSB_BITS && codeSize <= 8
+                && pixelCount > 0 && pixelCount <= MAX_FRAME_PIXELS;
+        transparentPending = false;
+
+        if (!usable) {
+            return false;
+        }
+
+        inFrame = true;
+        rawEnd = blocks.dataStart();
+        minCodeSize = codeSize;
+        int count = (int) pixelCount;
+        if (!decode) {
+            return segment(null, 0, count);
+        }
+
+        if (pixels.length < count) {
+            pixels = new byte[count];
+        }
+        LzwDecoder decoder = new LzwDecoder(codeSize, pixels, count);
+        blocks.readImageData(decoder);
+        Arrays.fill(pixels, decoder.decoded(), count, (byte) 0);
+        return segment(pixels, 0, count);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.piccrypt.stego;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Carrier walk that writes the GIF back out as it goes. Every segment visited
+ * through {@link #next()} is written from the (modified) carrier: the global
+ * color table as is, frames LZW-encoded again from their indices. Everything
+ * between and after them is copied straight from the source buffer.
+ *
+ * {@link #finishPrefix()} stops after the last segment visited, so a caller
+ * that stopped early can send the untouched rest of the file itself.
+ */
+public class GifCarrierWriter extends GifCarrierReader {
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private int written;
+
+    public GifCarrierWriter(ByteBuffer gif, OutputStream out) {
+        super(gif);
+        this.out = out;
+        this.channel = Channels.newChannel(out);
+    }
+
+    public void finish() throws IOException {
+        copyTo(finishPrefix(), gif.limit());
+    }
+
+    /**
+     * Writes out the current segment and returns the offset in the source
+     * where the bytes that were not written, and are unchanged, begin.
+     */
+    public int finishPrefix() throws IOException {
+        try {
+            leave();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return written;
+    }
+
+    @Override
+    protected void leave() {
+        if (carrier() == null) {
+            return;
+        }
+        try {
+            if (inFrame) {
+                copyTo(rawEnd);
+                LzwEncoder encoder = new LzwEncoder(minCodeSize, out);
+                encoder.encode(carrier(), offset(), length());
+                encoder.finish();
+                written = blocks.position();
+            } else {
+                copyTo(LOGICAL_SCREEN_END);
+                out.write(carrier(), offset(), length());
+                written = rawEnd;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void copyTo(int end) throws IOException {
+        copyTo(written, end);
+    }
+
+    private void copyTo(int start, int end) throws IOException {
+        if (end <= start) {
+            return;
+        }
+        if (gif.hasArray()) {
+            out.write(gif.array(), gif.arrayOffset() + start, end - start);
+        } else {
+            ByteBuffer range = gif.duplicate().limit(end).position(start);
+            while (range.hasRemaining()) {
+                channel.write(range);
+            }
+        }
+        written = end;
+    }
+}
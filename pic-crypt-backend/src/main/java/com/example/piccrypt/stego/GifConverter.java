@@ -0,0 +1,313 @@
+package com.example.piccrypt.stego;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Turns PNG and JPEG uploads into single-frame GIF89a carriers.
+ *
+ * The image is decoded once, flattened onto white (a transparent color
+ * would make the frame unusable as a carrier) and reduced to a full 256
+ * color palette by {@link PaletteQuantizer}. The result has a 256 entry
+ * global color table and 8 bit LZW codes, so every pixel and every palette
+ * byte carries payload. Pixel extraction and quantization run on the
+ * converter's fork/join pool; the LZW pass is sequential.
+ *
+ * A GIF89a upload is not converted, but its color tables may be renumbered
+ * by {@link #regroup}, so that embedding into its frames does not show.
+ *
+ * A conversion holds the decoded image, an RGB copy and the palette indices
+ * on the heap, about 9 bytes per pixel, so images are limited to
+ * {@link #MAX_PIXELS} and at most {@code maxConversions} run at once; past
+ * that {@link #toGif} is rejected. The GIF itself goes into a
+ * {@link BufferPool} slab.
+ */
+public class GifConverter implements AutoCloseable {
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final byte[] JPEG_SIGNATURE = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final int MAX_SIDE = 0xFFFF;
+    private static final int MIN_BAND_ROWS = 16;
+
+    /** Largest image converted, a little over 3840x2160. */
+    public static final int MAX_PIXELS = 1 << 23;
+
+    private final ForkJoinPool pool;
+    private final BufferPool buffers;
+    private final Semaphore conversions;
+
+    public GifConverter(int parallelism, int maxConversions, BufferPool buffers) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.buffers = buffers;
+        this.conversions = new Semaphore(maxConversions);
+    }
+
+    public static boolean isConvertible(ByteBuffer image) {
+        return startsWith(image, PNG_SIGNATURE) || startsWith(image, JPEG_SIGNATURE);
+    }
+
+    /**
+     * Carrier bytes of the GIF that {@link #toGif} would make, read from the
+     * image header without decoding the pixels.
+     */
+    public static long carrierBytes(ByteBuffer image) throws IOException {
+        return withReader(image, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            checkSize(width, height);
+            return PaletteQuantizer.COLORS * 3L + (long) width * height;
+        });
+    }
+
+    /**
+     * Decodes a PNG or JPEG and writes it as a GIF89a into a slab, flipped
+     * for reading; close it once the GIF is no longer read. Throws
+     * {@link RejectedExecutionException} if {@code maxConversions} are
+     * already running.
+     */
+    public BufferPool.Slab toGif(ByteBuffer image) throws IOException {
+        if (!conversions.tryAcquire()) {
+            throw new RejectedExecutionException("Too many images are being converted");
+        }
+        try {
+            return convert(image);
+        } finally {
+            conversions.release();
+        }
+    }
+
+    /**
+     * Writes a GIF89a upload with its color tables renumbered by
+     * {@link PaletteRegrouper} into a slab, flipped for reading, or returns
+     * null when no table needs it. Holds a permit like {@link #toGif}.
+     */
+    public BufferPool.Slab regroup(ByteBuffer gif) throws IOException {
+        PaletteRegrouper regrouper = new PaletteRegrouper(gif);
+        if (!regrouper.changesAnything()) {
+            return null;
+        }
+        if (regrouper.pixels() > PaletteRegrouper.MAX_PIXELS) {
+            throw new IllegalArgumentException("GIF is too large to regroup: " + regrouper.pixels()
+                    + " pixels in its frames, at most " + PaletteRegrouper.MAX_PIXELS);
+        }
+        if (!conversions.tryAcquire()) {
+            throw new RejectedExecutionException("Too many images are being converted");
+        }
+        try {
+            BufferPool.Slab slab = buffers.acquire((int) regrouper.maxBytes());
+            try {
+                regrouper.write(new SlabOutput(slab.buffer()));
+                slab.buffer().flip();
+                return slab;
+            } catch (IOException | RuntimeException e) {
+                slab.close();
+                throw e;
+            }
+        } finally {
+            conversions.release();
+        }
+    }
+
+    private BufferPool.Slab convert(ByteBuffer image) throws IOException {
+        BufferedImage decoded = withReader(image, reader -> {
+            checkSize(reader.getWidth(0), reader.getHeight(0));
+            return reader.read(0);
+        });
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+
+        int[] rgb = new int[width * height];
+        int band = Math.max(MIN_BAND_ROWS, height / (pool.getParallelism() * 4));
+        pool.invoke(new PixelTask(decoded, rgb, 0, height, band));
+        PaletteQuantizer.Result quantized = PaletteQuantizer.quantize(rgb, pool);
+
+        BufferPool.Slab slab = buffers.acquire(maxGifBytes(rgb.length));
+        try {
+            SlabOutput out = new SlabOutput(slab.buffer());
+            writeGif(out, width, height, quantized);
+            slab.buffer().flip();
+            return slab;
+        } catch (IOException | RuntimeException e) {
+            slab.close();
+            throw e;
+        }
+    }
+
+    private static void writeGif(SlabOutput out, int width, int height, PaletteQuantizer.Result quantized) throws IOException {
+        out.write(new byte[] {'G', 'I', 'F', '8', '9', 'a'});
+        out.writeShort(width);
+        out.writeShort(height);
+        // Global color table of 2^8 entries, 8 bits per channel.
+        out.write(0xF7);
+        out.write(0);
+        out.write(0);
+        out.write(quantized.palette());
+        out.write(0x2C);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(width);
+        out.writeShort(height);
+        out.write(0);
+        LzwEncoder encoder = new LzwEncoder(PaletteQuantizer.PALETTE_BITS, out);
+        encoder.encode(quantized.indices(), 0, quantized.indices().length);
+        encoder.finish();
+        out.write(0x3B);
+    }
+
+    /** An upper bound on the GIF {@link #writeGif} makes. */
+    private static int maxGifBytes(int pixels) {
+        return (int) (13 + PaletteQuantizer.COLORS * 3L + 10 + LzwEncoder.maxEncodedBytes(pixels) + 1 + 64);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0 || width > MAX_SIDE || height > MAX_SIDE
+                || (long) width * height > MAX_PIXELS) {
+            throw new IllegalArgumentException("Image is too large to convert: " + width + "x" + height);
+        }
+    }
+
+    private static boolean startsWith(ByteBuffer image, byte[] signature) {
+        if (image.limit() < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (image.get(i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private interface ReaderStep<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    private static <T> T withReader(ByteBuffer image, ReaderStep<T> step) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new BufferInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported image format. Expected GIF89a, PNG or JPEG.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return step.run(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /** Copies rows {@code [from, to)} as opaque RGB, blending any alpha onto white. */
+    private static final class PixelTask extends RecursiveAction {
+        private final BufferedImage image;
+        private final int[] rgb;
+        private final int from;
+        private final int to;
+        private final int band;
+
+        private PixelTask(BufferedImage image, int[] rgb, int from, int to, int band) {
+            this.image = image;
+            this.rgb = rgb;
+            this.from = from;
+            this.to = to;
+            this.band = band;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > band) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new PixelTask(image, rgb, from, middle, band), new PixelTask(image, rgb, middle, to, band));
+                return;
+            }
+            int width = image.getWidth();
+            image.getRGB(0, from, width, to - from, rgb, from * width, width);
+            if (!image.getColorModel().hasAlpha()) {
+                return;
+            }
+            for (int i = from * width; i < to * width; i++) {
+                int pixel = rgb[i];
+                int alpha = pixel >>> 24;
+                if (alpha != 0xFF) {
+                    rgb[i] = onWhite(pixel >>> 16, alpha) << 16 | onWhite(pixel >>> 8, alpha) << 8 | onWhite(pixel, alpha);
+                }
+            }
+        }
+
+        private static int onWhite(int channel, int alpha) {
+            return ((channel & 0xFF) * alpha + 0xFF * (0xFF - alpha)) / 0xFF;
+        }
+    }
+
+    /** Reads a buffer from its start to its limit without moving its position. */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate().position(0);
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /** Writes into a slab sized by {@link #maxGifBytes} or {@link PaletteRegrouper#maxBytes}. */
+    private static final class SlabOutput extends OutputStream {
+        private final ByteBuffer buffer;
+
+        private SlabOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            buffer.put(bytes, off, len);
+        }
+
+        private void writeShort(int value) {
+            write(value & 0xFF);
+            write((value >>> 8) & 0xFF);
+        }
+    }
+}
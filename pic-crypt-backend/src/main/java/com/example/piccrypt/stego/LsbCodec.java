@@ -0,0 +1,141 @@
+package com.example.piccrypt.stego;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Moves payload bits in and out of carrier low bits, {@link LsbField#LSB_BITS}
+ * per carrier byte, most significant bit first. With 3 bits per carrier byte
+ * every 3 payload bytes fill exactly 8 carrier bytes, so the aligned middle of
+ * a range is handled one 24-bit group at a time, read and written as a single
+ * 64-bit word without per-byte checks. Only the unaligned head and the tail go
+ * bit by bit.
+ */
+public final class LsbCodec {
+    public static final int GROUP_PAYLOAD_BYTES = 3;
+    public static final int GROUP_CARRIER_BYTES = 8;
+    private static final int GROUP_BITS = GROUP_PAYLOAD_BYTES * 8;
+
+    private static final int MASK = LsbField.LSB_MASK;
+    private static final int CLEAR = LsbField.CLEAR_LSB_MASK;
+    private static final long LSB_WORD = 0x0707070707070707L;
+    private static final long CLEAR_WORD = 0xF8F8F8F8F8F8F8F8L;
+
+    // A group's 8 carrier bytes are read and written as one little-endian long.
+    private static final VarHandle WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // 12 payload bits spread over 4 bytes, 3 bits in the low end of each.
+    private static final int[] SPREAD = new int[1 << 12];
+
+    static {
+        for (int bits = 0; bits < SPREAD.length; bits++) {
+            int spread = 0;
+            for (int k = 0; k < 4; k++) {
+                spread |= ((bits >>> (9 - 3 * k)) & MASK) << (8 * k);
+            }
+            SPREAD[bits] = spread;
+        }
+    }
+
+    private LsbCodec() {
+    }
+
+    /**
+     * Writes {@code count} carrier bytes starting at {@code carrier[offset]},
+     * taking payload bits from bit {@code bit} of {@code data} onward. Bits past
+     * the end of {@code data} are written as zero.
+     */
+    public static void embed(byte[] data, long bit, byte[] carrier, int offset, int count) {
+        int c = offset;
+        int end = offset + count;
+
+        while (c < end && bit % GROUP_BITS != 0) {
+            carrier[c] = (byte) ((carrier[c] & CLEAR) | bitsAt(data, bit));
+            bit += LsbField.LSB_BITS;
+            c++;
+        }
+
+        int i = (int) (bit >>> 3);
+        int groups = Math.min((end - c) / GROUP_CARRIER_BYTES, Math.max(0, (data.length - i) / GROUP_PAYLOAD_BYTES));
+        for (int g = 0; g < groups; g++) {
+            int w = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+            long bits = (SPREAD[w >>> 12] & 0xFFFFFFFFL) | ((long) SPREAD[w & 0xFFF] << 32);
+            long word = (long) WORD.get(carrier, c);
+            WORD.set(carrier, c, (word & CLEAR_WORD) | bits);
+            i += GROUP_PAYLOAD_BYTES;
+            c += GROUP_CARRIER_BYTES;
+        }
+        bit += (long) groups * GROUP_BITS;
+
+        while (c < end) {
+            carrier[c] = (byte) ((carrier[c] & CLEAR) | bitsAt(data, bit));
+            bit += LsbField.LSB_BITS;
+            c++;
+        }
+    }
+
+    /**
+     * Reads {@code count} carrier bytes starting at {@code carrier[offset]}
+     * into {@code data} from bit {@code bit} onward. Bits are OR-ed in, so
+     * {@code data} must start zeroed; bits past its end are dropped.
+     */
+    public static void extract(byte[] carrier, int offset, int count, byte[] data, long bit) {
+        int c = offset;
+        int end = offset + count;
+
+        while (c < end && bit % GROUP_BITS != 0) {
+            putBits(data, bit, carrier[c] & MASK);
+            bit += LsbField.LSB_BITS;
+            c++;
+        }
+
+        int i = (int) (bit >>> 3);
+        int groups = Math.min((end - c) / GROUP_CARRIER_BYTES, Math.max(0, (data.length - i) / GROUP_PAYLOAD_BYTES));
+        for (int g = 0; g < groups; g++) {
+            // Pack the 3-bit fields pairwise: 8 x 3 bits -> 4 x 6 -> 2 x 12 -> 24.
+            long word = (long) WORD.get(carrier, c) & LSB_WORD;
+            long pairs = ((word << 3) & 0x0038003800380038L) | ((word >>> 8) & 0x0007000700070007L);
+            long quads = ((pairs << 6) & 0x00000FC000000FC0L) | ((pairs >>> 16) & 0x0000003F0000003FL);
+            int w = (int) (((quads & 0xFFF) << 12) | ((quads >>> 32) & 0xFFF));
+            data[i] = (byte) (w >>> 16);
+            data[i + 1] = (byte) (w >>> 8);
+            data[i + 2] = (byte) w;
+            i += GROUP_PAYLOAD_BYTES;
+            c += GROUP_CARRIER_BYTES;
+        }
+        bit += (long) groups * GROUP_BITS;
+
+        while (c < end) {
+            putBits(data, bit, carrier[c] & MASK);
+            bit += LsbField.LSB_BITS;
+            c++;
+        }
+    }
+
+    private static int bitsAt(byte[] data, long bit) {
+        int index = (int) (bit >>> 3);
+        if (index >= data.length) {
+            return 0;
+        }
+        int shift = (int) (bit & 7);
+        int window = (data[index] & 0xFF) << 8;
+        if (index + 1 < data.length) {
+            window |= data[index + 1] & 0xFF;
+        }
+        return (window >>> (16 - LsbField.LSB_BITS - shift)) & MASK;
+    }
+
+    private static void putBits(byte[] data, long bit, int bits) {
+        int index = (int) (bit >>> 3);
+        if (index >= data.length) {
+            return;
+        }
+        int shift = (int) (bit & 7);
+        int window = bits << (16 - LsbField.LSB_BITS - shift);
+        data[index] |= (byte) (window >>> 8);
+        if (index + 1 < data.length) {
+            data[index + 1] |= (byte) window;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.piccrypt.stego;
+
+/**
+ * A run of payload bytes stored in the low bits of consecutive carrier bytes,
+ * most significant bit first. The last carrier byte is zero padded.
+ * Positions are logical carrier offsets, so a field may span several segments
+ * (the global color table and any number of frames).
+ */
+public final class LsbField implements CarrierField {
+    public static final int LSB_BITS = 3;
+    public static final int LSB_MASK = 0x07;
+    public static final int CLEAR_LSB_MASK = 0xF8;
+
+    private final byte[] data;
+    private final long start;
+    private final long end;
+    private long reached;
+
+    public LsbField(byte[] data, long start) {
+        this.data = data;
+        this.start = start;
+        this.end = start + carrierBytes(data.length);
+        this.reached = start;
+    }
+
+    public LsbField(int length, long start) {
+        this(new byte[length], start);
+    }
+
+    public static long carrierBytes(long dataBytes) {
+        return (dataBytes * 8 + LSB_BITS - 1) / LSB_BITS;
+    }
+
+    @Override
+    public byte[] data() {
+        return data;
+    }
+
+    public long start() {
+        return start;
+    }
+
+    public long end() {
+        return end;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return reached >= end;
+    }
+
+    @Override
+    public void embed(byte[] carrier, int offset, int length, long position) {
+        long from = Math.max(start, position);
+        long to = Math.min(end, position + length);
+        if (from >= to) {
+            return;
+        }
+
+        LsbCodec.embed(data, (from - start) * LSB_BITS, carrier, offset + (int) (from - position), (int) (to - from));
+        reached = Math.max(reached, to);
+    }
+
+    @Override
+    public void extract(byte[] carrier, int offset, int length, long position) {
+        long from = Math.max(start, position);
+        long to = Math.min(end, position + length);
+        if (from >= to) {
+            return;
+        }
+
+        LsbCodec.extract(carrier, offset + (int) (from - position), (int) (to - from), data, (from - start) * LSB_BITS);
+        reached = Math.max(reached, to);
+    }
+}
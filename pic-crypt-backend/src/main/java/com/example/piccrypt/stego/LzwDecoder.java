@@ -0,0 +1,134 @@
+package com.example.piccrypt.stego;
+
+/**
+ * Streaming GIF LZW decoder. Data sub-block bytes are fed in as they are read
+ * and decoded color indices are written straight into the frame buffer.
+ */
+public final class LzwDecoder {
+    private static final int MAX_CODES = 4096;
+
+    private final int clearCode;
+    private final int endCode;
+    private final int initialCodeSize;
+
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] stack = new byte[MAX_CODES + 1];
+
+    private final byte[] out;
+    private final int limit;
+    private int outPos;
+
+    private int codeSize;
+    private int nextCode;
+    private int oldCode = -1;
+    private byte firstChar;
+    private int bitBuffer;
+    private int bitCount;
+    private boolean ended;
+
+    public LzwDecoder(int minCodeSize, byte[] out, int limit) {
+        if (minCodeSize < 2 || minCodeSize > 8) {
+            throw new IllegalArgumentException("Invalid LZW minimum code size: " + minCodeSize);
+        }
+        this.clearCode = 1 << minCodeSize;
+        this.endCode = clearCode + 1;
+        this.initialCodeSize = minCodeSize + 1;
+        this.out = out;
+        this.limit = Math.min(limit, out.length);
+        for (int i = 0; i < clearCode; i++) {
+            suffix[i] = (byte) i;
+        }
+        reset();
+    }
+
+    public void feed(byte[] data, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end && !ended; i++) {
+            bitBuffer |= (data[i] & 0xFF) << bitCount;
+            bitCount += 8;
+            while (bitCount >= codeSize && !ended) {
+                int code = bitBuffer & ((1 << codeSize) - 1);
+                bitBuffer >>>= codeSize;
+                bitCount -= codeSize;
+                handle(code);
+            }
+        }
+    }
+
+    /** Number of indices decoded so far. */
+    public int decoded() {
+        return outPos;
+    }
+
+    public boolean isFinished() {
+        return ended || outPos >= limit;
+    }
+
+    private void reset() {
+        codeSize = initialCodeSize;
+        nextCode = endCode + 1;
+        oldCode = -1;
+    }
+
+    private void handle(int code) {
+        if (code == clearCode) {
+            reset();
+            return;
+        }
+        if (code == endCode) {
+            ended = true;
+            return;
+        }
+
+        if (oldCode == -1) {
+            if (code > endCode) {
+                ended = true;
+                return;
+            }
+            emit((byte) code);
+            oldCode = code;
+            firstChar = (byte) code;
+            return;
+        }
+
+        int inCode = code;
+        int top = 0;
+        if (code >= nextCode) {
+            if (code > nextCode) {
+                ended = true;
+                return;
+            }
+            stack[top++] = firstChar;
+            code = oldCode;
+        }
+        while (code > endCode) {
+            stack[top++] = suffix[code];
+            code = prefix[code];
+        }
+        firstChar = suffix[code];
+        stack[top++] = firstChar;
+
+        if (nextCode < MAX_CODES) {
+            prefix[nextCode] = (short) oldCode;
+            suffix[nextCode] = firstChar;
+            nextCode++;
+            if (nextCode == (1 << codeSize) && codeSize < 12) {
+                codeSize++;
+            }
+        }
+        oldCode = inCode;
+
+        while (top > 0) {
+            emit(stack[--top]);
+        }
+    }
+
+    private void emit(byte index) {
+        if (outPos < limit) {
+            out[outPos++] = index;
+        } else {
+            ended = true;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.piccrypt.stego;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming GIF LZW encoder. Writes the minimum code size byte, the image data
+ * sub-blocks and the block terminator to the given stream.
+ */
+public final class LzwEncoder {
+    private static final int MAX_CODES = 4096;
+    private static final int HASH_BITS = 13;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+    private static final int MAX_SUB_BLOCK = 255;
+
+    private final OutputStream out;
+    private final int clearCode;
+    private final int endCode;
+    private final int initialCodeSize;
+
+    private final int[] hashKeys = new int[HASH_SIZE];
+    private final short[] hashCodes = new short[HASH_SIZE];
+
+    private final byte[] block = new byte[MAX_SUB_BLOCK + 1];
+    private int blockLength;
+
+    private int codeSize;
+    private int nextCode;
+    private int prefix = -1;
+    private int bitBuffer;
+    private int bitCount;
+
+    public LzwEncoder(int minCodeSize, OutputStream out) throws IOException {
+        if (minCodeSize < 2 || minCodeSize > 8) {
+            throw new IllegalArgumentException("Invalid LZW minimum code size: " + minCodeSize);
+        }
+        this.out = out;
+        this.clearCode = 1 << minCodeSize;
+        this.endCode = clearCode + 1;
+        this.initialCodeSize = minCodeSize + 1;
+
+        out.write(minCodeSize);
+        resetTable();
+        writeBits(clearCode);
+    }
+
+    /**
+     * An upper bound on what encoding {@code count} indices writes, from the
+     * code size byte to the terminator: at most one code of at most 12 bits
+     * per index, a clear code per table fill, and a length byte per 255
+     * bytes of codes.
+     */
+    public static long maxEncodedBytes(long count) {
+        long codes = count + count / 1024 + 4;
+        long data = (codes * 12 + 7) / 8;
+        return data + (data + 254) / 255 + 2;
+    }
+
+    public void encode(byte[] indices, int off, int len) throws IOException {
+        int end = off + len;
+        int i = off;
+        if (prefix < 0 && i < end) {
+            prefix = indices[i++] & 0xFF;
+        }
+        for (; i < end; i++) {
+            int k = indices[i] & 0xFF;
+            int key = (prefix << 8) | k;
+            int slot = slot(key);
+            while (hashKeys[slot] != -1) {
+                if (hashKeys[slot] == key) {
+                    break;
+                }
+                slot = (slot + 1) & (HASH_SIZE - 1);
+            }
+            if (hashKeys[slot] == key) {
+                prefix = hashCodes[slot];
+                continue;
+            }
+
+            writeCode(prefix);
+            if (nextCode < MAX_CODES) {
+                hashKeys[slot] = key;
+                hashCodes[slot] = (short) nextCode++;
+            } else {
+                writeBits(clearCode);
+                resetTable();
+            }
+            prefix = k;
+        }
+    }
+
+    /** Flushes the last code, the end code and the block terminator. */
+    public void finish() throws IOException {
+        if (prefix >= 0) {
+            writeCode(prefix);
+        }
+        writeBits(endCode);
+        if (bitCount > 0) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer = 0;
+            bitCount = 0;
+        }
+        flushBlock();
+        out.write(0);
+    }
+
+    private static int slot(int key) {
+        return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private void resetTable() {
+        Arrays.fill(hashKeys, -1);
+        codeSize = initialCodeSize;
+        nextCode = endCode + 1;
+    }
+
+    // The decoder widens its codes as soon as the entry it adds reaches the
+    // current limit, so the encoder has to widen right after the matching code.
+    private void writeCode(int code) throws IOException {
+        writeBits(code);
+        if (nextCode >= (1 << codeSize) && codeSize < 12) {
+            codeSize++;
+        }
+    }
+
+    private void writeBits(int code) throws IOException {
+        bitBuffer |= code << bitCount;
+        bitCount += codeSize;
+        while (bitCount >= 8) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        block[++blockLength] = (byte) value;
+        if (blockLength == MAX_SUB_BLOCK) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength > 0) {
+            block[0] = (byte) blockLength;
+            out.write(block, 0, blockLength + 1);
+            blockLength = 0;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.piccrypt.stego;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 96-bit GCM nonces: a random 32-bit prefix fixed for this instance followed
+ * by a 64-bit counter starting at a random value. Nonces from one instance
+ * never repeat, and only the constructor touches the entropy pool.
+ *
+ * Every payload also gets its own salt and therefore its own key, so nonce
+ * uniqueness across restarts does not depend on the prefix alone.
+ */
+public final class NonceSource {
+    public static final int NONCE_BYTES = 12;
+
+    private final int prefix;
+    private final AtomicLong counter;
+
+    public NonceSource(SecureRandom random) {
+        this.prefix = random.nextInt();
+        this.counter = new AtomicLong(random.nextLong());
+    }
+
+    public void next(byte[] nonce, int offset) {
+        long count = counter.getAndIncrement();
+        putInt(nonce, offset, prefix);
+        putInt(nonce, offset + 4, (int) (count >>> 32));
+        putInt(nonce, offset + 8, (int) count);
+    }
+
+    private static void putInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,261 @@
+package com.example.piccrypt.stego;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Median-cut quantization of RGB pixels to a full 256 color palette, on a
+ * fork/join pool.
+ *
+ * Pixels are counted into a 5 bit per channel histogram in parallel tiles.
+ * The colors found are then cut in two at the weighted median of their
+ * widest channel, eight times over, so every palette entry is a leaf of the
+ * same depth. Leaves are numbered in tree order: the eight entries that
+ * differ only in their low {@link LsbField#LSB_BITS} bits come from one box
+ * and are close in color, so changing those bits of an index, which is
+ * what embedding does, barely changes the pixel.
+ */
+public final class PaletteQuantizer {
+    public static final int PALETTE_BITS = 8;
+    public static final int COLORS = 1 << PALETTE_BITS;
+
+    private static final int CHANNEL_BITS = 5;
+    private static final int BINS = 1 << (3 * CHANNEL_BITS);
+    private static final int CHANNEL_MASK = (1 << CHANNEL_BITS) - 1;
+    private static final int MIN_TILE_PIXELS = 1 << 16;
+    private static final int MIN_FORKED_BINS = 1 << 10;
+
+    /** {@code palette} holds 256 RGB triples; {@code indices} one entry per pixel. */
+    public record Result(byte[] palette, byte[] indices) {
+    }
+
+    private PaletteQuantizer() {
+    }
+
+    public static Result quantize(int[] rgb, ForkJoinPool pool) {
+        int tile = Math.max(MIN_TILE_PIXELS, rgb.length / (pool.getParallelism() * 4));
+        Histogram histogram = pool.invoke(new CountTask(rgb, 0, rgb.length, tile));
+
+        int[] bins = new int[BINS];
+        int used = 0;
+        for (int bin = 0; bin < BINS; bin++) {
+            if (histogram.counts[bin] > 0) {
+                bins[used++] = bin;
+            }
+        }
+
+        byte[] palette = new byte[COLORS * 3];
+        byte[] lookup = new byte[BINS];
+        pool.invoke(new CutTask(histogram, bins, 0, used, 0, 0, palette, lookup));
+
+        byte[] indices = new byte[rgb.length];
+        pool.invoke(new MapTask(rgb, indices, lookup, 0, rgb.length, tile));
+        return new Result(palette, indices);
+    }
+
+    private static int bin(int rgb) {
+        return ((rgb >>> 19) & 0x1F) << (2 * CHANNEL_BITS) | ((rgb >>> 11) & 0x1F) << CHANNEL_BITS | ((rgb >>> 3) & 0x1F);
+    }
+
+    private static int channel(int bin, int channel) {
+        return (bin >>> ((2 - channel) * CHANNEL_BITS)) & CHANNEL_MASK;
+    }
+
+    /** Pixel counts and channel sums per histogram bin. */
+    private static final class Histogram {
+        private final int[] counts = new int[BINS];
+        private final long[] sums = new long[BINS * 3];
+
+        private Histogram add(Histogram other) {
+            for (int i = 0; i < BINS; i++) {
+                counts[i] += other.counts[i];
+            }
+            for (int i = 0; i < sums.length; i++) {
+                sums[i] += other.sums[i];
+            }
+            return this;
+        }
+    }
+
+    private static final class CountTask extends RecursiveTask<Histogram> {
+        private final int[] rgb;
+        private final int from;
+        private final int to;
+        private final int tile;
+
+        private CountTask(int[] rgb, int from, int to, int tile) {
+            this.rgb = rgb;
+            this.from = from;
+            this.to = to;
+            this.tile = tile;
+        }
+
+        @Override
+        protected Histogram compute() {
+            if (to - from > tile) {
+                int middle = (from + to) >>> 1;
+                CountTask right = new CountTask(rgb, middle, to, tile);
+                right.fork();
+                Histogram left = new CountTask(rgb, from, middle, tile).compute();
+                return left.add(right.join());
+            }
+            Histogram histogram = new Histogram();
+            for (int i = from; i < to; i++) {
+                int pixel = rgb[i];
+                int bin = bin(pixel);
+                histogram.counts[bin]++;
+                histogram.sums[bin * 3] += (pixel >>> 16) & 0xFF;
+                histogram.sums[bin * 3 + 1] += (pixel >>> 8) & 0xFF;
+                histogram.sums[bin * 3 + 2] += pixel & 0xFF;
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * One box of the cut: the bins in {@code [from, to)}, which become the
+     * palette entries from {@code first} to {@code first + 2^(8 - depth)}.
+     */
+    private static final class CutTask extends RecursiveAction {
+        private final Histogram histogram;
+        private final int[] bins;
+        private final int from;
+        private final int to;
+        private final int depth;
+        private final int first;
+        private final byte[] palette;
+        private final byte[] lookup;
+
+        private CutTask(Histogram histogram, int[] bins, int from, int to, int depth, int first,
+                        byte[] palette, byte[] lookup) {
+            this.histogram = histogram;
+            this.bins = bins;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.first = first;
+            this.palette = palette;
+            this.lookup = lookup;
+        }
+
+        @Override
+        protected void compute() {
+            if (depth == PALETTE_BITS || to - from <= 1) {
+                fillLeaves();
+                return;
+            }
+            int split = splitAtMedian();
+            int half = 1 << (PALETTE_BITS - depth - 1);
+            CutTask left = new CutTask(histogram, bins, from, split, depth + 1, first, palette, lookup);
+            CutTask right = new CutTask(histogram, bins, split, to, depth + 1, first + half, palette, lookup);
+            if (to - from >= MIN_FORKED_BINS) {
+                invokeAll(left, right);
+            } else {
+                left.compute();
+                right.compute();
+            }
+        }
+
+        /** Sorts the box along its widest channel and returns where half its pixels are on each side. */
+        private int splitAtMedian() {
+            int[] min = {CHANNEL_MASK, CHANNEL_MASK, CHANNEL_MASK};
+            int[] max = new int[3];
+            long pixels = 0;
+            for (int i = from; i < to; i++) {
+                for (int c = 0; c < 3; c++) {
+                    int value = channel(bins[i], c);
+                    min[c] = Math.min(min[c], value);
+                    max[c] = Math.max(max[c], value);
+                }
+                pixels += histogram.counts[bins[i]];
+            }
+            int widest = 1;
+            for (int c : new int[] {0, 2}) {
+                if (max[c] - min[c] > max[widest] - min[widest]) {
+                    widest = c;
+                }
+            }
+
+            // Sort by the widest channel through keys that carry the bin along.
+            for (int i = from; i < to; i++) {
+                bins[i] |= channel(bins[i], widest) << (3 * CHANNEL_BITS);
+            }
+            Arrays.sort(bins, from, to);
+            for (int i = from; i < to; i++) {
+                bins[i] &= BINS - 1;
+            }
+
+            long seen = 0;
+            int split = from + 1;
+            while (split < to - 1) {
+                seen += histogram.counts[bins[split - 1]];
+                if (seen * 2 >= pixels) {
+                    break;
+                }
+                split++;
+            }
+            return split;
+        }
+
+        /**
+         * Gives every entry of this subtree the mean color of the box. A box
+         * of one color cannot be cut further, so its entries repeat it.
+         */
+        private void fillLeaves() {
+            long count = 0;
+            long red = 0;
+            long green = 0;
+            long blue = 0;
+            for (int i = from; i < to; i++) {
+                int bin = bins[i];
+                count += histogram.counts[bin];
+                red += histogram.sums[bin * 3];
+                green += histogram.sums[bin * 3 + 1];
+                blue += histogram.sums[bin * 3 + 2];
+                lookup[bin] = (byte) first;
+            }
+            if (count == 0) {
+                return;
+            }
+            int entries = 1 << (PALETTE_BITS - depth);
+            for (int entry = first; entry < first + entries; entry++) {
+                palette[entry * 3] = (byte) (red / count);
+                palette[entry * 3 + 1] = (byte) (green / count);
+                palette[entry * 3 + 2] = (byte) (blue / count);
+            }
+        }
+    }
+
+    private static final class MapTask extends RecursiveAction {
+        private final int[] rgb;
+        private final byte[] indices;
+        private final byte[] lookup;
+        private final int from;
+        private final int to;
+        private final int tile;
+
+        private MapTask(int[] rgb, byte[] indices, byte[] lookup, int from, int to, int tile) {
+            this.rgb = rgb;
+            this.indices = indices;
+            this.lookup = lookup;
+            this.from = from;
+            this.to = to;
+            this.tile = tile;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > tile) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MapTask(rgb, indices, lookup, from, middle, tile),
+                        new MapTask(rgb, indices, lookup, middle, to, tile));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                indices[i] = lookup[bin(rgb[i])];
+            }
+        }
+    }
+}
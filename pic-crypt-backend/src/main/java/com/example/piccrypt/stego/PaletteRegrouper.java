@@ -0,0 +1,288 @@
+package com.example.piccrypt.stego;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Renumbers the colors of a GIF89a so that every aligned run of eight
+ * entries in a color table, the entries an index moves between when its low
+ * {@link LsbField#LSB_BITS} bits carry payload, holds colors close to each
+ * other. The image looks the same; only the numbering of its colors changes.
+ *
+ * Like {@link PaletteQuantizer}, a table is cut in two at the median of its
+ * widest channel until the runs are reached, and the entries are numbered in
+ * tree order. A table is only renumbered when its runs are more than twice
+ * as spread as that order's, so one already grouped, like the tables
+ * {@link GifConverter} makes, is left alone. Frames that use a renumbered
+ * table are decoded, remapped and LZW-encoded again, along with the
+ * transparent index of their graphic control extension and the background
+ * index of the screen; everything else is copied as it is.
+ *
+ * Colors far apart stay far apart: a table of 256 unrelated colors can be
+ * made no tighter than its colors allow, and embedding into it still shows.
+ */
+public final class PaletteRegrouper {
+    /** Most pixels re-encoded for one GIF, summed over its frames. */
+    public static final long MAX_PIXELS = 1 << 25;
+
+    private static final int GROUP = 1 << LsbField.LSB_BITS;
+    private static final int MAX_ENTRIES = 256;
+    private static final int GRAPHIC_CONTROL = 0xF9;
+    private static final int BACKGROUND_INDEX = 11;
+    private static final int TRANSPARENT_INDEX = 6;
+
+    private final ByteBuffer gif;
+    // Old index to new for the global table and each local one in file
+    // order, null where a table keeps its order.
+    private final int[] globalMap;
+    private final List<int[]> localMaps = new ArrayList<>();
+    private final long pixels;
+    private final long encodedBytes;
+
+    public PaletteRegrouper(ByteBuffer gif) {
+        this.gif = gif;
+        GifBlockIterator blocks = new GifBlockIterator(gif);
+        int globalBits = blocks.globalColorTableBits();
+        int[] global = map(GifBlockIterator.LOGICAL_SCREEN_END, globalBits);
+        boolean globalDecodable = true;
+        long globalPixels = 0;
+        long globalBytes = 0;
+        long localPixels = 0;
+        long localBytes = 0;
+
+        while (blocks.next()) {
+            if (blocks.type() != GifBlockIterator.BlockType.IMAGE) {
+                continue;
+            }
+            long count = (long) blocks.width() * blocks.height();
+            boolean decodable = count > 0 && count <= GifCarrierReader.MAX_FRAME_PIXELS
+                    && blocks.minCodeSize() >= 2 && blocks.minCodeSize() <= 8;
+            int localBits = blocks.localColorTableBits();
+            if (localBits > 0) {
+                int[] local = decodable ? map(blocks.dataStart() - GifBlockIterator.colorTableBytes(localBits), localBits) : null;
+                localMaps.add(local);
+                if (local != null) {
+                    localPixels += count;
+                    localBytes += LzwEncoder.maxEncodedBytes(count);
+                }
+            } else {
+                localMaps.add(null);
+                globalDecodable &= decodable;
+                globalPixels += count;
+                globalBytes += LzwEncoder.maxEncodedBytes(count);
+            }
+        }
+        this.globalMap = globalDecodable ? global : null;
+        this.pixels = localPixels + (globalMap != null ? globalPixels : 0);
+        this.encodedBytes = localBytes + (globalMap != null ? globalBytes : 0);
+    }
+
+    /** Whether any table is renumbered, so that {@link #write} differs from the source. */
+    public boolean changesAnything() {
+        return globalMap != null || localMaps.stream().anyMatch(map -> map != null);
+    }
+
+    /** Pixels of the frames {@link #write} encodes again. */
+    public long pixels() {
+        return pixels;
+    }
+
+    /** An upper bound on the bytes {@link #write} produces. */
+    public long maxBytes() {
+        return gif.limit() + encodedBytes;
+    }
+
+    public void write(OutputStream out) throws IOException {
+        Copier copier = new Copier(out);
+        GifBlockIterator blocks = new GifBlockIterator(gif);
+        if (globalMap != null) {
+            copier.replace(BACKGROUND_INDEX, (byte) globalMap[gif.get(BACKGROUND_INDEX) & 0xFF]);
+            copier.copyTo(GifBlockIterator.LOGICAL_SCREEN_END);
+            writeTable(out, GifBlockIterator.LOGICAL_SCREEN_END, globalMap, blocks.globalColorTableBits());
+            copier.skipTo(blocks.globalColorTableEnd());
+        }
+
+        byte[] indices = new byte[0];
+        int image = 0;
+        int transparentAt = -1;
+        while (blocks.next()) {
+            if (blocks.type() == GifBlockIterator.BlockType.EXTENSION) {
+                if (blocks.label() == GRAPHIC_CONTROL) {
+                    int at = blocks.start() + TRANSPARENT_INDEX;
+                    transparentAt = blocks.hasTransparency() && at < blocks.position() ? at : -1;
+                }
+                continue;
+            }
+            int localBits = blocks.localColorTableBits();
+            int tableBits = localBits > 0 ? localBits : blocks.globalColorTableBits();
+            int[] map = localBits > 0 ? localMaps.get(image) : globalMap;
+            image++;
+            if (map == null) {
+                transparentAt = -1;
+                continue;
+            }
+            if (transparentAt >= 0) {
+                copier.replace(transparentAt, (byte) map[gif.get(transparentAt) & 0xFF]);
+                transparentAt = -1;
+            }
+            if (localBits > 0) {
+                int tableStart = blocks.dataStart() - GifBlockIterator.colorTableBytes(localBits);
+                copier.copyTo(tableStart);
+                writeTable(out, tableStart, map, localBits);
+                copier.skipTo(blocks.dataStart());
+            }
+            copier.copyTo(blocks.dataStart());
+
+            int count = blocks.width() * blocks.height();
+            if (indices.length < count) {
+                indices = new byte[count];
+            }
+            LzwDecoder decoder = new LzwDecoder(blocks.minCodeSize(), indices, count);
+            blocks.readImageData(decoder);
+            Arrays.fill(indices, decoder.decoded(), count, (byte) 0);
+            for (int i = 0; i < count; i++) {
+                indices[i] = (byte) map[indices[i] & 0xFF];
+            }
+            // Renumbered indices may use every bit of the table.
+            LzwEncoder encoder = new LzwEncoder(Math.max(blocks.minCodeSize(), Math.max(2, tableBits)), out);
+            encoder.encode(indices, 0, count);
+            encoder.finish();
+            copier.skipTo(blocks.position());
+        }
+        copier.copyTo(gif.limit());
+    }
+
+    /**
+     * Old index to new for the table of {@code 2^bits} entries at
+     * {@code offset}, or null when its runs are grouped well enough as they
+     * are. Indices past the table map to themselves.
+     */
+    private int[] map(int offset, int bits) {
+        int entries = bits > 0 ? 1 << bits : 0;
+        if (entries < 2 * GROUP || offset + 3 * entries > gif.limit()) {
+            return null;
+        }
+        byte[] table = new byte[3 * entries];
+        gif.get(offset, table);
+
+        int[] order = new int[entries];
+        Arrays.setAll(order, i -> i);
+        long before = spread(table, order);
+        split(table, order, 0, entries);
+        if (before <= 2 * spread(table, order)) {
+            return null;
+        }
+        int[] map = new int[MAX_ENTRIES];
+        Arrays.setAll(map, i -> i);
+        for (int index = 0; index < entries; index++) {
+            map[order[index]] = index;
+        }
+        return map;
+    }
+
+    /** Cuts {@code order[from, to)} at the median of its widest channel, down to single runs. */
+    private static void split(byte[] table, int[] order, int from, int to) {
+        if (to - from <= GROUP) {
+            return;
+        }
+        int channel = widestChannel(table, order, from, to);
+        // Sort by the channel through keys that carry the entry along.
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = (long) (table[order[i] * 3 + channel] & 0xFF) << 32 | order[i];
+        }
+        Arrays.sort(keys);
+        for (int i = from; i < to; i++) {
+            order[i] = (int) keys[i - from];
+        }
+        int middle = (from + to) >>> 1;
+        split(table, order, from, middle);
+        split(table, order, middle, to);
+    }
+
+    private static int widestChannel(byte[] table, int[] order, int from, int to) {
+        int widest = 0;
+        int widestRange = -1;
+        for (int channel = 0; channel < 3; channel++) {
+            int min = 0xFF;
+            int max = 0;
+            for (int i = from; i < to; i++) {
+                int value = table[order[i] * 3 + channel] & 0xFF;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestRange) {
+                widest = channel;
+                widestRange = max - min;
+            }
+        }
+        return widest;
+    }
+
+    /** How far the colors of each run lie from their mean, summed: n times the squared error. */
+    private static long spread(byte[] table, int[] order) {
+        long total = 0;
+        for (int run = 0; run < order.length; run += GROUP) {
+            for (int channel = 0; channel < 3; channel++) {
+                long sum = 0;
+                long squares = 0;
+                for (int i = run; i < run + GROUP; i++) {
+                    int value = table[order[i] * 3 + channel] & 0xFF;
+                    sum += value;
+                    squares += (long) value * value;
+                }
+                total += GROUP * squares - sum * sum;
+            }
+        }
+        return total;
+    }
+
+    private void writeTable(OutputStream out, int offset, int[] map, int bits) throws IOException {
+        int entries = 1 << bits;
+        byte[] table = new byte[3 * entries];
+        for (int old = 0; old < entries; old++) {
+            int index = map[old];
+            table[index * 3] = gif.get(offset + old * 3);
+            table[index * 3 + 1] = gif.get(offset + old * 3 + 1);
+            table[index * 3 + 2] = gif.get(offset + old * 3 + 2);
+        }
+        out.write(table);
+    }
+
+    /** Copies the source up to each offset it is asked to, and nothing twice. */
+    private final class Copier {
+        private final OutputStream out;
+        private int written;
+
+        private Copier(OutputStream out) {
+            this.out = out;
+        }
+
+        private void copyTo(int end) throws IOException {
+            if (end <= written) {
+                return;
+            }
+            byte[] bytes = new byte[Math.min(end - written, 1 << 16)];
+            while (written < end) {
+                int count = Math.min(bytes.length, end - written);
+                gif.get(written, bytes, 0, count);
+                out.write(bytes, 0, count);
+                written += count;
+            }
+        }
+
+        private void replace(int at, byte value) throws IOException {
+            copyTo(at);
+            out.write(value);
+            written = at + 1;
+        }
+
+        private void skipTo(int end) {
+            written = Math.max(written, end);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.piccrypt.stego;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Payload bytes stored {@link LsbField#LSB_BITS} bits per carrier byte, like
+ * an {@link LsbField}, but in an order set by a {@link FeistelPermutation}
+ * over every carrier byte from {@code start} to the end of the carrier.
+ *
+ * The n-th group of bits goes to carrier byte {@code start + permute(n)}.
+ * Segments are still visited in file order: each carrier byte asks the
+ * inverse permutation which group it holds, if any. The carrier is walked
+ * once and no position table is built.
+ *
+ * Every carrier byte is looked up on its own, so long segments are split
+ * into stripes on the fork/join pool. Groups that share a payload byte may
+ * land in different stripes; extraction ORs its bits in atomically.
+ */
+public final class ScatteredField implements CarrierField {
+    public static final int MIN_STRIPE_BYTES = 1 << 16;
+
+    private static final VarHandle DATA = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final byte[] data;
+    private final int from;
+    private final int to;
+    private final long start;
+    private final long slots;
+    private final FeistelPermutation order;
+    private long remaining;
+
+    /** {@code order} ranges over the carrier bytes from {@code start} on. */
+    public ScatteredField(byte[] data, long start, FeistelPermutation order) {
+        this(data, 0, data.length, start, order);
+    }
+
+    /** A field over {@code data[from, to)} only. */
+    public ScatteredField(byte[] data, int from, int to, long start, FeistelPermutation order) {
+        this.data = data;
+        this.from = from;
+        this.to = to;
+        this.start = start;
+        this.slots = LsbField.carrierBytes(to - from);
+        this.order = order;
+        this.remaining = slots;
+        if (slots > order.size()) {
+            throw new IllegalArgumentException("Field of " + (to - from) + " bytes does not fit " + order.size() + " carrier bytes.");
+        }
+    }
+
+    public ScatteredField(int length, long start, FeistelPermutation order) {
+        this(new byte[length], start, order);
+    }
+
+    @Override
+    public byte[] data() {
+        return data;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return remaining == 0;
+    }
+
+    @Override
+    public void embed(byte[] carrier, int offset, int length, long position) {
+        remaining -= stripes(offset, length, position, (from, to) -> {
+            long placed = 0;
+            long base = position - offset - start;
+            for (int i = from; i < to; i++) {
+                long slot = order.inverse(base + i);
+                if (slot < slots) {
+                    carrier[i] = (byte) ((carrier[i] & LsbField.CLEAR_LSB_MASK) | bits(slot));
+                    placed++;
+                }
+            }
+            return placed;
+        });
+    }
+
+    @Override
+    public void extract(byte[] carrier, int offset, int length, long position) {
+        remaining -= stripes(offset, length, position, (from, to) -> {
+            long found = 0;
+            long base = position - offset - start;
+            for (int i = from; i < to; i++) {
+                long slot = order.inverse(base + i);
+                if (slot < slots) {
+                    setBits(slot, carrier[i] & LsbField.LSB_MASK);
+                    found++;
+                }
+            }
+            return found;
+        });
+    }
+
+    /** Runs {@code work} over the indices of {@code carrier} inside this field. */
+    private long stripes(int offset, int length, long position, Stripes.Work work) {
+        long from = Math.max(start, position);
+        long to = Math.min(start + order.size(), position + length);
+        if (remaining == 0 || from >= to) {
+            return 0;
+        }
+        int first = offset + (int) (from - position);
+        return Stripes.run(first, first + (int) (to - from), first, MIN_STRIPE_BYTES, work);
+    }
+
+    // The group's bits sit in at most two payload bytes, most significant first.
+    private int bits(long slot) {
+        long bit = slot * LsbField.LSB_BITS;
+        int index = from + (int) (bit >>> 3);
+        int shift = 16 - LsbField.LSB_BITS - (int) (bit & 7);
+        int word = (data[index] & 0xFF) << 8 | (index + 1 < to ? data[index + 1] & 0xFF : 0);
+        return (word >>> shift) & LsbField.LSB_MASK;
+    }
+
+    private void setBits(long slot, int value) {
+        long bit = slot * LsbField.LSB_BITS;
+        int index = from + (int) (bit >>> 3);
+        int word = value << (16 - LsbField.LSB_BITS - (int) (bit & 7));
+        DATA.getAndBitwiseOr(data, index, (byte) (word >>> 8));
+        if (index + 1 < to) {
+            DATA.getAndBitwiseOr(data, index + 1, (byte) word);
+        }
+    }
+}
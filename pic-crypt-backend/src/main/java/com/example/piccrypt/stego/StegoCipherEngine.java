@@ -0,0 +1,228 @@
+package com.example.piccrypt.stego;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * AES-GCM for stego payloads ({@code iv | ciphertext | tag}) without the
+ * per-call setup: every thread keeps its own {@link Cipher}, re-initialised
+ * for each message instead of looked up again, plus a scratch buffer that
+ * decrypted text passes through. Nonces come from one shared
+ * {@link NonceSource}.
+ *
+ * Segmented payloads ({@code nonce | chunk | chunk ...}) are encrypted one
+ * chunk at a time by a {@link Segmenter}, as the carrier is written, and
+ * decrypted one chunk at a time, so a GCM decryption, which holds back its
+ * output until the tag is checked, never buffers more than a chunk. The
+ * plaintext itself is still one array on both sides: the message is a
+ * string before and after. See {@link StegoCrypto#chunkNonce} for the
+ * per-chunk nonces.
+ *
+ * Scratch buffers larger than {@link #MAX_RETAINED_SCRATCH} are used once and
+ * dropped, so an idle worker thread holds at most that much.
+ */
+public final class StegoCipherEngine {
+    public static final int MAX_RETAINED_SCRATCH = 64 * 1024;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BYTES = StegoCrypto.GCM_TAG_LENGTH / 8;
+
+    private final NonceSource nonces;
+    private final ThreadLocal<Context> contexts = ThreadLocal.withInitial(Context::new);
+
+    public StegoCipherEngine() {
+        this(new NonceSource(new SecureRandom()));
+    }
+
+    public StegoCipherEngine(NonceSource nonces) {
+        this.nonces = nonces;
+    }
+
+    public byte[] encrypt(byte[] message, byte[] key) throws GeneralSecurityException {
+        Context context = contexts.get();
+        byte[] result = new byte[StegoCrypto.encryptedLength(message.length)];
+        nonces.next(result, 0);
+        init(context.cipher, Cipher.ENCRYPT_MODE, key, result);
+        context.cipher.doFinal(message, 0, message.length, result, StegoCrypto.GCM_IV_LENGTH);
+        return result;
+    }
+
+    /**
+     * Encrypts the UTF-8 bytes of {@code text}. {@link String#getBytes} is
+     * kept here: it is intrinsified and beats encoding into a scratch buffer
+     * with a {@code CharsetEncoder}.
+     */
+    public byte[] encrypt(String text, byte[] key) throws GeneralSecurityException {
+        return encrypt(text.getBytes(StandardCharsets.UTF_8), key);
+    }
+
+    /** Chunked encryption of {@code message} under {@code key}, with a fresh base nonce. */
+    public Segmenter segmenter(byte[] message, byte[] key) {
+        byte[] nonce = new byte[StegoCrypto.GCM_IV_LENGTH];
+        nonces.next(nonce, 0);
+        return new Segmenter(message, key.clone(), nonce);
+    }
+
+    /**
+     * Decrypts a segmented payload chunk by chunk into one plaintext array;
+     * fails if any tag does not match, including the last chunk's, which is
+     * what catches a payload cut short.
+     */
+    public byte[] decryptSegmented(byte[] payload, byte[] key) throws GeneralSecurityException {
+        int chunks = StegoCrypto.segmentedChunks(payload.length - StegoCrypto.GCM_IV_LENGTH);
+        if (chunks < 0) {
+            throw new GeneralSecurityException("Payload is not a whole number of chunks.");
+        }
+        Context context = contexts.get();
+        byte[] plain = new byte[payload.length - StegoCrypto.GCM_IV_LENGTH - chunks * TAG_BYTES];
+        int in = StegoCrypto.GCM_IV_LENGTH;
+        int out = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int length = Math.min(StegoCrypto.CHUNK_BYTES, plain.length - out);
+            initChunk(context, Cipher.DECRYPT_MODE, key, payload, chunk, chunk == chunks - 1);
+            out += context.cipher.doFinal(payload, in, length + TAG_BYTES, plain, out);
+            in += length + TAG_BYTES;
+        }
+        return plain;
+    }
+
+    /** Decrypts {@code iv | ciphertext}; fails if the tag does not match. */
+    public byte[] decrypt(byte[] payload, byte[] key) throws GeneralSecurityException {
+        Context context = contexts.get();
+        init(context.cipher, Cipher.DECRYPT_MODE, key, payload);
+        return context.cipher.doFinal(payload, StegoCrypto.GCM_IV_LENGTH, payload.length - StegoCrypto.GCM_IV_LENGTH);
+    }
+
+    /** {@link #decrypt(byte[], byte[])} straight into a string, through the scratch buffer. */
+    public String decryptToString(byte[] payload, byte[] key) throws GeneralSecurityException {
+        Context context = contexts.get();
+        init(context.cipher, Cipher.DECRYPT_MODE, key, payload);
+        int cipherBytes = payload.length - StegoCrypto.GCM_IV_LENGTH;
+        byte[] plain = context.scratch(Math.max(0, cipherBytes - TAG_BYTES));
+        int length = context.cipher.doFinal(payload, StegoCrypto.GCM_IV_LENGTH, cipherBytes, plain, 0);
+        return new String(plain, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static void init(Cipher cipher, int mode, byte[] key, byte[] ivHolder) throws GeneralSecurityException {
+        if (ivHolder.length < StegoCrypto.GCM_IV_LENGTH) {
+            throw new GeneralSecurityException("Payload is shorter than the IV.");
+        }
+        cipher.init(mode, new SecretKeySpec(key, "AES"),
+                new GCMParameterSpec(StegoCrypto.GCM_TAG_LENGTH, ivHolder, 0, StegoCrypto.GCM_IV_LENGTH));
+    }
+
+    private void initChunk(Context context, int mode, byte[] key, byte[] baseNonce, int chunk, boolean last)
+            throws GeneralSecurityException {
+        StegoCrypto.chunkNonce(baseNonce, 0, chunk, last, context.nonce);
+        context.cipher.init(mode, new SecretKeySpec(key, "AES"), new GCMParameterSpec(StegoCrypto.GCM_TAG_LENGTH, context.nonce));
+    }
+
+    /**
+     * One message cut into chunks of {@link StegoCrypto#CHUNK_BYTES}, each
+     * encrypted when it is asked for. Holds the whole plaintext, but the
+     * ciphertext of only one chunk at a time. Not thread-safe.
+     */
+    public final class Segmenter {
+        private final byte[] message;
+        private final byte[] key;
+        private final byte[] nonce;
+        private final int chunks;
+        private byte[] buffer;
+        private int buffered = -1;
+        private int encrypted = -1;
+        private Context rewind;
+
+        private Segmenter(byte[] message, byte[] key, byte[] nonce) {
+            this.message = message;
+            this.key = key;
+            this.nonce = nonce;
+            this.chunks = StegoCrypto.chunks(message.length);
+        }
+
+        public byte[] nonce() {
+            return nonce.clone();
+        }
+
+        public int chunks() {
+            return chunks;
+        }
+
+        /** Ciphertext bytes of every chunk together, tags included. */
+        public long ciphertextLength() {
+            return StegoCrypto.segmentedLength(message.length) - StegoCrypto.GCM_IV_LENGTH;
+        }
+
+        /** Ciphertext bytes of chunk {@code index}, tag included. */
+        public int chunkLength(int index) {
+            int from = index * StegoCrypto.CHUNK_BYTES;
+            return Math.min(StegoCrypto.CHUNK_BYTES, message.length - from) + TAG_BYTES;
+        }
+
+        /**
+         * Chunk {@code index} encrypted, in the first {@link #chunkLength}
+         * bytes of a buffer that the next chunk overwrites. Asking for the
+         * same chunk again returns it without encrypting it twice.
+         *
+         * Writing the message again encrypts earlier chunks again, to the
+         * same ciphertext. A JDK cipher refuses a key and nonce it was just
+         * given for encryption, so those go through a second cipher, made
+         * the first time and kept for every later rewind.
+         */
+        public byte[] chunk(int index) throws GeneralSecurityException {
+            if (index < 0 || index >= chunks) {
+                throw new IndexOutOfBoundsException("Chunk " + index + " of " + chunks);
+            }
+            if (index != buffered) {
+                int from = index * StegoCrypto.CHUNK_BYTES;
+                int length = chunkLength(index) - TAG_BYTES;
+                if (buffer == null) {
+                    buffer = new byte[chunkLength(0)];
+                }
+                Context context = index > encrypted ? contexts.get() : rewind();
+                initChunk(context, Cipher.ENCRYPT_MODE, key, nonce, index, index == chunks - 1);
+                context.cipher.doFinal(message, from, length, buffer, 0);
+                buffered = index;
+                encrypted = Math.max(encrypted, index);
+            }
+            return buffer;
+        }
+
+        private Context rewind() {
+            if (rewind == null) {
+                rewind = new Context();
+            }
+            return rewind;
+        }
+    }
+
+    private static final class Context {
+        private final Cipher cipher;
+        private final byte[] nonce = new byte[StegoCrypto.GCM_IV_LENGTH];
+        private byte[] scratch = new byte[1024];
+
+        private Context() {
+            try {
+                cipher = Cipher.getInstance(TRANSFORMATION);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+            }
+        }
+
+        private byte[] scratch(int size) {
+            if (size <= scratch.length) {
+                return scratch;
+            }
+            byte[] buffer = new byte[size];
+            if (size <= MAX_RETAINED_SCRATCH) {
+                scratch = buffer;
+            }
+            return buffer;
+        }
+    }
+}
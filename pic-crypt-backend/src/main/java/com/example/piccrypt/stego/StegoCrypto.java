@@ -0,0 +1,177 @@
+package com.example.piccrypt.stego;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Password handling for stego payloads, and the sizes of the AES-GCM payload
+ * {@link StegoCipherEngine} produces: the 12-byte IV followed by the
+ * ciphertext and its 16-byte tag, or in the segmented form, the base nonce
+ * followed by chunks of at most {@link #CHUNK_BYTES} each with a tag of its
+ * own.
+ *
+ * Keys come from PBKDF2 over the password and a random per-payload salt.
+ * Payloads written before the salt existed use a plain SHA-256 of the
+ * password, see {@link #legacyKey}. A short {@link #keyCheck} of the derived
+ * key is stored with the payload, so a wrong password is turned away before
+ * the payload is decrypted.
+ */
+public final class StegoCrypto {
+    public static final int PASSWORD_HASH_BYTES = 4;
+    public static final int AES_KEY_BYTES = 32;
+    public static final int GCM_IV_LENGTH = 12;
+    public static final int GCM_TAG_LENGTH = 128;
+    public static final int SALT_BYTES = 16;
+    public static final int KDF_ITERATIONS = 310_000;
+    public static final int KEY_CHECK_BYTES = 8;
+    public static final int GCM_TAG_BYTES = GCM_TAG_LENGTH / 8;
+
+    /** Plaintext bytes per chunk of a segmented payload; only the last one is shorter. */
+    public static final int CHUNK_BYTES = 64 * 1024;
+
+    /** KDF id stored in the payload header: PBKDF2-HMAC-SHA256. */
+    public static final int KDF_PBKDF2_SHA256 = 1;
+
+    private static final String KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String KEY_CHECK_ALGORITHM = "HmacSHA256";
+    private static final byte[] KEY_CHECK_LABEL = "pic-crypt key check".getBytes(StandardCharsets.US_ASCII);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private StegoCrypto() {
+    }
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /** PBKDF2-HMAC-SHA256 of the password, {@link #KDF_ITERATIONS} rounds. */
+    public static byte[] deriveKey(String password, byte[] salt) throws GeneralSecurityException {
+        return deriveKey(password, salt, KDF_ITERATIONS);
+    }
+
+    public static byte[] deriveKey(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, AES_KEY_BYTES * 8);
+        try {
+            return SecretKeyFactory.getInstance(KDF_ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * HMAC-SHA256 of a fixed label under {@code key}, cut to
+     * {@link #KEY_CHECK_BYTES}. It tells whether a derived key is the right
+     * one, and gives away no more about it than the GCM tag already does.
+     */
+    public static byte[] keyCheck(byte[] key) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(KEY_CHECK_ALGORITHM);
+        mac.init(new SecretKeySpec(key, KEY_CHECK_ALGORITHM));
+        return Arrays.copyOf(mac.doFinal(KEY_CHECK_LABEL), KEY_CHECK_BYTES);
+    }
+
+    /** SHA-256 of the password, for reading payloads written without a salt. */
+    public static byte[] legacyKey(String password) throws GeneralSecurityException {
+        return Arrays.copyOf(sha256(password), AES_KEY_BYTES);
+    }
+
+    /** Short SHA-256 prefix of the password, stored next to legacy payloads. */
+    public static byte[] passwordHash(String password) throws GeneralSecurityException {
+        return Arrays.copyOf(sha256(password), PASSWORD_HASH_BYTES);
+    }
+
+    /** SHA-256 of the password, so caches can key on it instead of the password. */
+    public static byte[] sha256(String password) throws GeneralSecurityException {
+        return sha256(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] sha256(byte[] data) throws GeneralSecurityException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        return md.digest(data);
+    }
+
+    /** Length of {@code text} in UTF-8, counted without encoding it. */
+    public static int utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Encoded as a single '?'.
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, length);
+    }
+
+    /** Size of the encrypted payload for a message of the given size. */
+    public static int encryptedLength(int messageBytes) {
+        return GCM_IV_LENGTH + messageBytes + GCM_TAG_BYTES;
+    }
+
+    /** Size of the segmented payload for a message of the given size, base nonce included. */
+    public static long segmentedLength(long messageBytes) {
+        return GCM_IV_LENGTH + messageBytes + (long) chunks(messageBytes) * GCM_TAG_BYTES;
+    }
+
+    /** Chunks a message of the given size is cut into; an empty one still has one. */
+    public static int chunks(long messageBytes) {
+        return (int) Math.max(1, (messageBytes + CHUNK_BYTES - 1) / CHUNK_BYTES);
+    }
+
+    /**
+     * Chunks in {@code ciphertextBytes} of segmented ciphertext, tags included
+     * and the base nonce not, or -1 if no message encrypts to that size.
+     */
+    public static int segmentedChunks(long ciphertextBytes) {
+        long chunk = CHUNK_BYTES + GCM_TAG_BYTES;
+        long chunks = Math.max(1, (ciphertextBytes + chunk - 1) / chunk);
+        long last = ciphertextBytes - (chunks - 1) * chunk;
+        boolean written = chunks == 1 ? last >= GCM_TAG_BYTES : last > GCM_TAG_BYTES;
+        return written && chunks <= Integer.MAX_VALUE ? (int) chunks : -1;
+    }
+
+    /**
+     * Largest message whose {@link #segmentedLength} is at most
+     * {@code payloadBytes}, or -1 if even an empty one is longer.
+     */
+    public static long segmentedMessageLength(long payloadBytes) {
+        long ciphertext = payloadBytes - GCM_IV_LENGTH;
+        if (ciphertext < GCM_TAG_BYTES) {
+            return -1;
+        }
+        long chunk = CHUNK_BYTES + GCM_TAG_BYTES;
+        return ciphertext / chunk * CHUNK_BYTES + Math.max(0, ciphertext % chunk - GCM_TAG_BYTES);
+    }
+
+    /**
+     * Nonce of chunk {@code index}: the base nonce with the chunk index XORed
+     * into its first 4 bytes and a final-chunk marker into their top bit, so
+     * dropping or reordering chunks fails the tag. The first 4 bytes are the
+     * {@link NonceSource} prefix; its counter, the other 8, is left alone, so
+     * chunks of different messages from one source never share a nonce.
+     */
+    public static void chunkNonce(byte[] base, int baseOffset, int index, boolean last, byte[] nonce) {
+        System.arraycopy(base, baseOffset, nonce, 0, GCM_IV_LENGTH);
+        nonce[0] ^= (byte) ((index >>> 24) | (last ? 0x80 : 0));
+        nonce[1] ^= (byte) (index >>> 16);
+        nonce[2] ^= (byte) (index >>> 8);
+        nonce[3] ^= (byte) index;
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.piccrypt.stego;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Layout of a stego payload in the logical carrier.
+ *
+ * Version 4, written by {@link #embed}, starts with a header at logical
+ * offset 0: the magic {@code "PCS"}, the version byte, the KDF salt, the KDF
+ * id and iteration count, the {@link StegoCrypto#keyCheck key check}, the
+ * GCM nonce, a flags byte, the size of the message window in carrier bytes
+ * and the length of the ciphertext. The ciphertext is in
+ * {@link StegoCrypto#CHUNK_BYTES} chunks, each with its own tag, laid out as
+ * a {@link WindowedField} over the window, which starts right after the
+ * header: each chunk is scattered in an order keyed by the salt over a part
+ * of the window of its own, so the changes are not packed together. The
+ * window is at most {@link #WINDOW_SPREAD} times what the ciphertext needs,
+ * so a short message still sits in a prefix of the file that can be
+ * rewritten or read on its own. Everything needed to turn away a wrong
+ * password is in the header.
+ *
+ * Version 0, still read by {@link #extract}, has the password hash, the
+ * payload length and the encrypted payload each in an {@link LsbField} of
+ * its own at a fixed offset. It has no salt; its key is
+ * {@link StegoCrypto#legacyKey}.
+ */
+public final class StegoFormat {
+    public static final int VERSION_0 = 0;
+    public static final int VERSION_4 = 4;
+
+    /** The plaintext is {@link TextCompressor} output, not the text itself. */
+    public static final int FLAG_DEFLATE = 1;
+    /**
+     * The ciphertext is segmented, see {@link StegoCipherEngine.Segmenter},
+     * and laid out as a {@link WindowedField}. Set on every payload
+     * {@link #embedding} writes; a header without it is rejected.
+     */
+    public static final int FLAG_SEGMENTED = 2;
+    private static final int KNOWN_FLAGS = FLAG_DEFLATE | FLAG_SEGMENTED;
+    private static final int CHUNK_FIELD_BYTES = StegoCrypto.CHUNK_BYTES + StegoCrypto.GCM_TAG_BYTES;
+
+    public static final int MESSAGE_LENGTH_BYTES = 4;
+
+    /** The message window is at most this many times the carrier bytes the ciphertext needs. */
+    public static final int WINDOW_SPREAD = 4;
+
+    private static final byte[] MAGIC = {'P', 'C', 'S'};
+    private static final int SALT_START = MAGIC.length + 1;
+    private static final int KDF_START = SALT_START + StegoCrypto.SALT_BYTES;
+    private static final int KEY_CHECK_START = KDF_START + 1 + Integer.BYTES;
+    private static final int NONCE_START = KEY_CHECK_START + StegoCrypto.KEY_CHECK_BYTES;
+    private static final int FLAGS_START = NONCE_START + StegoCrypto.GCM_IV_LENGTH;
+    private static final int WINDOW_START = FLAGS_START + 1;
+    private static final int LENGTH_START = WINDOW_START + Long.BYTES;
+
+    public static final int HEADER_BYTES = LENGTH_START + MESSAGE_LENGTH_BYTES;
+    public static final long HEADER_START = 0;
+    public static final long MESSAGE_START = HEADER_START + LsbField.carrierBytes(HEADER_BYTES);
+
+    private static final int CHANNEL_BUFFER_BYTES = 64 * 1024;
+    private static final int PREFIX_READ_BYTES = 4 * 1024;
+
+    // Version 0 offsets: 0 is the first byte of the global color table,
+    // frame indices follow once the table is used up.
+    static final long V0_PASSWORD_HASH_START = 0;
+    static final long V0_MESSAGE_LENGTH_START = V0_PASSWORD_HASH_START + LsbField.carrierBytes(StegoCrypto.PASSWORD_HASH_BYTES);
+    static final long V0_MESSAGE_START = V0_MESSAGE_LENGTH_START + LsbField.carrierBytes(MESSAGE_LENGTH_BYTES);
+
+    /**
+     * What {@link #extract} found. {@code message} is always the whole
+     * {@code nonce | ciphertext | tag}, segmented in version 4. Version 4
+     * payloads carry a salt and a key check, version 0 ones the short
+     * password hash; the others are null. Version 0 payloads have no flags
+     * and were written with {@link StegoCrypto#KDF_ITERATIONS}.
+     */
+    public record Payload(int version, byte[] salt, int kdfIterations, byte[] keyCheck, int flags,
+                          byte[] passwordHash, byte[] message) {
+
+        public boolean isDeflated() {
+            return (flags & FLAG_DEFLATE) != 0;
+        }
+    }
+
+    /**
+     * A GIF with a version 4 payload, ready to be written. Only the part of
+     * the file up to the last carrier segment the payload reaches is encoded
+     * again; the rest is sent from the source buffer unchanged, so writing
+     * needs no buffer the size of the file.
+     *
+     * The message is encrypted while it is written, a chunk at a time as the
+     * walk reaches the chunk's window, so no more than one chunk of
+     * ciphertext is held.
+     */
+    public static final class Embedding implements AutoCloseable {
+        private final ByteBuffer gif;
+        private final byte[] header;
+        private final StegoCipherEngine.Segmenter segmenter;
+        private final long windowBytes;
+        private BufferPool.Slab source;
+
+        private Embedding(ByteBuffer gif, byte[] header, StegoCipherEngine.Segmenter segmenter, long windowBytes) {
+            this.gif = gif;
+            this.header = header;
+            this.segmenter = segmenter;
+            this.windowBytes = windowBytes;
+        }
+
+        /** Makes {@link #close} give back {@code slab}, which holds the carrier. */
+        public Embedding closing(BufferPool.Slab slab) {
+            this.source = slab;
+            return this;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            embedFields(gif, out, fields()).finish();
+        }
+
+        /**
+         * Writes through {@code channel}. The untouched tail is handed to the
+         * channel as one buffer, so a mapped or direct source is not copied
+         * through the heap.
+         */
+        public void writeTo(WritableByteChannel channel) throws IOException {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), CHANNEL_BUFFER_BYTES);
+            int tail = embedFields(gif, out, fields()).finishPrefix();
+            out.flush();
+
+            ByteBuffer rest = gif.duplicate().position(tail);
+            while (rest.hasRemaining()) {
+                channel.write(rest);
+            }
+        }
+
+        /** Gives back the slab set by {@link #closing}, if any; the embedding is not written after this. */
+        @Override
+        public void close() {
+            if (source != null) {
+                source.close();
+            }
+        }
+
+        private List<CarrierField> fields() {
+            return List.of(new LsbField(header, HEADER_START), new WindowedField(segmenter.ciphertextLength(),
+                    CHUNK_FIELD_BYTES, MESSAGE_START, MESSAGE_START + windowBytes, salt(header), this::chunk));
+        }
+
+        private byte[] chunk(int index) {
+            try {
+                return segmenter.chunk(index);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not encrypt chunk " + index, e);
+            }
+        }
+    }
+
+    private StegoFormat() {
+    }
+
+    /**
+     * Largest encrypted payload in bytes the GIF can hold, nonce included,
+     * though the nonce is kept in the header. See
+     * {@link StegoCrypto#segmentedLength}.
+     */
+    public static int capacity(ByteBuffer gif) {
+        return capacity(GifCarrierReader.carrierBytes(gif));
+    }
+
+    /** Largest encrypted payload in bytes a carrier of {@code carrierBytes} can hold. */
+    public static int capacity(long carrierBytes) {
+        // Every chunk is rounded up to whole carrier bytes on its own; keep
+        // one carrier byte per chunk for that.
+        long available = carrierBytes - MESSAGE_START;
+        long chunks = (available * LsbField.LSB_BITS / 8 + CHUNK_FIELD_BYTES - 1) / CHUNK_FIELD_BYTES;
+        int ciphertext = capacity(carrierBytes - chunks, MESSAGE_START);
+        return ciphertext < StegoCrypto.GCM_TAG_BYTES ? 0 : (int) Math.min(Integer.MAX_VALUE, (long) ciphertext + StegoCrypto.GCM_IV_LENGTH);
+    }
+
+    /** Writes {@code gif} to {@code out} with a version 4 payload embedded. */
+    public static void embed(ByteBuffer gif, byte[] salt, byte[] keyCheck, int flags,
+                             StegoCipherEngine.Segmenter message, OutputStream out) throws IOException {
+        embedding(gif, salt, keyCheck, flags, message).writeTo(out);
+    }
+
+    /**
+     * {@code gif} with a version 4 payload, written when the caller is ready.
+     * {@code message} encrypts under a key derived from {@code salt} with
+     * {@link StegoCrypto#KDF_ITERATIONS}, and {@code keyCheck} is that key's
+     * {@link StegoCrypto#keyCheck}. {@link #FLAG_SEGMENTED} is added to
+     * {@code flags}.
+     */
+    public static Embedding embedding(ByteBuffer gif, byte[] salt, byte[] keyCheck, int flags, StegoCipherEngine.Segmenter message) {
+        long carrierBytes = GifCarrierReader.carrierBytes(gif);
+        long ciphertext = message.ciphertextLength();
+        if (StegoCrypto.GCM_IV_LENGTH + ciphertext > capacity(carrierBytes)) {
+            throw new IllegalArgumentException("Message does not fit the carrier.");
+        }
+        long windowBytes = Math.min(carrierBytes - MESSAGE_START,
+                WINDOW_SPREAD * WindowedField.carrierBytes(ciphertext, CHUNK_FIELD_BYTES));
+        byte[] header = keyedHeader(salt, keyCheck, message.nonce(), flags | FLAG_SEGMENTED)
+                .putLong(windowBytes)
+                .putInt((int) ciphertext)
+                .array();
+
+        return new Embedding(gif, header, message, windowBytes);
+    }
+
+    /** A version 4 header up to the flags, with room for the window and the length. */
+    private static ByteBuffer keyedHeader(byte[] salt, byte[] keyCheck, byte[] nonce, int flags) {
+        if (salt.length != StegoCrypto.SALT_BYTES) {
+            throw new IllegalArgumentException("Salt must be " + StegoCrypto.SALT_BYTES + " bytes.");
+        }
+        if (keyCheck.length != StegoCrypto.KEY_CHECK_BYTES) {
+            throw new IllegalArgumentException("Key check must be " + StegoCrypto.KEY_CHECK_BYTES + " bytes.");
+        }
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IllegalArgumentException("Unknown flags: " + flags);
+        }
+        return ByteBuffer.allocate(HEADER_BYTES)
+                .put(MAGIC)
+                .put((byte) VERSION_4)
+                .put(salt)
+                .put((byte) StegoCrypto.KDF_PBKDF2_SHA256)
+                .putInt(StegoCrypto.KDF_ITERATIONS)
+                .put(keyCheck)
+                .put(nonce)
+                .put((byte) flags);
+    }
+
+    /** Writes a version 0 payload, as older builds did. Kept for tests. */
+    static void embedV0(ByteBuffer gif, byte[] passwordHash, byte[] message, OutputStream out) throws IOException {
+        byte[] messageLength = ByteBuffer.allocate(MESSAGE_LENGTH_BYTES).putInt(message.length).array();
+
+        embedFields(gif, out, List.of(
+                new LsbField(passwordHash, V0_PASSWORD_HASH_START),
+                new LsbField(messageLength, V0_MESSAGE_LENGTH_START),
+                new LsbField(message, V0_MESSAGE_START))).finish();
+    }
+
+    /**
+     * Reads the payload back, whichever version it is. The header and the
+     * version 0 fields are read in the same pass, so the frames are decoded
+     * once either way.
+     *
+     * A version 0 length that does not fit the carrier is clamped to its
+     * capacity, so a missing payload still yields bytes and fails later at
+     * the password check. A header with an impossible length, an unknown KDF
+     * or an iteration count out of range is rejected. Returns null when the
+     * carrier is too small to hold the header.
+     *
+     * The walk stops where the payload ends, so on a memory-mapped file only
+     * the pages up to there are read. A version 4 payload ends with its
+     * window, a few times its own size past the header.
+     */
+    public static Payload extract(ByteBuffer gif) {
+        Payload payload = extract(gif, true);
+        return payload != null ? payload : extract(gif, false);
+    }
+
+    /**
+     * {@link #extract(ByteBuffer)} reading no more of {@code in} than the
+     * payload needs: the stream is read into {@code buffer}, from 0 up to its
+     * limit, in growing steps until the payload is complete within what has
+     * been read. Size the buffer for the whole file, such as from a multipart
+     * file's size; only a payload whose window reaches the end of the carrier
+     * needs all of it. A stream longer than the buffer is read no further and
+     * rejected if the payload is not complete by then. Input that does not
+     * start with {@code GIF89a} is rejected after its first 6 bytes.
+     */
+    public static Payload extract(InputStream in, ByteBuffer buffer) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        int size = buffer.limit();
+        ByteBuffer target = buffer.duplicate().position(0).limit(Math.min(6, size));
+        fill(channel, target);
+        if (!GifBlockIterator.isGif89a(buffer.duplicate().position(0).limit(target.position()).slice())) {
+            throw new IllegalArgumentException("Invalid GIF format. Expected GIF89a.");
+        }
+
+        long step = PREFIX_READ_BYTES;
+        while (true) {
+            target.limit((int) Math.min(size, step));
+            // A full buffer is the whole file only if the stream ends there too.
+            boolean complete = !fill(channel, target) || (target.position() == size && in.read() < 0);
+            int filled = target.position();
+            if (complete && filled < GifBlockIterator.LOGICAL_SCREEN_END) {
+                throw new IllegalArgumentException("Invalid GIF format. Expected GIF89a.");
+            }
+
+            ByteBuffer prefix = buffer.duplicate().position(0).limit(filled).slice();
+            Payload payload = extract(prefix, !complete);
+            if (complete || payload != null) {
+                return payload;
+            }
+            if (filled == size) {
+                throw new IllegalArgumentException("Image is larger than its declared size.");
+            }
+            step *= 2;
+        }
+    }
+
+    /** Reads into {@code target} up to its limit; false if the stream ended first. */
+    private static boolean fill(ReadableByteChannel channel, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * With {@code prefix} set, {@code gif} may be cut short: no capacity
+     * checks are made, and null means the payload was not complete before
+     * the end of the buffer.
+     */
+    private static Payload extract(ByteBuffer gif, boolean prefix) {
+        LsbField signature = new LsbField(MAGIC.length + 1, HEADER_START);
+        LsbField header = new LsbField(HEADER_BYTES, HEADER_START);
+        LsbField storedHash = new LsbField(StegoCrypto.PASSWORD_HASH_BYTES, V0_PASSWORD_HASH_START);
+        LsbField storedLength = new LsbField(MESSAGE_LENGTH_BYTES, V0_MESSAGE_LENGTH_START);
+        int version = VERSION_0;
+        CarrierField message = null;
+
+        GifCarrierReader reader = new GifCarrierReader(gif);
+        while (reader.next()) {
+            if (prefix && reader.atLimit()) {
+                return null;
+            }
+            signature.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+            header.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+            storedHash.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+            storedLength.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+
+            if (message == null && signature.isComplete() && headerVersion(signature.data()) == VERSION_4) {
+                version = VERSION_4;
+                if (!header.isComplete()) {
+                    continue;
+                }
+                long carrierBytes = prefix ? Long.MAX_VALUE : GifCarrierReader.carrierBytes(gif);
+                message = messageField(header.data(), carrierBytes);
+            } else if (message == null && signature.isComplete()) {
+                if (reader.position() > V0_MESSAGE_START) {
+                    // Part of the version 0 payload is in a segment already passed.
+                    break;
+                }
+                version = VERSION_0;
+                message = v0Message(gif, storedLength, prefix);
+            }
+
+            if (message != null) {
+                message.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+                if (message.isComplete()) {
+                    break;
+                }
+            }
+        }
+
+        if (message == null && storedLength.isComplete()) {
+            // No header; read the version 0 payload from the start.
+            version = VERSION_0;
+            message = v0Message(gif, storedLength, prefix);
+            reader = new GifCarrierReader(gif);
+            while (!message.isComplete() && reader.next()) {
+                if (prefix && reader.atLimit()) {
+                    return null;
+                }
+                message.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+            }
+        }
+        if (message == null || !message.isComplete()) {
+            return null;
+        }
+        if (version == VERSION_4) {
+            byte[] fields = header.data();
+            ByteBuffer kdf = ByteBuffer.wrap(fields, KDF_START + 1, Integer.BYTES);
+            // The message field left room for the nonce in front.
+            byte[] payload = message.data();
+            System.arraycopy(fields, NONCE_START, payload, 0, StegoCrypto.GCM_IV_LENGTH);
+            return new Payload(version, salt(fields), kdf.getInt(),
+                    Arrays.copyOfRange(fields, KEY_CHECK_START, KEY_CHECK_START + StegoCrypto.KEY_CHECK_BYTES),
+                    fields[FLAGS_START], null, payload);
+        }
+        return new Payload(VERSION_0, null, StegoCrypto.KDF_ITERATIONS, null, 0, storedHash.data(), message.data());
+    }
+
+    /** The message field a version 4 header describes, once the header is checked. */
+    private static CarrierField messageField(byte[] header, long carrierBytes) {
+        long windowBytes = ByteBuffer.wrap(header, WINDOW_START, Long.BYTES).getLong();
+        int messageLength = ByteBuffer.wrap(header, LENGTH_START, MESSAGE_LENGTH_BYTES).getInt();
+        if (StegoCrypto.segmentedChunks(messageLength) < 0
+                || !WindowedField.fits(messageLength, CHUNK_FIELD_BYTES, windowBytes)
+                || windowBytes > WINDOW_SPREAD * WindowedField.carrierBytes(messageLength, CHUNK_FIELD_BYTES)
+                || windowBytes > carrierBytes - MESSAGE_START) {
+            throw new IllegalArgumentException("Corrupted message header.");
+        }
+        int iterations = ByteBuffer.wrap(header, KDF_START + 1, Integer.BYTES).getInt();
+        // Only the count the writer uses: the header is not trusted, and each
+        // round is paid before the password can be checked.
+        if (header[KDF_START] != StegoCrypto.KDF_PBKDF2_SHA256 || iterations != StegoCrypto.KDF_ITERATIONS) {
+            throw new IllegalArgumentException("Unsupported key derivation in message header.");
+        }
+        if ((header[FLAGS_START] & ~KNOWN_FLAGS) != 0 || (header[FLAGS_START] & FLAG_SEGMENTED) == 0) {
+            throw new IllegalArgumentException("Unsupported flags in message header.");
+        }
+        // Room for the nonce, which is in the header, in front of the ciphertext.
+        byte[] payload = new byte[StegoCrypto.GCM_IV_LENGTH + messageLength];
+        return new WindowedField(payload, StegoCrypto.GCM_IV_LENGTH, messageLength, CHUNK_FIELD_BYTES,
+                MESSAGE_START, MESSAGE_START + windowBytes, salt(header));
+    }
+
+    private static LsbField v0Message(ByteBuffer gif, LsbField storedLength, boolean prefix) {
+        int messageLength = ByteBuffer.wrap(storedLength.data()).getInt();
+        // A prefix cannot tell the capacity; a length past it is clamped once
+        // the whole file has been read.
+        int maxCapacity = prefix ? Integer.MAX_VALUE : capacity(GifCarrierReader.carrierBytes(gif), V0_MESSAGE_START);
+        if (messageLength <= 0 || messageLength > maxCapacity) {
+            messageLength = Math.max(1, Math.min(maxCapacity, Math.abs(messageLength)));
+        }
+        return new LsbField(messageLength, V0_MESSAGE_START);
+    }
+
+    /** The version a header starts with, or {@link #VERSION_0} for anything else. */
+    private static int headerVersion(byte[] header) {
+        if (header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+            return VERSION_0;
+        }
+        return header[3] == VERSION_4 ? VERSION_4 : VERSION_0;
+    }
+
+    private static byte[] salt(byte[] header) {
+        return Arrays.copyOfRange(header, SALT_START, SALT_START + StegoCrypto.SALT_BYTES);
+    }
+
+    private static int capacity(long carrierBytes, long messageStart) {
+        long availableCarrierBytes = carrierBytes - messageStart;
+        if (availableCarrierBytes <= 0) {
+            return 0;
+        }
+
+        long capacity = availableCarrierBytes * LsbField.LSB_BITS / 8;
+        return (int) Math.min(Integer.MAX_VALUE, capacity);
+    }
+
+    /** Embeds every field and returns the writer, not yet finished. */
+    private static GifCarrierWriter embedFields(ByteBuffer gif, OutputStream out, List<? extends CarrierField> fields) {
+        GifCarrierWriter writer = new GifCarrierWriter(gif, out);
+        CarrierField last = fields.get(fields.size() - 1);
+        while (!last.isComplete() && writer.next()) {
+            for (CarrierField field : fields) {
+                field.embed(writer.carrier(), writer.offset(), writer.length(), writer.position());
+            }
+        }
+        return writer;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.piccrypt.stego;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits a carrier range into stripes that start on group boundaries and
+ * runs them on the fork/join pool. Stripes are forked into the pool the
+ * caller runs in, or the common pool when the caller is not a pool thread.
+ */
+final class Stripes {
+
+    /** Work on the carrier bytes {@code [from, to)}; returns a count to be summed. */
+    interface Work {
+        long run(int from, int to);
+    }
+
+    private Stripes() {
+    }
+
+    /**
+     * Runs {@code work} over {@code [from, to)}, split where the distance
+     * from {@code origin} is a multiple of {@link LsbCodec#GROUP_CARRIER_BYTES}.
+     * Ranges shorter than two stripes run on the calling thread.
+     */
+    static long run(int from, int to, long origin, int minStripe, Work work) {
+        if (to - from < 2L * minStripe) {
+            return work.run(from, to);
+        }
+        return new Task(from, to, origin, minStripe, work).invoke();
+    }
+
+    private static final class Task extends RecursiveTask<Long> {
+        private final int from;
+        private final int to;
+        private final long origin;
+        private final int minStripe;
+        private final Work work;
+
+        private Task(int from, int to, long origin, int minStripe, Work work) {
+            this.from = from;
+            this.to = to;
+            this.origin = origin;
+            this.minStripe = minStripe;
+            this.work = work;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from < 2L * minStripe) {
+                return work.run(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            middle -= (int) Math.floorMod(middle - origin, (long) LsbCodec.GROUP_CARRIER_BYTES);
+            if (middle <= from) {
+                return work.run(from, to);
+            }
+            Task right = new Task(middle, to, origin, minStripe, work);
+            right.fork();
+            long left = new Task(from, middle, origin, minStripe, work).compute();
+            return left + right.join();
+        }
+    }
+}
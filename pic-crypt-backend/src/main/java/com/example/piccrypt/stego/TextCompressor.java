@@ -0,0 +1,108 @@
+package com.example.piccrypt.stego;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate for message text, primed with a preset dictionary of common
+ * chat words and phrases in Ukrainian and English
+ * ({@code stego/text-dictionary.txt}, UTF-8). A chat message is too
+ * short for deflate to find repeats in itself; with the dictionary, common
+ * words are matched from the first byte.
+ *
+ * Text is stored compressed only when that makes it smaller, and the payload
+ * header says which, see {@link StegoFormat#FLAG_DEFLATE}.
+ */
+public final class TextCompressor {
+    /** Text longer than this is neither compressed nor inflated. */
+    public static final int MAX_TEXT_BYTES = 16 << 20;
+
+    /**
+     * Text bytes per compressed byte that capacity estimates assume, in
+     * percent. Kept well below what chat text reaches (see
+     * {@code TextCompressorTest}), which compresses better than most.
+     */
+    public static final int ESTIMATED_RATIO_PERCENT = 150;
+
+    // Common words in both languages; deflate reaches the end of the
+    // dictionary with the shortest distances, so the most common words go last.
+    private static final String DICTIONARY_RESOURCE = "/stego/text-dictionary.txt";
+    private static final byte[] DICTIONARY = loadDictionary();
+
+    private TextCompressor() {
+    }
+
+    /** {@code text} deflated, or null when that would not make it smaller. */
+    public static byte[] compress(byte[] text) {
+        if (text.length > MAX_TEXT_BYTES) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(text);
+            deflater.finish();
+
+            byte[] packed = new byte[text.length];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == packed.length) {
+                    return null;
+                }
+                length += deflater.deflate(packed, length, packed.length - length);
+            }
+            return length < text.length ? Arrays.copyOf(packed, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Inverse of {@link #compress}; fails on data it did not write. */
+    public static byte[] decompress(byte[] packed) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(packed);
+
+            byte[] text = new byte[Math.min(MAX_TEXT_BYTES, Math.max(64, packed.length * 4))];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == text.length) {
+                    if (text.length == MAX_TEXT_BYTES) {
+                        throw new DataFormatException("Text is longer than " + MAX_TEXT_BYTES + " bytes.");
+                    }
+                    text = Arrays.copyOf(text, (int) Math.min(MAX_TEXT_BYTES, text.length * 2L));
+                }
+                int inflated = inflater.inflate(text, length, text.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Compressed text is truncated.");
+                }
+                length += inflated;
+            }
+            return Arrays.copyOf(text, length);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Text bytes that {@code packedBytes} of compressed text are expected to hold. */
+    public static long estimatedTextBytes(long packedBytes) {
+        return packedBytes * ESTIMATED_RATIO_PERCENT / 100;
+    }
+
+    private static byte[] loadDictionary() {
+        try (InputStream in = TextCompressor.class.getResourceAsStream(DICTIONARY_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + DICTIONARY_RESOURCE);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
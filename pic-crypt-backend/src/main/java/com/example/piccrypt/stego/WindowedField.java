@@ -0,0 +1,144 @@
+package com.example.piccrypt.stego;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * A payload cut into chunks, each a {@link ScatteredField} over a window of
+ * the carrier of its own. The windows follow each other in carrier order,
+ * are sized in proportion to their chunks and together cover every carrier
+ * byte from {@code start} to {@code end}: the payload spreads over that
+ * range, and a chunk is only needed while the carrier walk is inside its
+ * window.
+ *
+ * Embedding takes each chunk from a {@link Source} when its window begins, so
+ * a chunk can be produced just in time and only one is held. Extraction fills
+ * one array, chunk after chunk.
+ */
+public final class WindowedField implements CarrierField {
+
+    /** Chunk {@code index}, at the start of the returned array. */
+    @FunctionalInterface
+    public interface Source {
+        byte[] chunk(int index);
+    }
+
+    private final int chunkBytes;
+    private final long length;
+    private final long[] windows;
+    private final byte[] salt;
+    private final Source source;
+    private final byte[] data;
+    private final int from;
+
+    private int current = -1;
+    private ScatteredField field;
+
+    /** Embeds {@code length} bytes in chunks of {@code chunkBytes}, taken from {@code source}. */
+    public WindowedField(long length, int chunkBytes, long start, long end, byte[] salt, Source source) {
+        this(null, 0, length, chunkBytes, start, end, salt, source);
+    }
+
+    /** Extracts {@code length} bytes in chunks of {@code chunkBytes} into {@code data} from {@code from} on. */
+    public WindowedField(byte[] data, int from, int length, int chunkBytes, long start, long end, byte[] salt) {
+        this(data, from, length, chunkBytes, start, end, salt, null);
+    }
+
+    private WindowedField(byte[] data, int from, long length, int chunkBytes, long start, long end,
+                          byte[] salt, Source source) {
+        if (!fits(length, chunkBytes, end - start)) {
+            throw new IllegalArgumentException("Field of " + length + " bytes does not fit " + (end - start) + " carrier bytes.");
+        }
+        this.data = data;
+        this.from = from;
+        this.length = length;
+        this.chunkBytes = chunkBytes;
+        this.salt = salt;
+        this.source = source;
+
+        int chunks = chunks(length, chunkBytes);
+        long slots = carrierBytes(length, chunkBytes);
+        long surplus = end - start - slots;
+        windows = new long[chunks + 1];
+        for (int chunk = 0; chunk <= chunks; chunk++) {
+            long before = chunk == chunks ? slots : chunk * LsbField.carrierBytes(chunkBytes);
+            windows[chunk] = start + before + share(surplus, before, slots);
+        }
+    }
+
+    /** Whether {@code length} bytes in chunks of {@code chunkBytes} fit {@code carrierBytes}. */
+    public static boolean fits(long length, int chunkBytes, long carrierBytes) {
+        return length > 0 && carrierBytes(length, chunkBytes) <= carrierBytes;
+    }
+
+    /** Carrier bytes {@code length} bytes in chunks of {@code chunkBytes} need, each chunk rounded up on its own. */
+    public static long carrierBytes(long length, int chunkBytes) {
+        long full = length / chunkBytes;
+        return full * LsbField.carrierBytes(chunkBytes) + LsbField.carrierBytes(length - full * chunkBytes);
+    }
+
+    /** {@code null} while embedding; the chunks are not kept. */
+    @Override
+    public byte[] data() {
+        return data;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return current == windows.length - 2 && field.isComplete();
+    }
+
+    @Override
+    public void embed(byte[] carrier, int offset, int length, long position) {
+        for (int chunk = firstWindow(position); chunk < windows.length - 1 && windows[chunk] < position + length; chunk++) {
+            field(chunk).embed(carrier, offset, length, position);
+        }
+    }
+
+    @Override
+    public void extract(byte[] carrier, int offset, int length, long position) {
+        for (int chunk = firstWindow(position); chunk < windows.length - 1 && windows[chunk] < position + length; chunk++) {
+            field(chunk).extract(carrier, offset, length, position);
+        }
+    }
+
+    private int firstWindow(long position) {
+        int chunk = Math.max(0, current);
+        while (chunk < windows.length - 1 && windows[chunk + 1] <= position) {
+            chunk++;
+        }
+        return chunk;
+    }
+
+    private ScatteredField field(int chunk) {
+        if (chunk != current) {
+            int bytes = (int) Math.min(chunkBytes, length - (long) chunk * chunkBytes);
+            FeistelPermutation order = new FeistelPermutation(windowKey(chunk), windows[chunk + 1] - windows[chunk]);
+            if (source != null) {
+                field = new ScatteredField(source.chunk(chunk), 0, bytes, windows[chunk], order);
+            } else {
+                int chunkFrom = from + chunk * chunkBytes;
+                field = new ScatteredField(data, chunkFrom, chunkFrom + bytes, windows[chunk], order);
+            }
+            current = chunk;
+        }
+        return field;
+    }
+
+    private byte[] windowKey(int chunk) {
+        return ByteBuffer.allocate(salt.length + Integer.BYTES).put(salt).putInt(chunk).array();
+    }
+
+    private static int chunks(long length, int chunkBytes) {
+        return (int) ((length + chunkBytes - 1) / chunkBytes);
+    }
+
+    // floor(surplus * part / whole), which may not fit a long before the division.
+    private static long share(long surplus, long part, long whole) {
+        try {
+            return Math.multiplyExact(surplus, part) / whole;
+        } catch (ArithmeticException e) {
+            return BigInteger.valueOf(surplus).multiply(BigInteger.valueOf(part)).divide(BigInteger.valueOf(whole)).longValueExact();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.piccrypt.storage;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Blob keys: {@code <hash><extension>} for stored content and
+ * {@code <hash>-<suffix>} for what is derived from it, where the hash is
+ * the first 16 bytes of the SHA-256 of the content in hex. Both live in
+ * the directory named by the first four characters of the hash.
+ */
+public final class BlobKeys {
+    public static final int HASH_BYTES = 16;
+    public static final int HASH_CHARS = HASH_BYTES * 2;
+
+    private static final Pattern HASHED = Pattern.compile("[0-9a-f]{32}(\\.[a-z0-9]+)?");
+    private static final Pattern DERIVED = Pattern.compile("[0-9a-f]{32}-[a-z0-9]+(\\.[a-z0-9]+)?");
+    private static final Pattern LEGACY = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+    private BlobKeys() {
+    }
+
+    public static String key(MessageDigest digest, String extension) {
+        return HexFormat.of().formatHex(digest.digest(), 0, HASH_BYTES) + extension;
+    }
+
+    /** Whether {@code key} names stored content, as opposed to a derived or legacy file. */
+    public static boolean isHashed(String key) {
+        return key != null && HASHED.matcher(key).matches();
+    }
+
+    public static boolean isDerived(String key) {
+        return key != null && DERIVED.matcher(key).matches();
+    }
+
+    /**
+     * Whether {@code key} can name a file in the store at all. Anything that
+     * could leave the store's directory, or is one of its own working files,
+     * is refused.
+     */
+    public static boolean isValid(String key) {
+        return key != null && LEGACY.matcher(key).matches() && !key.contains("..")
+                && !key.endsWith(".part") && !key.endsWith(".refs");
+    }
+
+    public static String derived(String key, String suffix) {
+        return hash(key) + "-" + suffix;
+    }
+
+    /** The hash a stored or derived key starts with. */
+    public static String hash(String key) {
+        return key.substring(0, HASH_CHARS);
+    }
+
+    /** {@code ab/cd/<key>} for a stored or derived key. */
+    public static String sharded(String key) {
+        return key.substring(0, 2) + "/" + key.substring(2, 4) + "/" + key;
+    }
+
+    public static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.piccrypt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
+
+/**
+ * Uploaded media, addressed by the hash of its content.
+ *
+ * A blob's key is the first 16 bytes of the SHA-256 of its content in hex,
+ * followed by its extension, and is computed while the content is written.
+ * Putting content that is already stored keeps the stored copy and counts
+ * one more reference to it; {@link #release} drops one, and the last one
+ * deletes the blob together with the blobs derived from it.
+ *
+ * Keys that are not hashes name files written before the store existed.
+ * They can be read, released and listed, but never come out of {@link #put}.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores what {@code writer} writes and returns its key. Readers never
+     * see the blob until it is complete.
+     */
+    <E extends Exception> String put(String extension, BlobWriter<E> writer) throws IOException, E;
+
+    /**
+     * Stores a blob made from {@code key}, such as a resized copy, under
+     * {@link BlobKeys#derived}. It has no references of its own and goes
+     * when its source goes; if the source is already gone, nothing is kept.
+     */
+    <E extends Exception> void putDerived(String key, String suffix, BlobWriter<E> writer) throws IOException, E;
+
+    boolean exists(String key);
+
+    /** The whole blob, mapped where the backend allows it. */
+    ByteBuffer read(String key) throws IOException;
+
+    InputStream open(String key) throws IOException;
+
+    /** Counts one more reference to a stored blob. */
+    void retain(String key) throws IOException;
+
+    /**
+     * Drops one reference, deleting the blob and what was derived from it
+     * with the last one. Returns whether the blob was deleted.
+     */
+    boolean release(String key) throws IOException;
+
+    /**
+     * Deletes a blob and what was derived from it whatever its references,
+     * for blobs nothing points to any more. Returns whether it existed.
+     */
+    boolean delete(String key) throws IOException;
+
+    /** References to a stored blob, or 0 if it is not stored. */
+    int references(String key) throws IOException;
+
+    /** Where the blob lives relative to the root of the store, for building its URL. */
+    String path(String key);
+
+    /**
+     * Visits every stored blob, derived ones excepted, in no particular
+     * order, until {@code visitor} returns false. The listing is streamed,
+     * so a visitor may take its time and may delete what it visits.
+     */
+    void forEach(BlobVisitor visitor) throws IOException;
+
+    /**
+     * A stored blob as listed by {@link #forEach}. {@code lastModified} is
+     * when it was last put, so content that is uploaded again looks new.
+     */
+    record BlobInfo(String key, long size, Instant lastModified) {
+    }
+
+    @FunctionalInterface
+    interface BlobVisitor {
+        boolean visit(BlobInfo blob) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface BlobWriter<E extends Exception> {
+        void write(WritableByteChannel out) throws IOException, E;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.piccrypt.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+/** Hashes what is written through it, so content is hashed on its way to the store. */
+final class DigestingChannel implements WritableByteChannel {
+    private final WritableByteChannel target;
+    private final MessageDigest digest;
+
+    DigestingChannel(WritableByteChannel target, MessageDigest digest) {
+        this.target = target;
+        this.digest = digest;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ByteBuffer written = src.duplicate();
+        int count = target.write(src);
+        written.limit(written.position() + count);
+        digest.update(written);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return target.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        target.close();
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.piccrypt.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Blobs as files under {@code root}, two directory levels deep by the first
+ * characters of their hash so that no directory grows past a few thousand
+ * entries.
+ *
+ * Content is written to a temporary file in the root and moved into place
+ * atomically. A blob with more than one reference has a {@code .refs} file
+ * next to it holding the count; most blobs have one and need no file.
+ * Changes to one blob are serialized within this process only, so the
+ * store's directory must not be shared between instances.
+ *
+ * Files written before the store existed sit directly in the root and are
+ * found there.
+ */
+public class FileSystemBlobStore implements BlobStore {
+    private static final String PARTIAL = ".part";
+    private static final String REFS = ".refs";
+    private static final int LOCK_STRIPES = 64;
+    private static final Pattern SHARD = Pattern.compile("[0-9a-f]{2}");
+
+    private final Path root;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public FileSystemBlobStore(Path root) throws IOException {
+        this.root = root.toAbsolutePath().normalize();
+        Files.createDirectories(this.root);
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @Override
+    public <E extends Exception> String put(String extension, BlobWriter<E> writer) throws IOException, E {
+        Path partial = root.resolve(UUID.randomUUID() + PARTIAL);
+        try {
+            MessageDigest digest = BlobKeys.sha256();
+            try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writer.write(new DigestingChannel(out, digest));
+            }
+            String key = BlobKeys.key(digest, extension);
+            synchronized (lock(key)) {
+                Path file = locate(key);
+                if (Files.exists(file)) {
+                    writeReferences(file, readReferences(file) + 1);
+                    Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+                } else {
+                    Files.createDirectories(file.getParent());
+                    Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            return key;
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    @Override
+    public <E extends Exception> void putDerived(String key, String suffix, BlobWriter<E> writer) throws IOException, E {
+        Path partial = root.resolve(UUID.randomUUID() + PARTIAL);
+        try {
+            try (FileChannel out = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writer.write(out);
+            }
+            synchronized (lock(key)) {
+                if (!exists(key)) {
+                    return;
+                }
+                Path file = locate(BlobKeys.derived(key, suffix));
+                Files.createDirectories(file.getParent());
+                Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return BlobKeys.isValid(key) && Files.isRegularFile(locate(key));
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(existing(key), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(existing(key));
+    }
+
+    @Override
+    public void retain(String key) throws IOException {
+        synchronized (lock(key)) {
+            Path file = existing(key);
+            writeReferences(file, readReferences(file) + 1);
+        }
+    }
+
+    @Override
+    public boolean release(String key) throws IOException {
+        if (!BlobKeys.isValid(key)) {
+            return false;
+        }
+        synchronized (lock(key)) {
+            Path file = locate(key);
+            if (!Files.exists(file)) {
+                return false;
+            }
+            int references = readReferences(file);
+            if (references > 1) {
+                writeReferences(file, references - 1);
+                return false;
+            }
+            deleteFiles(key, file);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        if (!BlobKeys.isValid(key)) {
+            return false;
+        }
+        synchronized (lock(key)) {
+            Path file = locate(key);
+            if (!Files.exists(file)) {
+                return false;
+            }
+            deleteFiles(key, file);
+            return true;
+        }
+    }
+
+    @Override
+    public int references(String key) throws IOException {
+        if (!exists(key)) {
+            return 0;
+        }
+        synchronized (lock(key)) {
+            Path file = locate(key);
+            return Files.exists(file) ? readReferences(file) : 0;
+        }
+    }
+
+    @Override
+    public String path(String key) {
+        return root.relativize(locate(key)).toString().replace('\\', '/');
+    }
+
+    /** Entries of the root as they come, descending into shard directories on the way. */
+    @Override
+    public void forEach(BlobVisitor visitor) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                boolean more = SHARD.matcher(entry.getFileName().toString()).matches() && Files.isDirectory(entry)
+                        ? visitShard(entry, visitor)
+                        : visit(entry, visitor);
+                if (!more) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private boolean visitShard(Path shard, BlobVisitor visitor) throws IOException {
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(shard)) {
+            for (Path dir : dirs) {
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        if (!visit(file, visitor)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean visit(Path file, BlobVisitor visitor) throws IOException {
+        String key = file.getFileName().toString();
+        if (!BlobKeys.isValid(key) || BlobKeys.isDerived(key)) {
+            return true;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+        if (!attributes.isRegularFile()) {
+            return true;
+        }
+        return visitor.visit(new BlobInfo(key, attributes.size(), attributes.lastModifiedTime().toInstant()));
+    }
+
+    /**
+     * The file for {@code key}: its shard for a hash key, unless an older
+     * copy sits in the root, and the root for anything else.
+     */
+    private Path locate(String key) {
+        if (!BlobKeys.isValid(key)) {
+            throw new IllegalArgumentException("Not a blob key: " + key);
+        }
+        if (!BlobKeys.isHashed(key) && !BlobKeys.isDerived(key)) {
+            return root.resolve(key);
+        }
+        Path sharded = root.resolve(BlobKeys.sharded(key));
+        Path flat = root.resolve(key);
+        return !Files.exists(sharded) && Files.exists(flat) ? flat : sharded;
+    }
+
+    private Path existing(String key) throws IOException {
+        if (!exists(key)) {
+            throw new NoSuchFileException(key);
+        }
+        return locate(key);
+    }
+
+    private void deleteFiles(String key, Path file) throws IOException {
+        Files.deleteIfExists(refsFile(file));
+        Files.deleteIfExists(file);
+        if (BlobKeys.isHashed(key)) {
+            deleteDerived(key);
+        }
+    }
+
+    private void deleteDerived(String key) throws IOException {
+        String prefix = BlobKeys.derived(key, "");
+        for (Path dir : new Path[] {root.resolve(BlobKeys.sharded(key)).getParent(), root}) {
+            try (DirectoryStream<Path> derived = Files.newDirectoryStream(dir, prefix + "*")) {
+                for (Path file : derived) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (NoSuchFileException e) {
+                // No shard directory, so nothing was derived there.
+            }
+        }
+    }
+
+    private static int readReferences(Path file) throws IOException {
+        Path refs = refsFile(file);
+        if (!Files.exists(refs)) {
+            return 1;
+        }
+        return Integer.parseInt(Files.readString(refs, StandardCharsets.US_ASCII).trim());
+    }
+
+    /** One reference needs no file; more are written beside the blob and moved into place. */
+    private static void writeReferences(Path file, int references) throws IOException {
+        Path refs = refsFile(file);
+        if (references <= 1) {
+            Files.deleteIfExists(refs);
+            return;
+        }
+        Path partial = refs.resolveSibling(refs.getFileName() + PARTIAL);
+        Files.writeString(partial, Integer.toString(references), StandardCharsets.US_ASCII);
+        Files.move(partial, refs, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Path refsFile(Path file) {
+        return file.resolveSibling(file.getFileName() + REFS);
+    }
+
+    // Derived blobs share the lock of their source.
+    private Object lock(String key) {
+        String owner = BlobKeys.isHashed(key) || BlobKeys.isDerived(key) ? BlobKeys.hash(key) : key;
+        return locks[Math.floorMod(owner.hashCode(), locks.length)];
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.piccrypt.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.NoSuchFileException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Blobs held on the heap, for tests and for running without a disk. Keys
+ * and reference counts behave as in {@link FileSystemBlobStore}; paths are
+ * sharded the same way but point nowhere.
+ */
+public class InMemoryBlobStore implements BlobStore {
+    private final Map<String, Blob> blobs = new HashMap<>();
+
+    private static final class Blob {
+        private final byte[] content;
+        private int references = 1;
+        private Instant lastModified = Instant.now();
+
+        private Blob(byte[] content) {
+            this.content = content;
+        }
+    }
+
+    @Override
+    public <E extends Exception> String put(String extension, BlobWriter<E> writer) throws IOException, E {
+        MessageDigest digest = BlobKeys.sha256();
+        byte[] content = write(writer, digest);
+        String key = BlobKeys.key(digest, extension);
+        synchronized (blobs) {
+            Blob blob = blobs.get(key);
+            if (blob != null) {
+                blob.references++;
+                blob.lastModified = Instant.now();
+            } else {
+                blobs.put(key, new Blob(content));
+            }
+        }
+        return key;
+    }
+
+    @Override
+    public <E extends Exception> void putDerived(String key, String suffix, BlobWriter<E> writer) throws IOException, E {
+        byte[] content = write(writer, BlobKeys.sha256());
+        synchronized (blobs) {
+            if (blobs.containsKey(key)) {
+                blobs.put(BlobKeys.derived(key, suffix), new Blob(content));
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        synchronized (blobs) {
+            return blobs.containsKey(key);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String key) throws IOException {
+        return ByteBuffer.wrap(stored(key).content).asReadOnlyBuffer();
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return new ByteArrayInputStream(stored(key).content);
+    }
+
+    @Override
+    public void retain(String key) throws IOException {
+        synchronized (blobs) {
+            stored(key).references++;
+        }
+    }
+
+    @Override
+    public boolean release(String key) {
+        synchronized (blobs) {
+            Blob blob = blobs.get(key);
+            if (blob == null) {
+                return false;
+            }
+            if (--blob.references > 0) {
+                return false;
+            }
+            remove(key);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) {
+        synchronized (blobs) {
+            if (!blobs.containsKey(key)) {
+                return false;
+            }
+            remove(key);
+            return true;
+        }
+    }
+
+    @Override
+    public int references(String key) {
+        synchronized (blobs) {
+            Blob blob = blobs.get(key);
+            return blob == null ? 0 : blob.references;
+        }
+    }
+
+    @Override
+    public String path(String key) {
+        return BlobKeys.isHashed(key) || BlobKeys.isDerived(key) ? BlobKeys.sharded(key) : key;
+    }
+
+    /** Visits a snapshot, so the visitor may change the store as it goes. */
+    @Override
+    public void forEach(BlobVisitor visitor) throws IOException {
+        List<BlobInfo> snapshot = new ArrayList<>();
+        synchronized (blobs) {
+            blobs.forEach((key, blob) -> {
+                if (!BlobKeys.isDerived(key)) {
+                    snapshot.add(new BlobInfo(key, blob.content.length, blob.lastModified));
+                }
+            });
+        }
+        for (BlobInfo blob : snapshot) {
+            if (!visitor.visit(blob)) {
+                return;
+            }
+        }
+    }
+
+    // Called holding the map's lock.
+    private void remove(String key) {
+        blobs.remove(key);
+        if (BlobKeys.isHashed(key)) {
+            String prefix = BlobKeys.derived(key, "");
+            blobs.keySet().removeIf(other -> other.startsWith(prefix));
+        }
+    }
+
+    private Blob stored(String key) throws NoSuchFileException {
+        synchronized (blobs) {
+            Blob blob = blobs.get(key);
+            if (blob == null) {
+                throw new NoSuchFileException(key);
+            }
+            return blob;
+        }
+    }
+
+    private static <E extends Exception> byte[] write(BlobWriter<E> writer, MessageDigest digest) throws IOException, E {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(new DigestingChannel(Channels.newChannel(out), digest));
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.piccrypt.types;
+
+public enum StegoJobStatus {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+}
@@ -0,0 +1,6 @@
+package com.example.piccrypt.types;
+
+public enum StegoJobType {
+    ENCRYPT,
+    DECRYPT,
+}
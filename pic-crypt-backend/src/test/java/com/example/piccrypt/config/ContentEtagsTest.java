@@ -0,0 +1,82 @@
+package com.example.piccrypt.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.FileSystemResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentEtagsTest {
+    private final Map<Path, Integer> reads = new HashMap<>();
+
+    @Test
+    void hashesEachFileOnceUntilItChanges() throws IOException {
+        Path root = Files.createTempDirectory("etags");
+        Path file = write(root.resolve("a.png"), "first");
+        ContentEtags etags = new ContentEtags(10);
+
+        String tag = etags.apply(resource(file));
+        assertEquals(tag, etags.apply(resource(file)));
+        assertEquals(1, reads(file));
+        assertTrue(tag.matches("\"[A-Za-z0-9_-]{22}\""), tag);
+
+        // Same size, so only the modification time tells the change apart.
+        write(file, "other");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        String changed = etags.apply(resource(file));
+
+        assertNotEquals(tag, changed);
+        assertEquals(2, reads(file));
+        assertEquals(changed, new ContentEtags(10).apply(resource(file)));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedTag() throws IOException {
+        Path root = Files.createTempDirectory("etags");
+        Path a = write(root.resolve("a.png"), "a");
+        Path b = write(root.resolve("b.png"), "b");
+        Path c = write(root.resolve("c.png"), "c");
+        ContentEtags etags = new ContentEtags(2);
+
+        etags.apply(resource(a));
+        etags.apply(resource(b));
+        etags.apply(resource(a));
+        etags.apply(resource(c));
+
+        etags.apply(resource(a));
+        etags.apply(resource(c));
+        assertEquals(1, reads(a));
+        assertEquals(1, reads(c));
+        etags.apply(resource(b));
+        assertEquals(2, reads(b));
+    }
+
+    /** A file resource that counts how often its content is read. */
+    private FileSystemResource resource(Path file) {
+        return new FileSystemResource(file) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                reads.merge(file, 1, Integer::sum);
+                return super.getInputStream();
+            }
+        };
+    }
+
+    private int reads(Path file) {
+        return reads.getOrDefault(file, 0);
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.piccrypt.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SendfileResourceConverterTest {
+    private static final String SUPPORTED = "org.apache.tomcat.sendfile.support";
+    private static final String FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final int MIN_SIZE = 1024;
+
+    private final SendfileResourceConverter converter = new SendfileResourceConverter(MIN_SIZE);
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+
+    @AfterEach
+    void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void leavesLargeFilesToSendfile() throws IOException {
+        Path file = file(4 * MIN_SIZE);
+        request.setAttribute(SUPPORTED, Boolean.TRUE);
+
+        MockHttpServletResponse response = write(new FileSystemResource(file));
+
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(file.toFile().getCanonicalPath(), request.getAttribute(FILENAME));
+        assertEquals(0L, request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(4L * MIN_SIZE, request.getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(4 * MIN_SIZE, response.getContentLength());
+    }
+
+    @Test
+    void writesTheBodyWithoutSendfileSupport() throws IOException {
+        Path file = file(4 * MIN_SIZE);
+
+        MockHttpServletResponse response = write(new FileSystemResource(file));
+
+        assertArrayEquals(Files.readAllBytes(file), response.getContentAsByteArray());
+        assertNull(request.getAttribute(FILENAME));
+    }
+
+    @Test
+    void writesSmallFilesAndNonFilesItself() throws IOException {
+        Path file = file(MIN_SIZE - 1);
+        byte[] bytes = new byte[4 * MIN_SIZE];
+        new Random(1).nextBytes(bytes);
+        request.setAttribute(SUPPORTED, Boolean.TRUE);
+
+        assertArrayEquals(Files.readAllBytes(file), write(new FileSystemResource(file)).getContentAsByteArray());
+        assertArrayEquals(bytes, write(new ByteArrayResource(bytes)).getContentAsByteArray());
+        assertNull(request.getAttribute(FILENAME));
+    }
+
+    private MockHttpServletResponse write(Resource resource) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        converter.write(resource, MediaType.IMAGE_PNG, new ServletServerHttpResponse(response));
+        return response;
+    }
+
+    private static Path file(int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return Files.write(Files.createTempFile("sendfile", ".png"), content);
+    }
+}
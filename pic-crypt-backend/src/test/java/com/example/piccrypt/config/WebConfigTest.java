@@ -0,0 +1,131 @@
+package com.example.piccrypt.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(classes = WebConfigTest.Web.class, properties = "app.static.max-age=365d")
+class WebConfigTest {
+    private static final String UPLOAD = "0a/1b/0a1b2c3d4e5f60718293a4b5c6d7e8f9.png";
+
+    @TempDir
+    static Path avatars;
+
+    @TempDir
+    static Path messages;
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    @Qualifier("resourceHandlerMapping")
+    private HandlerMapping resourceHandlers;
+
+    private MockMvc mvc;
+
+    @Configuration
+    @EnableWebMvc
+    @Import(WebConfig.class)
+    static class Web {
+    }
+
+    @DynamicPropertySource
+    static void directories(DynamicPropertyRegistry registry) {
+        registry.add("app.avatars.dir", avatars::toString);
+        registry.add("app.messages.dir", messages::toString);
+    }
+
+    @BeforeEach
+    void setUp() {
+        mvc = MockMvcBuilders.webAppContextSetup(context).build();
+    }
+
+    @Test
+    void revalidatesDefaultAvatars() throws Exception {
+        mvc.perform(get("/static/avatars/user-default.png"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue()))
+                .andExpect(header().exists(HttpHeaders.ETAG));
+    }
+
+    @Test
+    void servesUploadsAsImmutable() throws Exception {
+        // Above the sendfile minimum: a request without sendfile support still gets the body.
+        byte[] avatar = upload(avatars, 64 * 1024);
+        byte[] image = upload(messages, 1024);
+
+        mvc.perform(get("/static/avatars/" + UPLOAD))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL,
+                        CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable().getHeaderValue()))
+                .andExpect(content().bytes(avatar));
+        mvc.perform(get("/static/messages/" + UPLOAD))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL,
+                        CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable().getHeaderValue()))
+                .andExpect(content().bytes(image));
+    }
+
+    @Test
+    void answersAMatchingEtagWithNotModified() throws Exception {
+        upload(avatars, 1024);
+        String etag = mvc.perform(get("/static/avatars/" + UPLOAD))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mvc.perform(get("/static/avatars/" + UPLOAD).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+        mvc.perform(get("/static/avatars/" + UPLOAD).header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void givesEveryResourceHandlerTheSendfileConverter() {
+        var handlers = ((SimpleUrlHandlerMapping) resourceHandlers).getHandlerMap().values();
+
+        assertFalse(handlers.isEmpty());
+        for (Object handler : handlers) {
+            assertInstanceOf(SendfileResourceConverter.class,
+                    ((ResourceHttpRequestHandler) handler).getResourceHttpMessageConverter());
+        }
+    }
+
+    private static byte[] upload(Path root, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path file = root.resolve(UPLOAD);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return content;
+    }
+}
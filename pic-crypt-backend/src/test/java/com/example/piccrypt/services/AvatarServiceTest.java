@@ -0,0 +1,174 @@
+package com.example.piccrypt.services;
+
+import com.example.piccrypt.exceptions.GeneralException;
+import com.example.piccrypt.storage.BlobKeys;
+import com.example.piccrypt.storage.BlobStore;
+import com.example.piccrypt.storage.InMemoryBlobStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockMultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvatarServiceTest {
+    private static final String BASE_URL = "/static/avatars/";
+    private static final List<Integer> SIZES = List.of(32, 64);
+
+    private final BlobStore store = new InMemoryBlobStore();
+    private final AvatarService service = new AvatarService(store, BASE_URL, SIZES, 1, 4);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void storesSquareVariantsOnceBuilt() throws Exception {
+        String url = service.store(upload("photo.jpg", image(300, 200, "jpg")));
+        String key = keyOf(url);
+
+        Map<Integer, String> variants = awaitVariants(url);
+
+        for (int size : SIZES) {
+            String variantKey = BlobKeys.derived(key, size + ".jpg");
+            assertEquals(BASE_URL + store.path(variantKey), variants.get(size));
+            BufferedImage variant = read(variantKey);
+            assertEquals(size, variant.getWidth());
+            assertEquals(size, variant.getHeight());
+        }
+    }
+
+    @Test
+    void requeuesStoredAvatarsWithoutVariants() throws Exception {
+        byte[] png = image(80, 120, "png");
+        String key = store.put(".png", out -> out.write(ByteBuffer.wrap(png)));
+        String url = BASE_URL + store.path(key);
+
+        assertEquals(url, service.variants(url).get(32));
+        Map<Integer, String> variants = awaitVariants(url);
+
+        assertEquals(BASE_URL + store.path(BlobKeys.derived(key, "32.png")), variants.get(32));
+    }
+
+    @Test
+    void keepsTheOriginalWhenVariantsFail() throws Exception {
+        String key = store.put(".png", out -> out.write(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        String url = BASE_URL + store.path(key);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Map.of(32, url, 64, url), service.variants(url));
+            Thread.sleep(10);
+        }
+        assertFalse(store.exists(BlobKeys.derived(key, "32.png")));
+    }
+
+    @Test
+    void releasesTheAvatarWithItsLastReference() throws Exception {
+        byte[] png = image(100, 100, "png");
+        String url = service.store(upload("a.png", png));
+        assertEquals(url, service.store(upload("b.png", png)));
+        String key = keyOf(url);
+        awaitVariants(url);
+
+        service.release(url);
+        assertTrue(store.exists(key));
+        service.release(url);
+        service.release(BASE_URL + "user-default.png");
+
+        assertFalse(store.exists(key));
+        assertFalse(store.exists(BlobKeys.derived(key, "64.png")));
+        assertEquals(Map.of(32, url, 64, url), service.variants(url));
+    }
+
+    @Test
+    void rejectsUnreadableImages() {
+        GeneralException e = assertThrows(GeneralException.class,
+                () -> service.store(upload("a.png", new byte[] {1, 2, 3})));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.status);
+        assertEquals("Not a readable image", e.getMessage());
+    }
+
+    @Test
+    void rejectsImagesAboveThePixelBudgetFromTheHeader() throws Exception {
+        GeneralException e = assertThrows(GeneralException.class,
+                () -> service.store(upload("bomb.png", pngHeader(40_000, 40_000))));
+
+        assertEquals(HttpStatus.BAD_REQUEST, e.status);
+        assertTrue(e.getMessage().startsWith("Image is too large: 40000x40000"));
+    }
+
+    private Map<Integer, String> awaitVariants(String url) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Map<Integer, String> variants = service.variants(url);
+        while (variants.get(SIZES.get(0)).equals(url) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            variants = service.variants(url);
+        }
+        assertNotEquals(url, variants.get(SIZES.get(0)));
+        return variants;
+    }
+
+    private BufferedImage read(String key) throws IOException {
+        try (InputStream in = store.open(key)) {
+            return ImageIO.read(in);
+        }
+    }
+
+    private static String keyOf(String url) {
+        return url.substring(url.lastIndexOf('/') + 1);
+    }
+
+    private static MockMultipartFile upload(String name, byte[] content) {
+        return new MockMultipartFile("file", name, "image/*", content);
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    // A PNG signature and IHDR chunk only: the header alone declares the size.
+    private static byte[] pngHeader(int width, int height) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        byte[] chunk = ByteBuffer.allocate(17)
+                .put("IHDR".getBytes(StandardCharsets.US_ASCII))
+                .putInt(width)
+                .putInt(height)
+                .put(new byte[] {8, 2, 0, 0, 0})
+                .array();
+        CRC32 crc = new CRC32();
+        crc.update(chunk);
+        out.writeInt(13);
+        out.write(chunk);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.piccrypt.services;
+
+import com.example.piccrypt.repositories.GroupChatInfoRepository;
+import com.example.piccrypt.repositories.MediaReference;
+import com.example.piccrypt.repositories.MessageRepository;
+import com.example.piccrypt.repositories.UserRepository;
+import com.example.piccrypt.storage.BlobStore;
+import com.example.piccrypt.storage.InMemoryBlobStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MediaCollectorTest {
+    private static final String MESSAGES = "/static/messages/";
+    private static final String AVATARS = "/static/avatars/";
+
+    private final BlobStore messageStore = new InMemoryBlobStore();
+    private final BlobStore avatarStore = new InMemoryBlobStore();
+    private final Rows messages = new Rows();
+    private final Rows users = new Rows();
+    private final Rows chats = new Rows();
+
+    @Test
+    void deletesOnlyFilesNoRowPointsAt() throws Exception {
+        String kept = put(messageStore, 1);
+        String orphan = put(messageStore, 2);
+        String otherOrphan = put(messageStore, 3);
+        String avatar = put(avatarStore, 4);
+        String oldAvatar = put(avatarStore, 5);
+        messages.add(1, MESSAGES + messageStore.path(kept));
+        users.add(1, AVATARS + avatarStore.path(avatar));
+
+        List<MediaCollector.Report> reports = collector(false, Duration.ZERO).collect();
+
+        assertTrue(messageStore.exists(kept));
+        assertFalse(messageStore.exists(orphan));
+        assertFalse(messageStore.exists(otherOrphan));
+        assertTrue(avatarStore.exists(avatar));
+        assertFalse(avatarStore.exists(oldAvatar));
+        assertEquals(3, reports.get(0).scanned());
+        assertEquals(2, reports.get(0).deleted());
+        assertEquals(1, reports.get(1).deleted());
+    }
+
+    @Test
+    void keepsFilesYoungerThanTheGracePeriod() throws Exception {
+        String first = put(messageStore, 1);
+        String second = put(messageStore, 2);
+
+        MediaCollector.Report report = collector(false, Duration.ofHours(1)).collect().get(0);
+
+        assertTrue(messageStore.exists(first));
+        assertTrue(messageStore.exists(second));
+        assertEquals(2, report.recent());
+        assertEquals(0, report.orphans());
+    }
+
+    @Test
+    void dryRunReportsOrphansWithoutDeleting() throws Exception {
+        String kept = put(messageStore, 1);
+        String orphan = put(messageStore, 2);
+        messages.add(1, MESSAGES + messageStore.path(kept));
+
+        MediaCollector.Report report = collector(true, Duration.ZERO).collect().get(0);
+
+        assertTrue(messageStore.exists(orphan));
+        assertTrue(report.dryRun());
+        assertEquals(1, report.orphans());
+        assertEquals(3, report.orphanBytes());
+        assertEquals(0, report.deleted());
+    }
+
+    @Test
+    void keepsFilesOfRowsAddedAfterTheMark() throws Exception {
+        String added = put(messageStore, 1);
+        String orphan = put(messageStore, 2);
+        messages.afterMark = () -> messages.add(1, MESSAGES + messageStore.path(added));
+
+        MediaCollector.Report report = collector(false, Duration.ZERO).collect().get(0);
+
+        assertTrue(messageStore.exists(added));
+        assertFalse(messageStore.exists(orphan));
+        assertEquals(1, report.deleted());
+    }
+
+    @Test
+    void keepsFilesOfRowsChangedAfterTheMark() throws Exception {
+        String before = put(messageStore, 1);
+        String after = put(messageStore, 2);
+        String avatarBefore = put(avatarStore, 3);
+        String avatarAfter = put(avatarStore, 4);
+        messages.add(1, MESSAGES + messageStore.path(before));
+        chats.add(1, AVATARS + avatarStore.path(avatarBefore));
+        messages.afterMark = () -> messages.set(1, MESSAGES + messageStore.path(after));
+        chats.afterMark = () -> chats.set(1, AVATARS + avatarStore.path(avatarAfter));
+
+        List<MediaCollector.Report> reports = collector(false, Duration.ZERO).collect();
+
+        assertTrue(messageStore.exists(after));
+        assertTrue(avatarStore.exists(avatarAfter));
+        assertEquals(0, reports.get(0).deleted());
+        assertEquals(0, reports.get(1).deleted());
+    }
+
+    private MediaCollector collector(boolean dryRun, Duration grace) {
+        return new MediaCollector(messageStore, avatarStore,
+                repository(MessageRepository.class, messages),
+                repository(UserRepository.class, users),
+                repository(GroupChatInfoRepository.class, chats),
+                MESSAGES, AVATARS, AVATARS + "user-default.png", AVATARS + "chat-default.png",
+                true, dryRun, grace, 2, Duration.ZERO, 0, DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+    }
+
+    private static String put(BlobStore store, int content) throws IOException {
+        return store.put(".gif", out -> out.write(ByteBuffer.wrap(new byte[] {(byte) content, 1, 2})));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Rows rows) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findMediaAfter", "findAvatarsAfter" -> rows.after((Long) args[0], (Limit) args[1]);
+                    case "existsByMediaUrlEndingWith", "existsByAvatarUrlEndingWith" ->
+                            rows.endingWith((String) args[0]);
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    /** The rows of one table, with a hook that runs once the last page has been read. */
+    private static final class Rows {
+        private final List<MediaReference> rows = new ArrayList<>();
+        private Runnable afterMark = () -> { };
+
+        void add(long id, String url) {
+            rows.add(reference(id, url));
+        }
+
+        void set(long id, String url) {
+            rows.replaceAll(row -> row.getId() == id ? reference(id, url) : row);
+        }
+
+        List<MediaReference> after(Long after, Limit limit) {
+            List<MediaReference> page = rows.stream()
+                    .filter(row -> row.getId() > after)
+                    .limit(limit.max())
+                    .toList();
+            if (page.size() < limit.max()) {
+                Runnable hook = afterMark;
+                afterMark = () -> { };
+                hook.run();
+            }
+            return page;
+        }
+
+        boolean endingWith(String suffix) {
+            return rows.stream().anyMatch(row -> row.getUrl().endsWith(suffix));
+        }
+
+        private static MediaReference reference(long id, String url) {
+            return new MediaReference() {
+                @Override
+                public Long getId() {
+                    return id;
+                }
+
+                @Override
+                public String getUrl() {
+                    return url;
+                }
+            };
+        }
+    }
+}
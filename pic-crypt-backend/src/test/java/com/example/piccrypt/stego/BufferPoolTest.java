@@ -0,0 +1,133 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+
+    @Test
+    void reusesClosedSlabsOfTheSameClass() {
+        BufferPool pool = new BufferPool(1024, 1 << 20, 1 << 20);
+
+        BufferPool.Slab first = pool.acquire(3000);
+        ByteBuffer buffer = first.buffer();
+        first.close();
+        BufferPool.Slab second = pool.acquire(4000);
+
+        assertSame(buffer, second.buffer());
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        assertEquals(4000, buffer.limit());
+        assertEquals(4096, pool.inUseBytes());
+        second.close();
+        assertEquals(0, pool.inUseBytes());
+        assertEquals(4096, pool.freeBytes());
+    }
+
+    @Test
+    void closingTwiceReturnsTheSlabOnce() {
+        BufferPool pool = new BufferPool(1024, 1 << 20, 1 << 20);
+
+        BufferPool.Slab slab = pool.acquire(1024);
+        slab.close();
+        slab.close();
+
+        assertEquals(1024, pool.freeBytes());
+        assertThrows(IllegalStateException.class, slab::buffer);
+    }
+
+    @Test
+    void dropsFreeSlabsOfOtherClassesToStayInBudget() {
+        BufferPool pool = new BufferPool(1024, 8192, 8192);
+
+        pool.acquire(4096).close();
+        pool.acquire(4096);
+        pool.acquire(2048).close();
+        BufferPool.Slab large = pool.acquire(4096);
+
+        assertTrue(large.isPooled());
+        assertEquals(8192, pool.pooledBytes());
+        assertEquals(0, pool.overflows());
+    }
+
+    @Test
+    void reportsTheSlabSizeAReadStartsWith() {
+        BufferPool pool = new BufferPool(1024, 4096, 4096);
+
+        assertEquals(1024, pool.slabBytes(10));
+        assertEquals(4096, pool.slabBytes(3000));
+        assertEquals(5000, pool.slabBytes(5000));
+    }
+
+    @Test
+    void fallsBackToTheHeapWhenFullOrTooLarge() {
+        BufferPool pool = new BufferPool(1024, 4096, 4096);
+
+        BufferPool.Slab held = pool.acquire(4096);
+        BufferPool.Slab full = pool.acquire(100);
+        BufferPool.Slab tooLarge = pool.acquire(5000);
+
+        assertTrue(held.isPooled());
+        assertFalse(full.isPooled());
+        assertFalse(tooLarge.buffer().isDirect());
+        assertEquals(5000, tooLarge.buffer().capacity());
+        assertEquals(2, pool.overflows());
+        full.close();
+        assertEquals(0, pool.freeBytes());
+    }
+
+    @Test
+    void readsStreamsLongerThanTheHint() throws Exception {
+        BufferPool pool = new BufferPool(1024, 1 << 20, 1 << 20);
+        byte[] data = new byte[10_000];
+        new Random(7).nextBytes(data);
+
+        try (BufferPool.Slab slab = pool.read(new ByteArrayInputStream(data), 100)) {
+            ByteBuffer buffer = slab.buffer();
+            byte[] read = new byte[buffer.remaining()];
+            buffer.get(read);
+            assertArrayEquals(data, read);
+        }
+        assertEquals(0, pool.inUseBytes());
+    }
+
+    @Test
+    void keepsAStreamThatFillsItsSlabExactly() throws Exception {
+        BufferPool pool = new BufferPool(1024, 4096, 4096);
+        byte[] pooled = new byte[4096];
+        byte[] overflow = new byte[5000];
+        new Random(8).nextBytes(pooled);
+        new Random(9).nextBytes(overflow);
+
+        try (BufferPool.Slab slab = pool.read(new ByteArrayInputStream(pooled), pooled.length)) {
+            assertTrue(slab.isPooled());
+            assertEquals(4096, slab.buffer().capacity());
+            assertEquals(4096, slab.buffer().remaining());
+        }
+        try (BufferPool.Slab slab = pool.read(new ByteArrayInputStream(overflow), overflow.length)) {
+            assertFalse(slab.isPooled());
+            assertEquals(5000, slab.buffer().capacity());
+            byte[] read = new byte[slab.buffer().remaining()];
+            slab.buffer().get(read);
+            assertArrayEquals(overflow, read);
+        }
+        assertEquals(2, pool.acquires());
+    }
+
+    @Test
+    void rejectsBadSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0, 1024, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(2048, 1024, 1024));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(1024, 1024, -1));
+    }
+}
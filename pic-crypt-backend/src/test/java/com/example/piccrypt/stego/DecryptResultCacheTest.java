@@ -0,0 +1,96 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DecryptResultCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void returnsCachedTextAndCountsHits() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(8, Duration.ofMinutes(1), now::get);
+
+        assertNull(cache.get("a.gif", "pw"));
+        cache.put("a.gif", "pw", "hello", null);
+
+        assertEquals("hello", cache.get("a.gif", "pw"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void separatesFilesAndPasswords() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(8, Duration.ofMinutes(1), now::get);
+        cache.put("a.gif", "pw", "hello", null);
+
+        assertNull(cache.get("a.gif", "pW"));
+        assertNull(cache.get("b.gif", "pw"));
+        assertEquals(0, cache.hits());
+    }
+
+    @Test
+    void expiresAfterTtlOrMaxAge() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(8, Duration.ofSeconds(10), now::get);
+        cache.put("a.gif", "pw", "ttl", null);
+        cache.put("b.gif", "pw", "short", Duration.ofSeconds(3));
+
+        now.addAndGet(Duration.ofSeconds(4).toNanos());
+        assertEquals("ttl", cache.get("a.gif", "pw"));
+        assertNull(cache.get("b.gif", "pw"));
+
+        now.addAndGet(Duration.ofSeconds(7).toNanos());
+        assertNull(cache.get("a.gif", "pw"));
+        assertEquals(2, cache.evictions());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void skipsAlreadyExpiredEntries() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(8, Duration.ofMinutes(1), now::get);
+
+        cache.put("a.gif", "pw", "gone", Duration.ofSeconds(-1));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidatesEveryResultOfAFile() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(8, Duration.ofMinutes(1), now::get);
+        cache.put("a.gif", "one", "one", null);
+        cache.put("a.gif", "two", "two", null);
+        cache.put("b.gif", "one", "other", null);
+
+        cache.invalidate("a.gif");
+
+        assertNull(cache.get("a.gif", "one"));
+        assertNull(cache.get("a.gif", "two"));
+        assertEquals("other", cache.get("b.gif", "one"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void dropsLeastRecentlyUsedPastMaxEntries() throws Exception {
+        DecryptResultCache cache = new DecryptResultCache(2, Duration.ofMinutes(1), now::get);
+
+        cache.put("a.gif", "pw", "a", null);
+        cache.put("b.gif", "pw", "b", null);
+        cache.get("a.gif", "pw");
+        cache.put("c.gif", "pw", "c", null);
+
+        assertEquals("a", cache.get("a.gif", "pw"));
+        assertNull(cache.get("b.gif", "pw"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void rejectsNegativeSize() {
+        assertThrows(IllegalArgumentException.class, () -> new DecryptResultCache(-1, Duration.ofMinutes(1)));
+    }
+}
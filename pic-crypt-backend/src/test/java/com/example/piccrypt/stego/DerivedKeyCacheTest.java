@@ -0,0 +1,103 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DerivedKeyCacheTest {
+    private final AtomicLong now = new AtomicLong();
+
+    @Test
+    void derivesOnceAndCountsHits() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8, Duration.ofMinutes(1), now::get);
+        byte[] salt = StegoCrypto.newSalt();
+
+        byte[] first = cache.key(salt, "secret");
+        byte[] second = cache.key(salt, "secret");
+
+        assertArrayEquals(StegoCrypto.deriveKey("secret", salt), first);
+        assertArrayEquals(first, second);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void separatesSaltsAndPasswords() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8, Duration.ofMinutes(1), now::get);
+        byte[] salt = StegoCrypto.newSalt();
+
+        byte[] key = cache.key(salt, "secret");
+
+        assertFalse(java.util.Arrays.equals(key, cache.key(salt, "Secret")));
+        assertFalse(java.util.Arrays.equals(key, cache.key(StegoCrypto.newSalt(), "secret")));
+        assertEquals(0, cache.hits());
+        assertEquals(3, cache.misses());
+    }
+
+    @Test
+    void separatesIterationCounts() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8, Duration.ofMinutes(1), now::get);
+        byte[] salt = StegoCrypto.newSalt();
+
+        byte[] key = cache.key(salt, "secret");
+
+        assertArrayEquals(key, cache.key(salt, StegoCrypto.KDF_ITERATIONS, "secret"));
+        assertArrayEquals(StegoCrypto.deriveKey("secret", salt, 10_000), cache.key(salt, 10_000, "secret"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void dropsLeastRecentlyUsedPastMaxEntries() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(2, Duration.ofMinutes(1), now::get);
+        byte[] a = StegoCrypto.newSalt();
+        byte[] b = StegoCrypto.newSalt();
+        byte[] c = StegoCrypto.newSalt();
+
+        cache.key(a, "pw");
+        cache.key(b, "pw");
+        cache.key(a, "pw");
+        cache.key(c, "pw");
+        cache.key(a, "pw");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertEquals(2, cache.hits());
+    }
+
+    @Test
+    void expiresAfterTtl() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8, Duration.ofSeconds(10), now::get);
+        byte[] salt = StegoCrypto.newSalt();
+
+        cache.key(salt, "pw");
+        now.addAndGet(Duration.ofSeconds(9).toNanos());
+        cache.key(salt, "pw");
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        cache.key(salt, "pw");
+
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void returnedKeysDoNotAliasTheCache() throws Exception {
+        DerivedKeyCache cache = new DerivedKeyCache(8, Duration.ofMinutes(1), now::get);
+        byte[] salt = StegoCrypto.newSalt();
+
+        cache.key(salt, "pw")[0] ^= 1;
+
+        assertArrayEquals(StegoCrypto.deriveKey("pw", salt), cache.key(salt, "pw"));
+    }
+
+    @Test
+    void rejectsNegativeSize() {
+        assertThrows(IllegalArgumentException.class, () -> new DerivedKeyCache(-1, Duration.ofMinutes(1)));
+    }
+}
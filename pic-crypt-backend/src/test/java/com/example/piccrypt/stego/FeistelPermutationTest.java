@@ -0,0 +1,65 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FeistelPermutationTest {
+
+    @Test
+    void isABijectionWithItsInverse() {
+        byte[] key = "salt".getBytes(StandardCharsets.UTF_8);
+        for (long size : new long[] {1, 2, 3, 7, 64, 1000, 4097, 65_537}) {
+            FeistelPermutation order = new FeistelPermutation(key, size);
+            BitSet seen = new BitSet((int) size);
+            for (long i = 0; i < size; i++) {
+                long p = order.permute(i);
+                assertTrue(p >= 0 && p < size, "size " + size);
+                assertFalse(seen.get((int) p), "size " + size + " repeats " + p);
+                seen.set((int) p);
+                assertEquals(i, order.inverse(p));
+            }
+        }
+    }
+
+    @Test
+    void keysGiveDifferentOrders() {
+        FeistelPermutation a = new FeistelPermutation(new byte[] {1}, 10_000);
+        FeistelPermutation b = new FeistelPermutation(new byte[] {2}, 10_000);
+        int same = 0;
+        for (long i = 0; i < 10_000; i++) {
+            if (a.permute(i) == b.permute(i)) {
+                same++;
+            }
+        }
+        assertTrue(same < 20, same + " positions agree");
+    }
+
+    @Test
+    void spreadsConsecutiveIndicesOverTheRange() {
+        long size = 1_000_000;
+        FeistelPermutation order = new FeistelPermutation(new byte[] {3}, size);
+        int[] tenths = new int[10];
+        for (long i = 0; i < 1000; i++) {
+            tenths[(int) (order.permute(i) * 10 / size)]++;
+        }
+        for (int count : tenths) {
+            assertTrue(count > 50 && count < 150, "uneven spread " + Arrays.toString(tenths));
+        }
+    }
+
+    @Test
+    void rejectsIndicesOutsideTheRange() {
+        FeistelPermutation order = new FeistelPermutation(new byte[0], 10);
+        assertThrows(IndexOutOfBoundsException.class, () -> order.permute(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> order.inverse(-1));
+        assertThrows(IllegalArgumentException.class, () -> new FeistelPermutation(new byte[0], 0));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GifBlockIteratorTest {
+
+    @Test
+    void walksBlocksOfMappedFile() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 3, 1);
+        Path file = Files.createTempFile("blocks", ".gif");
+        try {
+            Files.write(file, gif);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                GifBlockIterator blocks = new GifBlockIterator(mapped);
+
+                assertEquals(40, blocks.screenWidth());
+                assertEquals(30, blocks.screenHeight());
+                assertEquals(8, blocks.globalColorTableBits());
+
+                int extensions = 0;
+                int images = 0;
+                while (blocks.next()) {
+                    if (blocks.type() == GifBlockIterator.BlockType.EXTENSION) {
+                        assertEquals(0xF9, blocks.label());
+                        assertFalse(blocks.hasTransparency());
+                        extensions++;
+                    } else {
+                        assertEquals(40, blocks.width());
+                        assertEquals(8, blocks.minCodeSize());
+                        images++;
+                    }
+                }
+                assertEquals(3, extensions);
+                assertEquals(3, images);
+                assertEquals(gif.length - 1, blocks.position());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    void stopsAtTruncatedData() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 2, 1);
+        ByteBuffer truncated = ByteBuffer.wrap(gif, 0, gif.length / 2).slice();
+        GifBlockIterator blocks = new GifBlockIterator(truncated);
+        int blocksSeen = 0;
+        while (blocks.next()) {
+            blocksSeen++;
+        }
+        assertTrue(blocksSeen >= 2);
+        assertEquals(truncated.limit(), blocks.position());
+    }
+
+    @Test
+    void rejectsOtherFormats() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new GifBlockIterator(ByteBuffer.wrap("GIF87a-not-supported".getBytes())));
+    }
+}
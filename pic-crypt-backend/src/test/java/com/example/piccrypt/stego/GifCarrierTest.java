@@ -0,0 +1,108 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GifCarrierTest {
+
+    @Test
+    void countsPaletteAndUsableFrames() throws Exception {
+        assertEquals(768 + 3 * 40 * 30, GifCarrierReader.carrierBytes(ByteBuffer.wrap(TestGifs.animated(40, 30, 3, 1))));
+        assertEquals(768, GifCarrierReader.carrierBytes(ByteBuffer.wrap(TestGifs.build(40, 30, 3, 1, 8, true))));
+        assertEquals(12, GifCarrierReader.carrierBytes(ByteBuffer.wrap(TestGifs.build(40, 30, 3, 1, 2, false))));
+    }
+
+    @Test
+    void embedsAcrossFramesAndReadsBack() throws Exception {
+        byte[] gif = TestGifs.animated(64, 48, 5, 2);
+        byte[] payload = new byte[3000];
+        new Random(3).nextBytes(payload);
+
+        byte[] stego = embed(gif, payload, 5);
+        byte[] extracted = extract(stego, payload.length, 5);
+
+        assertArrayEquals(payload, extracted);
+        assertEquals(5, frameCount(stego));
+    }
+
+    @Test
+    void paletteOnlyPayloadLeavesFramesUntouched() throws Exception {
+        byte[] gif = TestGifs.animated(64, 48, 2, 4);
+        byte[] payload = new byte[100];
+        new Random(5).nextBytes(payload);
+
+        byte[] stego = embed(gif, payload, 0);
+
+        assertEquals(gif.length, stego.length);
+        int paletteEnd = GifCarrierReader.LOGICAL_SCREEN_END + 768;
+        assertArrayEquals(Arrays.copyOfRange(gif, paletteEnd, gif.length), Arrays.copyOfRange(stego, paletteEnd, stego.length));
+        assertArrayEquals(payload, extract(stego, payload.length, 0));
+    }
+
+    @Test
+    void changesOnlyLowBitsOfIndices() throws Exception {
+        byte[] gif = TestGifs.animated(32, 32, 3, 6);
+        byte[] payload = new byte[1000];
+        new Random(7).nextBytes(payload);
+        byte[] stego = embed(gif, payload, 0);
+
+        GifCarrierReader before = new GifCarrierReader(ByteBuffer.wrap(gif));
+        GifCarrierReader after = new GifCarrierReader(ByteBuffer.wrap(stego));
+        while (before.next()) {
+            assertTrue(after.next());
+            assertEquals(before.length(), after.length());
+            for (int i = 0; i < before.length(); i++) {
+                int a = before.carrier()[before.offset() + i] & LsbField.CLEAR_LSB_MASK;
+                int b = after.carrier()[after.offset() + i] & LsbField.CLEAR_LSB_MASK;
+                assertEquals(a, b);
+            }
+        }
+    }
+
+    private static byte[] embed(byte[] gif, byte[] payload, long start) throws Exception {
+        LsbField field = new LsbField(payload, start);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifCarrierWriter writer = new GifCarrierWriter(ByteBuffer.wrap(gif), out);
+        while (!field.isComplete() && writer.next()) {
+            field.embed(writer.carrier(), writer.offset(), writer.length(), writer.position());
+        }
+        writer.finish();
+        assertTrue(field.isComplete());
+        return out.toByteArray();
+    }
+
+    private static byte[] extract(byte[] gif, int length, long start) {
+        LsbField field = new LsbField(length, start);
+        GifCarrierReader reader = new GifCarrierReader(ByteBuffer.wrap(gif));
+        while (!field.isComplete() && reader.next()) {
+            field.extract(reader.carrier(), reader.offset(), reader.length(), reader.position());
+        }
+        return field.data();
+    }
+
+    private static int frameCount(byte[] gif) throws Exception {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            int frames = reader.getNumImages(true);
+            for (int i = 0; i < frames; i++) {
+                reader.read(i);
+            }
+            return frames;
+        } finally {
+            reader.dispose();
+        }
+    }
+}
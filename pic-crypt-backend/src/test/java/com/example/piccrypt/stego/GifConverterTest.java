@@ -0,0 +1,223 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GifConverterTest {
+
+    @Test
+    void convertsPngToAFullPaletteCarrier() throws IOException {
+        byte[] png = encode(photo(300, 200, BufferedImage.TYPE_INT_RGB, 1), "png");
+        assertTrue(GifConverter.isConvertible(ByteBuffer.wrap(png)));
+
+        ByteBuffer gif = convert(png);
+
+        assertTrue(GifCarrierReader.isGif89a(gif));
+        assertEquals(3 * 256 + 300 * 200, GifCarrierReader.carrierBytes(gif));
+        assertEquals(GifCarrierReader.carrierBytes(gif), GifConverter.carrierBytes(ByteBuffer.wrap(png)));
+
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(png));
+        BufferedImage converted = ImageIO.read(new ByteArrayInputStream(bytes(gif)));
+        assertEquals(300, converted.getWidth());
+        assertEquals(200, converted.getHeight());
+        double error = meanError(original, converted);
+        assertTrue(error < 8, "mean channel error " + error);
+    }
+
+    @Test
+    void palettesGroupCloseColorsByTheirLowBits() throws IOException {
+        ByteBuffer gif = convert(encode(photo(256, 256, BufferedImage.TYPE_INT_RGB, 2), "png"));
+        byte[] palette = new byte[256 * 3];
+        gif.get(GifCarrierReader.LOGICAL_SCREEN_END, palette);
+
+        // Entries that share all but their low bits, against entries eight boxes apart.
+        int grouped = 0;
+        int strided = 0;
+        for (int group = 0; group < 32; group++) {
+            grouped += spread(palette, group * 8, 1, 8);
+            strided += spread(palette, group, 32, 8);
+        }
+        assertTrue(grouped * 2 < strided, "grouped " + grouped + ", strided " + strided);
+    }
+
+    @Test
+    void flattensTransparencyOntoWhite() throws IOException {
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0xFF000000);
+        byte[] png = encode(image, "png");
+
+        ByteBuffer gif = convert(png);
+        BufferedImage converted = ImageIO.read(new ByteArrayInputStream(bytes(gif)));
+
+        assertEquals(0xFFFFFF, converted.getRGB(20, 15) & 0xFFFFFF);
+        assertEquals(0x000000, converted.getRGB(0, 0) & 0xFFFFFF);
+        // No transparent color, so the frame still carries payload.
+        assertEquals(3 * 256 + 40 * 30, GifCarrierReader.carrierBytes(gif));
+    }
+
+    @Test
+    void carriesAPayloadInAConvertedJpeg() throws Exception {
+        byte[] jpeg = encode(photo(320, 240, BufferedImage.TYPE_INT_RGB, 3), "jpg");
+        assertTrue(GifConverter.isConvertible(ByteBuffer.wrap(jpeg)));
+        ByteBuffer gif = convert(jpeg);
+
+        byte[] salt = StegoCrypto.newSalt();
+        byte[] key = new byte[StegoCrypto.AES_KEY_BYTES];
+        byte[] message = new byte[(int) StegoCrypto.segmentedMessageLength(StegoFormat.capacity(gif))];
+        new Random(4).nextBytes(message);
+        StegoCipherEngine engine = new StegoCipherEngine();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StegoFormat.embed(gif, salt, new byte[StegoCrypto.KEY_CHECK_BYTES], 0, engine.segmenter(message, key), out);
+
+        StegoFormat.Payload payload = StegoFormat.extract(ByteBuffer.wrap(out.toByteArray()));
+        assertArrayEquals(salt, payload.salt());
+        assertArrayEquals(message, engine.decryptSegmented(payload.message(), key));
+    }
+
+    @Test
+    void writesTheGifIntoAPooledSlab() throws IOException {
+        byte[] png = encode(photo(64, 48, BufferedImage.TYPE_INT_RGB, 5), "png");
+        BufferPool buffers = new BufferPool(1 << 16, 1 << 20, 1 << 20);
+
+        try (GifConverter converter = new GifConverter(2, 1, buffers)) {
+            BufferPool.Slab gif = converter.toGif(ByteBuffer.wrap(png));
+            assertTrue(gif.isPooled());
+            assertTrue(GifCarrierReader.isGif89a(gif.buffer()));
+            gif.close();
+        }
+        assertEquals(0, buffers.inUseBytes());
+    }
+
+    @Test
+    void rejectsConversionsPastTheLimit() throws IOException {
+        byte[] png = encode(photo(16, 16, BufferedImage.TYPE_INT_RGB, 6), "png");
+
+        try (GifConverter converter = new GifConverter(1, 0, new BufferPool(1 << 16, 1 << 20, 1 << 20))) {
+            assertThrows(RejectedExecutionException.class, () -> converter.toGif(ByteBuffer.wrap(png)));
+        }
+    }
+
+    @Test
+    void regroupsOnlyGifsWhosePalettesNeedIt() throws IOException {
+        BufferPool buffers = new BufferPool(1 << 16, 1 << 20, 1 << 20);
+        ByteBuffer converted = convert(encode(photo(64, 48, BufferedImage.TYPE_INT_RGB, 7), "png"));
+
+        try (GifConverter converter = new GifConverter(1, 1, buffers)) {
+            // TestGifs draws its palettes at random.
+            try (BufferPool.Slab gif = converter.regroup(ByteBuffer.wrap(TestGifs.animated(40, 30, 2, 8)))) {
+                assertTrue(GifCarrierReader.isGif89a(gif.buffer()));
+                assertEquals(768 + 2 * 40 * 30, GifCarrierReader.carrierBytes(gif.buffer()));
+            }
+            assertEquals(null, converter.regroup(converted));
+        }
+        assertEquals(0, buffers.inUseBytes());
+    }
+
+    @Test
+    void rejectsImagesAboveThePixelBudget() throws IOException {
+        // A header alone: 4096x4096 is twice the budget.
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(png);
+        out.write(new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+        byte[] ihdr = ByteBuffer.allocate(17).put("IHDR".getBytes(StandardCharsets.US_ASCII))
+                .putInt(4096).putInt(4096).put(new byte[] {8, 2, 0, 0, 0}).array();
+        CRC32 crc = new CRC32();
+        crc.update(ihdr);
+        out.writeInt(13);
+        out.write(ihdr);
+        out.writeInt((int) crc.getValue());
+
+        assertThrows(IllegalArgumentException.class, () -> GifConverter.carrierBytes(ByteBuffer.wrap(png.toByteArray())));
+    }
+
+    @Test
+    void leavesOtherFormatsAlone() throws IOException {
+        assertFalse(GifConverter.isConvertible(ByteBuffer.wrap(TestGifs.animated(10, 10, 1, 5))));
+        assertFalse(GifConverter.isConvertible(ByteBuffer.wrap(new byte[] {(byte) 0xFF, (byte) 0xD8})));
+    }
+
+    /** Smooth gradients with a little noise, like a downscaled photo. */
+    static BufferedImage photo(int width, int height, int type, long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = clamp(255 * x / width + random.nextInt(9) - 4);
+                int green = clamp(255 * y / height + random.nextInt(9) - 4);
+                int blue = clamp(128 + (int) (100 * Math.sin((x + y) / 40.0)) + random.nextInt(9) - 4);
+                image.setRGB(x, y, 0xFF000000 | red << 16 | green << 8 | blue);
+            }
+        }
+        return image;
+    }
+
+    static byte[] encode(BufferedImage image, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    private static ByteBuffer convert(byte[] image) throws IOException {
+        try (GifConverter converter = new GifConverter(4, 1, new BufferPool(1 << 16, 1 << 20, 1 << 20));
+             BufferPool.Slab gif = converter.toGif(ByteBuffer.wrap(image))) {
+            return ByteBuffer.wrap(bytes(gif.buffer()));
+        }
+    }
+
+    private static double meanError(BufferedImage a, BufferedImage b) {
+        long total = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    total += Math.abs(((p >>> shift) & 0xFF) - ((q >>> shift) & 0xFF));
+                }
+            }
+        }
+        return total / (3.0 * a.getWidth() * a.getHeight());
+    }
+
+    // Widest channel range over count entries from first, step apart.
+    private static int spread(byte[] palette, int first, int step, int count) {
+        int widest = 0;
+        for (int c = 0; c < 3; c++) {
+            int min = 255;
+            int max = 0;
+            for (int i = first; i < first + step * count; i += step) {
+                int value = palette[i * 3 + c] & 0xFF;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            widest = Math.max(widest, max - min);
+        }
+        return widest;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
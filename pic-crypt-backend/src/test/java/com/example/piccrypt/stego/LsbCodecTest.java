@@ -0,0 +1,93 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class LsbCodecTest {
+
+    @Test
+    void embedMatchesBitLoop() {
+        Random random = new Random(1);
+        for (int run = 0; run < 500; run++) {
+            byte[] data = new byte[random.nextInt(100)];
+            random.nextBytes(data);
+            byte[] carrier = new byte[400];
+            random.nextBytes(carrier);
+            int start = random.nextInt(50);
+
+            byte[] expected = carrier.clone();
+            referenceInsert(expected, data, start);
+
+            byte[] actual = carrier.clone();
+            LsbField field = new LsbField(data, 0);
+            int split = random.nextInt(carrier.length - start + 1);
+            field.embed(actual, start, split, 0);
+            field.embed(actual, start + split, carrier.length - start - split, split);
+
+            assertArrayEquals(expected, actual, "run " + run);
+        }
+    }
+
+    @Test
+    void extractMatchesBitLoop() {
+        Random random = new Random(2);
+        for (int run = 0; run < 500; run++) {
+            byte[] carrier = new byte[400];
+            random.nextBytes(carrier);
+            int length = random.nextInt(100);
+            int start = random.nextInt(50);
+
+            byte[] expected = referenceExtract(carrier, length, start);
+
+            LsbField field = new LsbField(length, 0);
+            int split = random.nextInt(carrier.length - start + 1);
+            field.extract(carrier, start, split, 0);
+            field.extract(carrier, start + split, carrier.length - start - split, split);
+
+            assertArrayEquals(expected, field.data(), "run " + run);
+        }
+    }
+
+    // The shifting bit buffer loops the service used before the word-packed codec.
+    private static void referenceInsert(byte[] byteImage, byte[] data, int startByte) {
+        int currentByte = startByte;
+        int bitBuffer = 0;
+        int bitsInBuffer = 0;
+        for (byte dataByte : data) {
+            bitBuffer = (bitBuffer << 8) | (dataByte & 0xFF);
+            bitsInBuffer += 8;
+            while (bitsInBuffer >= 3) {
+                int bitsToStore = (bitBuffer >> (bitsInBuffer - 3)) & 0x07;
+                byteImage[currentByte] = (byte) ((byteImage[currentByte] & 0xF8) | bitsToStore);
+                bitsInBuffer -= 3;
+                currentByte++;
+            }
+        }
+        if (bitsInBuffer > 0) {
+            int bitsToStore = (bitBuffer << (3 - bitsInBuffer)) & 0x07;
+            byteImage[currentByte] = (byte) ((byteImage[currentByte] & 0xF8) | bitsToStore);
+        }
+    }
+
+    private static byte[] referenceExtract(byte[] byteImage, int length, int startByte) {
+        byte[] data = new byte[length];
+        int currentByte = startByte;
+        int bitBuffer = 0;
+        int bitsInBuffer = 0;
+        int dataIndex = 0;
+        while (dataIndex < length && currentByte < byteImage.length) {
+            bitBuffer = (bitBuffer << 3) | (byteImage[currentByte] & 0x07);
+            bitsInBuffer += 3;
+            currentByte++;
+            while (bitsInBuffer >= 8 && dataIndex < length) {
+                data[dataIndex] = (byte) ((bitBuffer >> (bitsInBuffer - 8)) & 0xFF);
+                bitsInBuffer -= 8;
+                dataIndex++;
+            }
+        }
+        return data;
+    }
+}
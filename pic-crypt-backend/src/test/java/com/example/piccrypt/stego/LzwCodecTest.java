@@ -0,0 +1,76 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LzwCodecTest {
+
+    @Test
+    void roundTripsNoiseAcrossTableResets() throws Exception {
+        for (int codeSize = 2; codeSize <= 8; codeSize++) {
+            byte[] pixels = new byte[200_000];
+            Random random = new Random(codeSize);
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (byte) random.nextInt(1 << codeSize);
+            }
+            assertArrayEquals(pixels, roundTrip(codeSize, pixels, 4093), "code size " + codeSize);
+        }
+    }
+
+    @Test
+    void roundTripsLongRuns() throws Exception {
+        byte[] pixels = new byte[500_000];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) ((i / 1000) & 0x0F);
+        }
+        assertArrayEquals(pixels, roundTrip(4, pixels, 1));
+    }
+
+    @Test
+    void decodesTruncatedDataWithoutFailing() throws Exception {
+        byte[] pixels = new byte[10_000];
+        new Random(7).nextBytes(pixels);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LzwEncoder encoder = new LzwEncoder(8, out);
+        encoder.encode(pixels, 0, pixels.length);
+        encoder.finish();
+        byte[] encoded = out.toByteArray();
+
+        byte[] decoded = new byte[pixels.length];
+        LzwDecoder decoder = new LzwDecoder(8, decoded, decoded.length);
+        decoder.feed(encoded, 2, 200);
+        assertEquals(true, decoder.decoded() < pixels.length);
+    }
+
+    private static byte[] roundTrip(int codeSize, byte[] pixels, int chunk) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LzwEncoder encoder = new LzwEncoder(codeSize, out);
+        for (int i = 0; i < pixels.length; i += chunk) {
+            encoder.encode(pixels, i, Math.min(chunk, pixels.length - i));
+        }
+        encoder.finish();
+        byte[] encoded = out.toByteArray();
+
+        assertEquals(codeSize, encoded[0]);
+        assertEquals(0, encoded[encoded.length - 1]);
+
+        byte[] decoded = new byte[pixels.length];
+        LzwDecoder decoder = new LzwDecoder(codeSize, decoded, decoded.length);
+        int pos = 1;
+        while (true) {
+            int size = encoded[pos++] & 0xFF;
+            if (size == 0) {
+                break;
+            }
+            decoder.feed(encoded, pos, size);
+            pos += size;
+        }
+        assertEquals(pixels.length, decoder.decoded());
+        return decoded;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaletteRegrouperTest {
+    private static final int WIDTH = 48;
+    private static final int HEIGHT = 40;
+
+    @Test
+    void renumbersAnInterleavedPaletteWithoutChangingTheImage() throws Exception {
+        byte[] gif = gif(interleaved(1), null, -1, 3);
+
+        byte[] regrouped = regroup(gif);
+
+        assertFrames(gif, regrouped);
+        for (int run = 0; run < 256; run += 8) {
+            assertTrue(runRange(regrouped, GifBlockIterator.LOGICAL_SCREEN_END, run) <= 15, "run " + run);
+        }
+    }
+
+    @Test
+    void embeddingShowsInAnInterleavedPaletteUnlessRegrouped() throws Exception {
+        byte[] gif = gif(interleaved(2), null, -1, 2);
+        byte[] payload = new byte[(int) (GifCarrierReader.carrierBytes(ByteBuffer.wrap(gif)) * 3 / 8)];
+        new Random(3).nextBytes(payload);
+
+        // The trade-off of 3 bits per index: an index moves within its run
+        // of eight entries, which in an unsorted table is any color at all.
+        assertTrue(maxChannelChange(gif, embed(gif, payload)) > 200);
+        byte[] regrouped = regroup(gif);
+        assertTrue(maxChannelChange(regrouped, embed(regrouped, payload)) <= 15 + LsbField.LSB_MASK);
+    }
+
+    @Test
+    void remapsLocalTablesAndTransparentIndices() throws Exception {
+        byte[] gif = gif(interleaved(4), interleaved(5), 9, 2);
+
+        byte[] regrouped = regroup(gif);
+
+        assertFrames(gif, regrouped);
+        assertEquals(GifCarrierReader.carrierBytes(ByteBuffer.wrap(gif)),
+                GifCarrierReader.carrierBytes(ByteBuffer.wrap(regrouped)));
+    }
+
+    @Test
+    void leavesGroupedPalettesAlone() throws Exception {
+        byte[] table = new byte[768];
+        for (int i = 0; i < 256; i++) {
+            table[i * 3] = table[i * 3 + 1] = table[i * 3 + 2] = (byte) i;
+        }
+
+        assertFalse(new PaletteRegrouper(ByteBuffer.wrap(gif(table, null, -1, 1))).changesAnything());
+    }
+
+    private static byte[] regroup(byte[] gif) throws IOException {
+        PaletteRegrouper regrouper = new PaletteRegrouper(ByteBuffer.wrap(gif));
+        assertTrue(regrouper.changesAnything());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        regrouper.write(out);
+        assertTrue(out.size() <= regrouper.maxBytes());
+        return out.toByteArray();
+    }
+
+    /** Even entries near black and odd ones near white, so every run of eight holds both. */
+    private static byte[] interleaved(long seed) {
+        Random random = new Random(seed);
+        byte[] table = new byte[768];
+        for (int i = 0; i < table.length; i++) {
+            int base = (i / 3) % 2 == 0 ? 0 : 240;
+            table[i] = (byte) (base + random.nextInt(16));
+        }
+        return table;
+    }
+
+    /**
+     * {@code frames} frames over the global table; with a local table, every
+     * second frame uses it and sets {@code transparent} as transparent.
+     */
+    private static byte[] gif(byte[] global, byte[] local, int transparent, int frames) throws IOException {
+        Random random = new Random(7);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[] {'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(out, WIDTH);
+        writeShort(out, HEIGHT);
+        out.write(0xF7);
+        out.write(3);
+        out.write(0);
+        out.write(global);
+
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        for (int f = 0; f < frames; f++) {
+            boolean withLocal = local != null && f % 2 == 1;
+            boolean withTransparency = withLocal && transparent >= 0;
+            out.write(new byte[] {0x21, (byte) 0xF9, 4, (byte) (withTransparency ? 0x05 : 0x04), 10, 0,
+                    (byte) Math.max(transparent, 0), 0});
+            out.write(0x2C);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, WIDTH);
+            writeShort(out, HEIGHT);
+            out.write(withLocal ? 0x87 : 0);
+            if (withLocal) {
+                out.write(local);
+            }
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = (byte) ((i / 5 + f) % 256 ^ random.nextInt(2));
+            }
+            LzwEncoder encoder = new LzwEncoder(8, out);
+            encoder.encode(pixels, 0, pixels.length);
+            encoder.finish();
+        }
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    private static byte[] embed(byte[] gif, byte[] payload) throws IOException {
+        LsbField field = new LsbField(payload, 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifCarrierWriter writer = new GifCarrierWriter(ByteBuffer.wrap(gif), out);
+        while (!field.isComplete() && writer.next()) {
+            field.embed(writer.carrier(), writer.offset(), writer.length(), writer.position());
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+
+    private static int runRange(byte[] gif, int table, int run) {
+        int range = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int min = 255;
+            int max = 0;
+            for (int i = run; i < run + 8; i++) {
+                int value = gif[table + i * 3 + channel] & 0xFF;
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            range = Math.max(range, max - min);
+        }
+        return range;
+    }
+
+    private static void assertFrames(byte[] expected, byte[] actual) throws IOException {
+        BufferedImage[] before = frames(expected);
+        BufferedImage[] after = frames(actual);
+        assertEquals(before.length, after.length);
+        for (int f = 0; f < before.length; f++) {
+            assertArrayEquals(argb(before[f]), argb(after[f]));
+        }
+    }
+
+    private static int maxChannelChange(byte[] gif, byte[] stego) throws IOException {
+        BufferedImage[] before = frames(gif);
+        BufferedImage[] after = frames(stego);
+        int max = 0;
+        for (int f = 0; f < before.length; f++) {
+            int[] a = argb(before[f]);
+            int[] b = argb(after[f]);
+            for (int i = 0; i < a.length; i++) {
+                for (int shift = 0; shift < 24; shift += 8) {
+                    max = Math.max(max, Math.abs((a[i] >>> shift & 0xFF) - (b[i] >>> shift & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+
+    private static BufferedImage[] frames(byte[] gif) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            BufferedImage[] frames = new BufferedImage[reader.getNumImages(true)];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = reader.read(i);
+            }
+            return frames;
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static int[] argb(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScatteredFieldTest {
+
+    @Test
+    void stripesWriteWhatASingleWorkerWrites() throws Exception {
+        int carrierBytes = 4 * ScatteredField.MIN_STRIPE_BYTES;
+        byte[] data = random(carrierBytes / 3, 3);
+        FeistelPermutation order = new FeistelPermutation(new byte[] {4}, carrierBytes);
+        byte[] single = random(carrierBytes, 5);
+        byte[] striped = single.clone();
+
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            one.submit(() -> new ScatteredField(data, 0, order).embed(single, 0, carrierBytes, 0)).get();
+            four.submit(() -> new ScatteredField(data, 0, order).embed(striped, 0, carrierBytes, 0)).get();
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+        assertArrayEquals(single, striped);
+    }
+
+    @Test
+    void scatteredFieldsRoundTripAcrossStripes() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int carrierBytes = 6 * ScatteredField.MIN_STRIPE_BYTES;
+            byte[] carrier = random(carrierBytes, 1);
+            byte[] data = random(carrierBytes / 3, 2);
+            FeistelPermutation order = new FeistelPermutation(new byte[] {9}, carrierBytes - 100);
+
+            ScatteredField embedded = new ScatteredField(data, 100, order);
+            // Two segments, the second one long enough to be striped.
+            pool.submit(() -> {
+                embedded.embed(carrier, 0, 1000, 0);
+                embedded.embed(carrier, 1000, carrierBytes - 1000, 1000);
+            }).get();
+            assertTrue(embedded.isComplete());
+
+            ScatteredField extracted = new ScatteredField(data.length, 100, order);
+            pool.submit(() -> {
+                extracted.extract(carrier, 0, 1000, 0);
+                extracted.extract(carrier, 1000, carrierBytes - 1000, 1000);
+            }).get();
+            assertTrue(extracted.isComplete());
+            assertArrayEquals(data, extracted.data());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StegoCipherEngineTest {
+    private final StegoCipherEngine engine = new StegoCipherEngine();
+    private final byte[] key = new byte[StegoCrypto.AES_KEY_BYTES];
+
+    @Test
+    void matchesPlainJdkGcm() throws Exception {
+        String text = "\u043f\u0440\u0438\u0432\u0435\u0442, stego \uD83D\uDC4B";
+        byte[] payload = engine.encrypt(text, key);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                new GCMParameterSpec(StegoCrypto.GCM_TAG_LENGTH, payload, 0, StegoCrypto.GCM_IV_LENGTH));
+        byte[] plain = cipher.doFinal(payload, StegoCrypto.GCM_IV_LENGTH, payload.length - StegoCrypto.GCM_IV_LENGTH);
+
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), plain);
+        assertEquals(StegoCrypto.encryptedLength(StegoCrypto.utf8Length(text)), payload.length);
+        assertEquals(text, engine.decryptToString(payload, key));
+    }
+
+    @Test
+    void roundTripsPastTheRetainedScratchSize() throws Exception {
+        String text = "x".repeat(StegoCipherEngine.MAX_RETAINED_SCRATCH + 5);
+
+        assertEquals(text, engine.decryptToString(engine.encrypt(text, key), key));
+        assertEquals("short", engine.decryptToString(engine.encrypt("short", key), key));
+    }
+
+    @Test
+    void encodesLoneSurrogatesLikeGetBytes() throws Exception {
+        String text = "a\uD800b";
+        byte[] payload = engine.encrypt(text, key);
+
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), engine.decrypt(payload, key));
+        assertEquals(text.getBytes(StandardCharsets.UTF_8).length, StegoCrypto.utf8Length(text));
+    }
+
+    @Test
+    void rejectsWrongKeyAndShortPayload() throws Exception {
+        byte[] payload = engine.encrypt("secret", key);
+        byte[] otherKey = key.clone();
+        otherKey[0] = 1;
+
+        assertThrows(AEADBadTagException.class, () -> engine.decryptToString(payload, otherKey));
+        assertThrows(GeneralSecurityException.class, () -> engine.decrypt(new byte[5], key));
+        assertEquals("secret", engine.decryptToString(payload, key));
+    }
+
+    @Test
+    void roundTripsSegmentsAndRejectsDroppedOrSwappedChunks() throws Exception {
+        byte[] message = new byte[2 * StegoCrypto.CHUNK_BYTES + 100];
+        new Random(7).nextBytes(message);
+        byte[] payload = segmented(engine.segmenter(message, key));
+        int chunk = StegoCrypto.CHUNK_BYTES + StegoCrypto.GCM_TAG_BYTES;
+
+        assertEquals(StegoCrypto.segmentedLength(message.length), payload.length);
+        assertArrayEquals(message, engine.decryptSegmented(payload, key));
+
+        byte[] dropped = Arrays.copyOf(payload, StegoCrypto.GCM_IV_LENGTH + 2 * chunk);
+        assertThrows(AEADBadTagException.class, () -> engine.decryptSegmented(dropped, key));
+
+        byte[] swapped = payload.clone();
+        System.arraycopy(payload, StegoCrypto.GCM_IV_LENGTH + chunk, swapped, StegoCrypto.GCM_IV_LENGTH, chunk);
+        System.arraycopy(payload, StegoCrypto.GCM_IV_LENGTH, swapped, StegoCrypto.GCM_IV_LENGTH + chunk, chunk);
+        assertThrows(AEADBadTagException.class, () -> engine.decryptSegmented(swapped, key));
+
+        assertThrows(GeneralSecurityException.class, () -> engine.decryptSegmented(new byte[StegoCrypto.GCM_IV_LENGTH + 5], key));
+    }
+
+    @Test
+    void rewritesEarlierChunksToTheSameCiphertext() throws Exception {
+        byte[] message = new byte[3 * StegoCrypto.CHUNK_BYTES];
+        new Random(5).nextBytes(message);
+        StegoCipherEngine.Segmenter segmenter = engine.segmenter(message, key);
+
+        byte[] first = segmented(segmenter);
+        // Every chunk but the last is a rewind now, twice over.
+        assertArrayEquals(first, segmented(segmenter));
+        assertArrayEquals(first, segmented(segmenter));
+        assertArrayEquals(message, engine.decryptSegmented(first, key));
+    }
+
+    @Test
+    void segmentsAnEmptyMessageIntoOneChunk() throws Exception {
+        byte[] payload = segmented(engine.segmenter(new byte[0], key));
+
+        assertEquals(StegoCrypto.GCM_IV_LENGTH + StegoCrypto.GCM_TAG_BYTES, payload.length);
+        assertEquals(0, engine.decryptSegmented(payload, key).length);
+    }
+
+    @Test
+    void neverRepeatsNonceAcrossThreads() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[][]>> results = pool.invokeAll(java.util.Collections.nCopies(4, () -> {
+                byte[][] nonces = new byte[500][];
+                for (int i = 0; i < nonces.length; i++) {
+                    byte[] payload = engine.encrypt("m" + i, key);
+                    assertEquals("m" + i, engine.decryptToString(payload, key));
+                    nonces[i] = Arrays.copyOf(payload, StegoCrypto.GCM_IV_LENGTH);
+                }
+                return nonces;
+            }));
+
+            Set<String> seen = new HashSet<>();
+            for (Future<byte[][]> result : results) {
+                for (byte[] nonce : result.get()) {
+                    assertTrue(seen.add(Arrays.toString(nonce)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] segmented(StegoCipherEngine.Segmenter segmenter) throws GeneralSecurityException {
+        byte[] payload = Arrays.copyOf(segmenter.nonce(), StegoCrypto.GCM_IV_LENGTH + (int) segmenter.ciphertextLength());
+        int at = StegoCrypto.GCM_IV_LENGTH;
+        for (int i = 0; i < segmenter.chunks(); i++) {
+            System.arraycopy(segmenter.chunk(i), 0, payload, at, segmenter.chunkLength(i));
+            at += segmenter.chunkLength(i);
+        }
+        return payload;
+    }
+}
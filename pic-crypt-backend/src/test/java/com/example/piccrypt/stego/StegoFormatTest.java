@@ -0,0 +1,252 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StegoFormatTest {
+    private static final byte[] KEY_CHECK = random(StegoCrypto.KEY_CHECK_BYTES, 0);
+    private static final byte[] KEY = random(StegoCrypto.AES_KEY_BYTES, 29);
+    private static final StegoCipherEngine ENGINE = new StegoCipherEngine();
+
+    @Test
+    void readsBackVersion4AcrossFrames() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 3, 1);
+        byte[] salt = StegoCrypto.newSalt();
+        byte[] message = random(1500, 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StegoFormat.embed(ByteBuffer.wrap(gif), salt, KEY_CHECK, StegoFormat.FLAG_DEFLATE, ENGINE.segmenter(message, KEY), out);
+        StegoFormat.Payload payload = StegoFormat.extract(ByteBuffer.wrap(out.toByteArray()));
+
+        assertEquals(StegoFormat.VERSION_4, payload.version());
+        assertArrayEquals(salt, payload.salt());
+        assertEquals(StegoCrypto.KDF_ITERATIONS, payload.kdfIterations());
+        assertArrayEquals(KEY_CHECK, payload.keyCheck());
+        assertTrue(payload.isDeflated());
+        assertEquals(StegoCrypto.segmentedLength(message.length), payload.message().length);
+        assertArrayEquals(message, plain(payload));
+        assertFalse(StegoFormat.extract(ByteBuffer.wrap(embed(gif, salt, message))).isDeflated());
+    }
+
+    @Test
+    void readsBackChunksFromTheirOwnWindows() throws Exception {
+        byte[] gif = TestGifs.animated(320, 240, 6, 30);
+        byte[] message = random(2 * StegoCrypto.CHUNK_BYTES + 1000, 31);
+        byte[] stego = embed(gif, StegoCrypto.newSalt(), message);
+
+        assertEquals(3, StegoCrypto.chunks(message.length));
+        assertArrayEquals(message, plain(StegoFormat.extract(ByteBuffer.wrap(stego))));
+        assertArrayEquals(message, plain(stream(stego)));
+    }
+
+    @Test
+    void fillsTheWholeCarrier() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 3, 21);
+        byte[] message = random((int) StegoCrypto.segmentedMessageLength(StegoFormat.capacity(ByteBuffer.wrap(gif))), 22);
+
+        StegoFormat.Payload payload = StegoFormat.extract(ByteBuffer.wrap(embed(gif, StegoCrypto.newSalt(), message)));
+
+        assertArrayEquals(message, plain(payload));
+        assertThrows(IllegalArgumentException.class, () -> embed(gif, StegoCrypto.newSalt(), random(message.length + 1, 23)));
+    }
+
+    @Test
+    void keepsSmallPayloadsInAPrefixOfTheCarrier() throws Exception {
+        byte[] gif = TestGifs.animated(320, 240, 6, 17);
+        byte[] stego = embed(gif, StegoCrypto.newSalt(), random(300, 18));
+
+        // Frames past the window are encoded again as they were.
+        GifCarrierReader before = new GifCarrierReader(ByteBuffer.wrap(gif));
+        GifCarrierReader after = new GifCarrierReader(ByteBuffer.wrap(stego));
+        long windowEnd = StegoFormat.MESSAGE_START
+                + StegoFormat.WINDOW_SPREAD * LsbField.carrierBytes(300 + StegoCrypto.GCM_TAG_BYTES);
+        boolean changedInWindow = false;
+        while (before.next() && after.next()) {
+            byte[] original = Arrays.copyOfRange(before.carrier(), before.offset(), before.offset() + before.length());
+            byte[] changed = Arrays.copyOfRange(after.carrier(), after.offset(), after.offset() + after.length());
+            if (before.position() >= windowEnd) {
+                assertArrayEquals(original, changed, "segment at " + before.position() + " changed");
+            } else {
+                changedInWindow |= !Arrays.equals(original, changed);
+            }
+        }
+        assertTrue(changedInWindow);
+        assertArrayEquals(Arrays.copyOfRange(gif, gif.length - 1024, gif.length),
+                Arrays.copyOfRange(stego, stego.length - 1024, stego.length));
+    }
+
+    @Test
+    void streamReadsOnlyThePrefixThePayloadNeeds() throws Exception {
+        byte[] gif = TestGifs.animated(320, 240, 6, 13);
+        byte[] message = random(150, 14);
+        byte[] stego = embed(gif, StegoCrypto.newSalt(), message);
+
+        CountingInputStream in = new CountingInputStream(stego);
+        StegoFormat.Payload payload = StegoFormat.extract(in, ByteBuffer.allocateDirect(stego.length));
+
+        // The window ends in the first frame, which is decoded as a whole.
+        assertArrayEquals(message, plain(payload));
+        assertTrue(in.read < stego.length / 2, "read " + in.read + " of " + stego.length + " bytes");
+    }
+
+    @Test
+    void channelOutputMatchesStreamOutput() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 4, 11);
+        StegoFormat.Embedding embedding = StegoFormat.embedding(ByteBuffer.wrap(gif), StegoCrypto.newSalt(), KEY_CHECK, 0,
+                ENGINE.segmenter(random(200, 12), KEY));
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        embedding.writeTo(streamed);
+        ByteArrayOutputStream channeled = new ByteArrayOutputStream();
+        embedding.writeTo(Channels.newChannel(channeled));
+
+        assertArrayEquals(streamed.toByteArray(), channeled.toByteArray());
+    }
+
+    @Test
+    void stillReadsVersion0() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 2, 3);
+        byte[] hash = StegoCrypto.passwordHash("secret");
+        byte[] message = random(500, 4);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StegoFormat.embedV0(ByteBuffer.wrap(gif), hash, message, out);
+        StegoFormat.Payload payload = StegoFormat.extract(ByteBuffer.wrap(out.toByteArray()));
+
+        assertEquals(StegoFormat.VERSION_0, payload.version());
+        assertArrayEquals(hash, payload.passwordHash());
+        assertArrayEquals(message, payload.message());
+    }
+
+    @Test
+    void readsVersion0WhenPaletteIsShorterThanTheHeader() throws Exception {
+        // 8 colors: 24 palette bytes, the rest of both layouts is in the frames.
+        byte[] gif = TestGifs.build(16, 16, 2, 5, 3, false);
+        byte[] message = random(40, 6);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StegoFormat.embedV0(ByteBuffer.wrap(gif), StegoCrypto.passwordHash("pw"), message, out);
+
+        assertArrayEquals(message, StegoFormat.extract(ByteBuffer.wrap(out.toByteArray())).message());
+    }
+
+    @Test
+    void rejectsHeaderLengthPastCapacity() throws Exception {
+        ByteBuffer corrupted = ByteBuffer.wrap(embed(TestGifs.build(16, 16, 1, 7, 8, true), StegoCrypto.newSalt(), random(30, 8)));
+
+        // Set the high bits of the length field, the last 4 header bytes.
+        int lengthStart = GifCarrierReader.LOGICAL_SCREEN_END + (int) LsbField.carrierBytes(StegoFormat.HEADER_BYTES - 4);
+        corrupted.put(lengthStart, (byte) (corrupted.get(lengthStart) | LsbField.LSB_MASK));
+
+        assertThrows(IllegalArgumentException.class, () -> StegoFormat.extract(corrupted));
+        assertThrows(IllegalArgumentException.class, () -> stream(corrupted.array()));
+    }
+
+    @Test
+    void rejectsUnknownKeyDerivation() throws Exception {
+        ByteBuffer corrupted = ByteBuffer.wrap(embed(TestGifs.build(16, 16, 1, 7, 8, true), StegoCrypto.newSalt(), random(30, 24)));
+
+        // The KDF id follows the magic, version and salt; this sets 3 of its bits.
+        int kdfBits = GifCarrierReader.LOGICAL_SCREEN_END + (int) LsbField.carrierBytes(4 + StegoCrypto.SALT_BYTES);
+        corrupted.put(kdfBits, (byte) (corrupted.get(kdfBits) | LsbField.LSB_MASK));
+
+        assertThrows(IllegalArgumentException.class, () -> StegoFormat.extract(corrupted));
+    }
+
+    @Test
+    void rejectsOtherIterationCounts() throws Exception {
+        ByteBuffer corrupted = ByteBuffer.wrap(embed(TestGifs.build(16, 16, 1, 7, 8, true), StegoCrypto.newSalt(), random(30, 24)));
+
+        // Flips one bit of the low byte of the iteration count, after the KDF id.
+        int iterationBits = GifCarrierReader.LOGICAL_SCREEN_END + (int) LsbField.carrierBytes(4 + StegoCrypto.SALT_BYTES + 1 + 3);
+        corrupted.put(iterationBits, (byte) (corrupted.get(iterationBits) ^ 1));
+
+        assertThrows(IllegalArgumentException.class, () -> StegoFormat.extract(corrupted));
+        assertThrows(IllegalArgumentException.class, () -> stream(corrupted.array()));
+    }
+
+    @Test
+    void streamMatchesBufferAcrossFrames() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 3, 15);
+        byte[] message = random(1500, 16);
+        byte[] stego = embed(gif, StegoCrypto.newSalt(), message);
+
+        assertArrayEquals(message, plain(stream(stego)));
+
+        ByteArrayOutputStream v0 = new ByteArrayOutputStream();
+        StegoFormat.embedV0(ByteBuffer.wrap(gif), StegoCrypto.passwordHash("pw"), message, v0);
+        assertArrayEquals(message, stream(v0.toByteArray()).message());
+    }
+
+    @Test
+    void streamRejectsOtherFormatsAfterSixBytes() {
+        CountingInputStream in = new CountingInputStream("GIF87a and then a lot more".getBytes(StandardCharsets.US_ASCII));
+
+        assertThrows(IllegalArgumentException.class, () -> StegoFormat.extract(in, ByteBuffer.allocate(64)));
+        assertEquals(6, in.read);
+    }
+
+    @Test
+    void streamRejectsInputLongerThanTheBuffer() throws Exception {
+        byte[] gif = TestGifs.animated(40, 30, 3, 34);
+        byte[] message = random((int) StegoCrypto.segmentedMessageLength(StegoFormat.capacity(ByteBuffer.wrap(gif))), 35);
+        byte[] stego = embed(gif, StegoCrypto.newSalt(), message);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> StegoFormat.extract(new ByteArrayInputStream(stego), ByteBuffer.allocate(stego.length / 2)));
+    }
+
+    @Test
+    void returnsNullWhenCarrierCannotHoldHeader() throws Exception {
+        assertNull(StegoFormat.extract(ByteBuffer.wrap(TestGifs.build(8, 8, 1, 9, 2, false))));
+    }
+
+    private static byte[] embed(byte[] gif, byte[] salt, byte[] message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StegoFormat.embed(ByteBuffer.wrap(gif), salt, KEY_CHECK, 0, ENGINE.segmenter(message, KEY), out);
+        return out.toByteArray();
+    }
+
+    private static StegoFormat.Payload stream(byte[] stego) throws Exception {
+        return StegoFormat.extract(new ByteArrayInputStream(stego), ByteBuffer.allocate(stego.length));
+    }
+
+    private static byte[] plain(StegoFormat.Payload payload) throws Exception {
+        return ENGINE.decryptSegmented(payload.message(), KEY);
+    }
+
+    private static final class CountingInputStream extends ByteArrayInputStream {
+        private int read;
+
+        private CountingInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int n = super.read(b, off, len);
+            read += Math.max(0, n);
+            return n;
+        }
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.piccrypt.stego;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+final class TestGifs {
+
+    private TestGifs() {
+    }
+
+    /** Animated GIF89a with a 256 color global table and {@code frames} full-screen frames. */
+    static byte[] animated(int width, int height, int frames, long seed) throws IOException {
+        return build(width, height, frames, seed, 8, false);
+    }
+
+    static byte[] build(int width, int height, int frames, long seed, int tableBits, boolean transparent) throws IOException {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(out, width);
+        writeShort(out, height);
+        out.write(0x80 | 0x70 | (tableBits - 1));
+        out.write(0);
+        out.write(0);
+        byte[] palette = new byte[3 << tableBits];
+        random.nextBytes(palette);
+        out.write(palette);
+
+        int colors = 1 << tableBits;
+        byte[] pixels = new byte[width * height];
+        for (int f = 0; f < frames; f++) {
+            out.write(new byte[]{0x21, (byte) 0xF9, 4, (byte) (transparent ? 0x05 : 0x04), 10, 0, 0, 0});
+            out.write(0x2C);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, width);
+            writeShort(out, height);
+            out.write(0);
+            for (int i = 0; i < pixels.length; i++) {
+                // Smooth runs with some noise, closer to real frames than pure noise.
+                pixels[i] = (byte) ((i / 7 + f * 3 + (random.nextInt(16) == 0 ? random.nextInt(colors) : 0)) % colors);
+            }
+            LzwEncoder encoder = new LzwEncoder(Math.max(2, tableBits), out);
+            encoder.encode(pixels, 0, pixels.length);
+            encoder.finish();
+        }
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+}
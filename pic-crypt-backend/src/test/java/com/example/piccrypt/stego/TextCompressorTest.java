@@ -0,0 +1,83 @@
+package com.example.piccrypt.stego;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TextCompressorTest {
+    private static final String[] CHAT = {
+            "hi, how are you? are we still meeting tomorrow?",
+            "Thanks for the address, I will call you later tonight when I get home. Let me know if anything changes.",
+            "The password for the shared drive is on the sticky note; please don't send it over email, we can talk about it at the meeting on Friday morning.",
+            "\u043f\u0440\u0438\u0432\u0456\u0442! \u044f\u043a \u0441\u043f\u0440\u0430\u0432\u0438? \u0437\u0430\u0432\u0442\u0440\u0430 \u0437\u0443\u0441\u0442\u0440\u0456\u0447 \u043e 10, \u043d\u0435 \u0437\u0430\u0431\u0443\u0434\u044c",
+            "\u0414\u044f\u043a\u0443\u044e \u0437\u0430 \u0430\u0434\u0440\u0435\u0441\u0443, \u044f \u043f\u043e\u0434\u0437\u0432\u043e\u043d\u044e \u0442\u043e\u0431\u0456 \u0432\u0432\u0435\u0447\u0435\u0440\u0456, \u043a\u043e\u043b\u0438 \u0431\u0443\u0434\u0443 \u0432\u0434\u043e\u043c\u0430. \u0414\u0430\u0439 \u0437\u043d\u0430\u0442\u0438, \u044f\u043a\u0449\u043e \u0449\u043e\u0441\u044c \u0437\u043c\u0456\u043d\u0438\u0442\u044c\u0441\u044f.",
+    };
+
+    @Test
+    void roundTripsChatTextSmallerThanPlainDeflate() throws Exception {
+        for (String text : CHAT) {
+            byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+            byte[] packed = TextCompressor.compress(plain);
+
+            assertArrayEquals(plain, TextCompressor.decompress(packed));
+            assertTrue(packed.length < withoutDictionary(plain), text);
+        }
+    }
+
+    @Test
+    void compressesChatTextPastTheEstimatedRatio() {
+        int plainBytes = 0;
+        int packedBytes = 0;
+        for (String text : CHAT) {
+            byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+            plainBytes += plain.length;
+            packedBytes += TextCompressor.compress(plain).length;
+        }
+
+        assertTrue(plainBytes * 100 >= packedBytes * TextCompressor.ESTIMATED_RATIO_PERCENT);
+    }
+
+    @Test
+    void roundTripsTextPastTheFirstOutputBuffer() throws Exception {
+        byte[] plain = String.join(" ", CHAT).repeat(200).getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(plain, TextCompressor.decompress(TextCompressor.compress(plain)));
+    }
+
+    @Test
+    void leavesIncompressibleTextAlone() {
+        byte[] noise = new byte[300];
+        new Random(1).nextBytes(noise);
+
+        assertNull(TextCompressor.compress(noise));
+        assertNull(TextCompressor.compress("ok".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void rejectsTruncatedInput() {
+        byte[] packed = TextCompressor.compress(CHAT[2].getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(DataFormatException.class, () -> TextCompressor.decompress(Arrays.copyOf(packed, packed.length / 2)));
+    }
+
+    private static int withoutDictionary(byte[] plain) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+            byte[] out = new byte[plain.length * 2 + 64];
+            return deflater.deflate(out);
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.piccrypt.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemBlobStoreTest {
+
+    @Test
+    void namesBlobsByTheHashOfTheirContentInShardDirectories() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        BlobStore store = new FileSystemBlobStore(root);
+        byte[] content = "first image".getBytes(StandardCharsets.UTF_8);
+
+        String key = put(store, content, ".gif");
+
+        byte[] sum = BlobKeys.sha256().digest(content);
+        assertEquals(HexFormat.of().formatHex(sum, 0, BlobKeys.HASH_BYTES) + ".gif", key);
+        assertEquals(key.substring(0, 2) + "/" + key.substring(2, 4) + "/" + key, store.path(key));
+        assertArrayEquals(content, Files.readAllBytes(root.resolve(store.path(key))));
+        assertArrayEquals(content, bytes(store.read(key)));
+        try (InputStream in = store.open(key)) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        try (var files = Files.list(root)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void storesRepeatedContentOnceAndDeletesItWithTheLastReference() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        BlobStore store = new FileSystemBlobStore(root);
+        byte[] content = "forwarded".getBytes(StandardCharsets.UTF_8);
+
+        String key = put(store, content, ".png");
+        assertEquals(key, put(store, content, ".png"));
+        store.retain(key);
+        assertEquals(3, store.references(key));
+
+        assertFalse(store.release(key));
+        assertFalse(store.release(key));
+        assertEquals(1, store.references(key));
+        assertFalse(Files.exists(root.resolve(store.path(key) + ".refs")));
+
+        assertTrue(store.release(key));
+        assertFalse(store.exists(key));
+        assertEquals(0, store.references(key));
+        assertFalse(store.release(key));
+    }
+
+    @Test
+    void derivedBlobsGoWithTheirSource() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        BlobStore store = new FileSystemBlobStore(root);
+        String key = put(store, new byte[] {1, 2, 3}, ".jpg");
+
+        store.putDerived(key, "64.jpg", out -> out.write(ByteBuffer.wrap(new byte[] {4})));
+        String derived = BlobKeys.derived(key, "64.jpg");
+        assertTrue(store.exists(derived));
+        assertEquals(store.path(key).replace(key, derived), store.path(derived));
+
+        assertTrue(store.release(key));
+        assertFalse(store.exists(derived));
+
+        store.putDerived(key, "128.jpg", out -> out.write(ByteBuffer.wrap(new byte[] {5})));
+        assertFalse(store.exists(BlobKeys.derived(key, "128.jpg")));
+    }
+
+    @Test
+    void readsAndReleasesFilesWrittenBeforeTheStore() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        Files.write(root.resolve("8f0c2a56-5b0e-4f7e-9a57-2f1d2b7c0e11.gif"), new byte[] {7});
+        BlobStore store = new FileSystemBlobStore(root);
+
+        String key = "8f0c2a56-5b0e-4f7e-9a57-2f1d2b7c0e11.gif";
+        assertTrue(store.exists(key));
+        assertEquals(key, store.path(key));
+        assertArrayEquals(new byte[] {7}, bytes(store.read(key)));
+        assertTrue(store.release(key));
+        assertFalse(Files.exists(root.resolve(key)));
+    }
+
+    @Test
+    void listsStoredAndOlderFilesButNotTheirWorkingFiles() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        Files.write(root.resolve("legacy.png"), new byte[] {1});
+        Files.write(root.resolve("crashed.part"), new byte[] {1});
+        BlobStore store = new FileSystemBlobStore(root);
+        String key = put(store, new byte[] {1, 2}, ".png");
+        put(store, new byte[] {1, 2}, ".png");
+        store.putDerived(key, "64.png", out -> out.write(ByteBuffer.wrap(new byte[] {3})));
+
+        List<String> listed = new ArrayList<>();
+        store.forEach(blob -> listed.add(blob.key() + ":" + blob.size()));
+        listed.sort(null);
+        assertEquals(List.of(key + ":2", "legacy.png:1"), listed);
+
+        assertTrue(store.delete(key));
+        assertFalse(store.exists(key));
+        assertFalse(store.exists(BlobKeys.derived(key, "64.png")));
+        assertFalse(Files.exists(root.resolve(store.path(key) + ".refs")));
+    }
+
+    @Test
+    void refusesKeysOutsideTheStore() throws IOException {
+        Path root = Files.createTempDirectory("blobs");
+        Files.write(root.resolveSibling(root.getFileName() + ".secret"), new byte[] {1});
+        BlobStore store = new FileSystemBlobStore(root);
+
+        for (String key : new String[] {"", "..", "../" + root.getFileName() + ".secret", "a/b.gif", ".hidden", "x.gif.part"}) {
+            assertFalse(store.exists(key), key);
+            assertFalse(store.release(key), key);
+            assertThrows(NoSuchFileException.class, () -> store.read(key), key);
+        }
+    }
+
+    private static String put(BlobStore store, byte[] content, String extension) throws IOException {
+        return store.put(extension, out -> {
+            // Two writes, so the hash has to follow the stream.
+            out.write(ByteBuffer.wrap(content, 0, content.length / 2));
+            out.write(ByteBuffer.wrap(content, content.length / 2, content.length - content.length / 2));
+        });
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.piccrypt.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryBlobStoreTest {
+
+    @Test
+    void keysAndReferencesMatchTheFileSystemStore() throws Exception {
+        BlobStore memory = new InMemoryBlobStore();
+        BlobStore files = new FileSystemBlobStore(Files.createTempDirectory("blobs"));
+        byte[] content = {9, 8, 7, 6, 5};
+
+        String key = put(memory, content);
+        assertEquals(put(files, content), key);
+        assertEquals(files.path(key), memory.path(key));
+        assertEquals(key, put(memory, content));
+        assertEquals(2, memory.references(key));
+
+        memory.putDerived(key, "64.png", out -> out.write(ByteBuffer.wrap(new byte[] {1})));
+        assertTrue(memory.exists(BlobKeys.derived(key, "64.png")));
+        assertFalse(memory.release(key));
+        assertTrue(memory.release(key));
+        assertFalse(memory.exists(key));
+        assertFalse(memory.exists(BlobKeys.derived(key, "64.png")));
+        assertThrows(NoSuchFileException.class, () -> memory.read(key));
+    }
+
+    private static String put(BlobStore store, byte[] content) throws IOException {
+        return store.put(".png", out -> out.write(ByteBuffer.wrap(content)));
+    }
+}